@@ -0,0 +1,37 @@
+/******************************************************************
+ * File:        BatchDeleteIndexer.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.core;
+
+import java.util.Collection;
+
+/**
+ * Indexer which can remove several graphs from its index in one operation.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public interface BatchDeleteIndexer extends Indexer {
+
+    /**
+     * Remove all the named graphs from the index.
+     */
+    public void deleteGraphs(Collection<String> graphnames);
+}
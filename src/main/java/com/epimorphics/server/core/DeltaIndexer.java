@@ -0,0 +1,42 @@
+/******************************************************************
+ * File:        DeltaIndexer.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.core;
+
+import java.util.Collection;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+/**
+ * Indexer which can reindex just the entities affected by a change to a graph,
+ * rather than the whole graph.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public interface DeltaIndexer extends Indexer {
+
+    /**
+     * Reindex the given subjects of a named graph. The graph is the new state of the
+     * whole named graph. Subjects which no longer appear in it should be removed from the index.
+     */
+    public void updateEntities(String graphname, Model graph, Collection<Resource> subjects);
+}
@@ -25,7 +25,8 @@ import com.hp.hpl.jena.rdf.model.Model;
 
 /**
  * Interface for services that can scan an uploaded model and modify them
- * (e.g. to compute an interface closure) prior to storage. Breaks streaming.
+ * (e.g. to compute an interface closure) prior to storage. Breaks streaming
+ * unless the mutator is also a {@link StreamingMutator}.
  *
  * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
  */
@@ -30,6 +30,21 @@ import com.epimorphics.util.EpiException;
 public class ServiceBase implements Service {
 
     protected Map<String, String> config;
+    protected String serviceName;
+
+    /**
+     * Record the name the service is configured under, called before init
+     */
+    public void setServiceName(String name) {
+        this.serviceName = name;
+    }
+
+    /**
+     * The name the service is configured under, null if it was created directly
+     */
+    public String getServiceName() {
+        return serviceName;
+    }
 
     @Override
     public void init(Map<String, String> config, ServletContext context) {
@@ -40,6 +55,13 @@ public class ServiceBase implements Service {
     public void postInit() {
     }
 
+    /**
+     * Return the value of a configuration parameter, or null if it is not set
+     */
+    public String getParam(String param) {
+        return config == null ? null : config.get(param);
+    }
+
     protected String getRequiredParam(String param) {
         String location = config.get(param);
         if (location == null) {
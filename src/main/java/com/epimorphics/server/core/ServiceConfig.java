@@ -245,6 +245,9 @@ public class ServiceConfig implements ServletContextListener {
         for (String serviceName : serviceObjects.keySet()) {
             Service service = serviceObjects.get(serviceName);
             Map<String, String> serviceConfig = configs.get(serviceName);
+            if (service instanceof ServiceBase) {
+                ((ServiceBase)service).setServiceName(serviceName);
+            }
             if (serviceConfig != null) {
                 service.init(serviceConfig, context);
             }
@@ -262,6 +265,9 @@ public class ServiceConfig implements ServletContextListener {
         }
         try {
             Service service = (Service) Class.forName( segments[0].trim() ).newInstance();
+            if (service instanceof ServiceBase) {
+                ((ServiceBase)service).setServiceName(serviceName);
+            }
             Map<String, String> config = new HashMap<String, String>();
             for (int i = 1; i < segments.length; i++) {
                 String param = segments[i].trim();
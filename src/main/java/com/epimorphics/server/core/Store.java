@@ -22,8 +22,10 @@
 package com.epimorphics.server.core;
 
 import java.io.InputStream;
+import java.util.List;
 
 import com.hp.hpl.jena.query.Dataset;
+import com.hp.hpl.jena.query.ResultSetRewindable;
 import com.hp.hpl.jena.rdf.model.Model;
 
 /**
@@ -43,6 +45,54 @@ public interface Store {
 
     public void deleteGraph(String graphname);
 
+    /**
+     * Delete all the named graphs whose names start with the prefix, in a single
+     * write transaction. Returns the names of the deleted graphs.
+     */
+    public List<String> deleteGraphsWithPrefix(String prefix);
+
+    /**
+     * Delete all the named graphs whose whole name matches the regular expression,
+     * in a single write transaction. Returns the names of the deleted graphs.
+     */
+    public List<String> deleteGraphsMatching(String regex);
+
+    /**
+     * Start a batch of updates. All graph adds, updates and deletes made by the calling
+     * thread up to the matching endBatch are applied in a single write transaction
+     * and indexers are notified of a single batch. Batches may be nested.
+     */
+    public void startBatch();
+
+    /**
+     * End a batch of updates, committing them if this is the outermost batch.
+     */
+    public void endBatch();
+
+    /**
+     * End a batch of updates, aborting the whole of the outermost batch.
+     */
+    public void abortBatch();
+
+    /**
+     * Register a listener to be told of each committed change to the store
+     */
+    public void addListener(StoreListener listener);
+
+    public void removeListener(StoreListener listener);
+
+    /**
+     * Return the store version, which increases whenever a change is committed.
+     * Caches should read the version before reading the data it guards.
+     */
+    public long getVersion();
+
+    /**
+     * Return the version at which the named graph last changed, or 0 if it has
+     * not changed since the store started.
+     */
+    public long getGraphVersion(String graphname);
+
     public void addIndexer(Indexer indexer);
     public void addMutator(Mutator mutator);
 
@@ -50,6 +100,20 @@ public interface Store {
 
     public Model getUnionModel();
 
+    /**
+     * Run a SPARQL select query, with prefixes already expanded, over the union model.
+     * Takes a read lock if the caller does not hold one. Results may be served
+     * from a cache so the same query should always be written the same way.
+     */
+    public ResultSetRewindable select(String query);
+
+    /**
+     * Run a SPARQL select query over the dataset's default model, otherwise as
+     * {@link #select(String)}. Unless the store treats its default graph as the
+     * union this sees different data from {@link #select(String)}.
+     */
+    public ResultSetRewindable selectDefault(String query);
+
     public void lock();
     public void lockWrite();
     public void unlock();
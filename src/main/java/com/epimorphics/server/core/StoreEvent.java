@@ -0,0 +1,94 @@
+/******************************************************************
+ * File:        StoreEvent.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.core;
+
+import com.hp.hpl.jena.rdf.model.Model;
+
+/**
+ * A committed change to one graph in a {@link Store}.
+ * <p>
+ * The triples added and removed are given where the store knows them. For an
+ * ADDED event the added model is the data that was added. For an UPDATED event
+ * either both are the difference from the old graph, or just added is given and is
+ * the new content of the graph, or neither is known. Either model may be null.
+ * </p>
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class StoreEvent {
+
+    public enum Type { ADDED, UPDATED, DELETED };
+
+    protected Store store;
+    protected Type type;
+    protected String graphname;
+    protected long version;
+    protected Model added;
+    protected Model removed;
+
+    public StoreEvent(Store store, Type type, String graphname, long version, Model added, Model removed) {
+        this.store = store;
+        this.type = type;
+        this.graphname = graphname;
+        this.version = version;
+        this.added = added;
+        this.removed = removed;
+    }
+
+    public Store getStore() {
+        return store;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getGraphname() {
+        return graphname;
+    }
+
+    /**
+     * The store version, and the new version of this graph, after the change
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Triples added by the change, null if not known
+     */
+    public Model getAdded() {
+        return added;
+    }
+
+    /**
+     * Triples removed by the change, null if not known
+     */
+    public Model getRemoved() {
+        return removed;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + graphname + " @" + version;
+    }
+}
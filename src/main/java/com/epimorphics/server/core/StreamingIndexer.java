@@ -0,0 +1,42 @@
+/******************************************************************
+ * File:        StreamingIndexer.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.core;
+
+import org.apache.jena.riot.system.StreamRDF;
+
+import com.hp.hpl.jena.rdf.model.Model;
+
+/**
+ * Indexer which can be fed from the triple stream of an upload, in
+ * parallel with the store itself, rather than rescanning the stored graph.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public interface StreamingIndexer extends Indexer {
+
+    /**
+     * Return a stream to receive the (mutated) triples of the named graph as they are loaded.
+     * The target is the stored graph, which will already contain each triple by the time
+     * the indexer sees it, so may be used to look up the full description of an entity.
+     */
+    public StreamRDF indexStream(String graphname, Model target, boolean update);
+}
@@ -0,0 +1,88 @@
+/******************************************************************
+ * File:        FacetSearchResult.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.indexers;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Result of a faceted lucene search. Gives a page of the matching entities, the
+ * total number of matches and, for each category property, the values found
+ * in the matches with their counts in descending order of count.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class FacetSearchResult {
+
+    protected LuceneResult[] hits;
+    protected int totalHits;
+    protected Map<String, Map<String, Long>> facets = new LinkedHashMap<String, Map<String, Long>>();
+
+    public LuceneResult[] getHits() {
+        return hits;
+    }
+
+    public void setHits(LuceneResult[] hits) {
+        this.hits = hits;
+    }
+
+    public int getTotalHits() {
+        return totalHits;
+    }
+
+    public void setTotalHits(int totalHits) {
+        this.totalHits = totalHits;
+    }
+
+    /**
+     * Return the category properties and their value counts
+     */
+    public Map<String, Map<String, Long>> getFacets() {
+        return facets;
+    }
+
+    /**
+     * Return the counts of each value of the given category property, empty if none were found
+     */
+    public Map<String, Long> getFacetCounts(String category) {
+        Map<String, Long> counts = facets.get(category);
+        return counts == null ? Collections.<String, Long>emptyMap() : counts;
+    }
+
+    public void addCategory(String category) {
+        if (!facets.containsKey(category)) {
+            facets.put(category, new LinkedHashMap<String, Long>());
+        }
+    }
+
+    public void addCount(String category, String value, long count) {
+        addCategory(category);
+        facets.get(category).put(value, count);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FacetSearchResult(%d hits): %s", totalHits, facets);
+    }
+
+}
@@ -23,14 +23,30 @@ package com.epimorphics.server.indexers;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.servlet.ServletContext;
 
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
@@ -38,17 +54,39 @@ import org.apache.lucene.document.Field;
 import org.apache.lucene.document.LongField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.facet.index.FacetFields;
+import org.apache.lucene.facet.params.FacetIndexingParams;
+import org.apache.lucene.facet.params.FacetSearchParams;
+import org.apache.lucene.facet.search.CountFacetRequest;
+import org.apache.lucene.facet.search.DrillDownQuery;
+import org.apache.lucene.facet.search.FacetRequest;
+import org.apache.lucene.facet.search.FacetResult;
+import org.apache.lucene.facet.search.FacetResultNode;
+import org.apache.lucene.facet.search.FacetsCollector;
+import org.apache.lucene.facet.taxonomy.CategoryPath;
+import org.apache.lucene.facet.taxonomy.TaxonomyReader;
+import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyReader;
+import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyWriter;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MultiCollector;
+import org.apache.lucene.search.NRTManager;
+import org.apache.lucene.search.NRTManager.TrackingIndexWriter;
+import org.apache.lucene.search.NRTManagerReopenThread;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.RAMDirectory;
@@ -56,13 +94,24 @@ import org.apache.lucene.util.Version;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.epimorphics.server.core.BatchDeleteIndexer;
+import com.epimorphics.server.core.DeltaIndexer;
 import com.epimorphics.server.core.Indexer;
 import com.epimorphics.server.core.Service;
 import com.epimorphics.server.core.ServiceBase;
 import com.epimorphics.server.core.Shutdown;
+import com.epimorphics.server.core.Store;
+import com.epimorphics.server.core.StreamingIndexer;
+import com.epimorphics.server.metrics.Counter;
+import com.epimorphics.server.metrics.Gauge;
+import com.epimorphics.server.metrics.Metrics;
+import com.epimorphics.server.metrics.MetricsRegistry;
 import com.epimorphics.util.EpiException;
 import com.epimorphics.util.FileUtil;
 import com.epimorphics.vocabs.Li;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.query.Dataset;
 import com.hp.hpl.jena.rdf.model.Literal;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.Property;
@@ -91,66 +140,116 @@ import com.hp.hpl.jena.vocabulary.RDF;
  * indexed as non-shared lexical forms).
  * </p>
  * <p>
+ * Values of the configured category properties (<code>li:categoryProp</code>) are also added
+ * to a facet taxonomy, kept in the directory <code>location-taxonomy</code>, as the category
+ * path (property URI, value). Use {@link #facetSearch(Query, Map, int, int, int)} to get
+ * the counts of each facet value over the matching entities and to drill down on them.
+ * </p>
+ * <p>
  * Configuration parameters are:
  * <ul>
  *  <li>location - directory where the index should be built and stored</li>
  *  <li>config  - RDF file giving the index configuration</li>
  *  <li>commitWindow - time in sec to wait after a change before committing, default 0</li>
+ *  <li>nrtMaxStale - enables near real time mode, in which searchers are reopened by a
+ *  background thread at most this many seconds after a change rather than after every change</li>
+ *  <li>nrtMinStale - minimum time in sec between reopens while a caller is waiting for a change, default 0.025</li>
+ *  <li>indexThreads - number of threads used to build and analyse the documents when indexing
+ *  a whole graph, default 1</li>
+ *  <li>metrics - prefix for the index metrics, default "index"</li>
+ *  <li>waitForSearch - in near real time mode, make each index update (or batch) wait until
+ *  the change is visible to searches, callers can also do this selectively with {@link #waitForSearch()}</li>
  * </ul>
  * </p>
+ * <p>
+ * Each instance has its own writer, searcher and commit timer so several independent
+ * indexes can be configured, but each must have its own location.
+ * </p>
+ * <p>
+ * The whole index can be rebuilt from a store in the background, see {@link #startReindex(Store)}.
+ * </p>
  *
  * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
  */
 
-// TODO implement the faceted search indexing support
-
 // TODO do we need to periodically close the writer? Makes it hard to use NRT search.
 
-public class LuceneIndex extends ServiceBase implements Indexer, Service, Shutdown {
+public class LuceneIndex extends ServiceBase implements Indexer, StreamingIndexer, DeltaIndexer, BatchDeleteIndexer, Service, Shutdown {
     static Logger log = LoggerFactory.getLogger(Indexer.class);
 
     public static final String LOCATION_PARAM = "location";
     public static final String CONFIG_PARAM = "config";
     public static final String COMMIT_PARAM = "commitWindow";
+    public static final String NRT_MAX_STALE_PARAM = "nrtMaxStale";
+    public static final String NRT_MIN_STALE_PARAM = "nrtMinStale";
+    public static final String WAIT_FOR_SEARCH_PARAM = "waitForSearch";
+    public static final String INDEX_THREADS_PARAM = "indexThreads";
+    public static final String METRICS_PARAM = "metrics";
 
     public static final String FIELD_URI = "uri";
     public static final String FIELD_GRAPH = "graph";
     public static final String FIELD_LABEL = "label";
 
     protected static int DEFAULT_COMMIT_WINDOW = 0;
+    protected static double DEFAULT_NRT_MIN_STALE = 0.025;
+    protected static int PARALLEL_CHUNK_SIZE = 200;
+
+    protected volatile IndexConfig indexConfig = new IndexConfig();
+
+    // Index updates share the read side, a rebuild takes the write side to switch indexes
+    protected final ReentrantReadWriteLock updateLock = new ReentrantReadWriteLock();
 
-    protected boolean indexAll;
-    protected Set<Resource> labelProps = new HashSet<Resource>();
-    protected Set<Resource> labelOnlyProps = new HashSet<Resource>();
-    protected Set<Resource> ignoreProps = new HashSet<Resource>();
-    protected Set<Resource> valueProps = new HashSet<Resource>();
+    // Index directories in use in this JVM, each may only be opened by one instance
+    protected static final Set<String> locationsInUse = new HashSet<String>();
 
+    protected String configLocation;
+    protected String indexLocation;
     protected Directory indexDir;
 
-    protected static IndexWriter writer;
-    protected static SearcherManager searchManager;
+    protected IndexWriter writer;
+    protected Directory taxonomyDir;
+    protected DirectoryTaxonomyWriter taxonomyWriter;
+    protected DirectoryTaxonomyReader taxonomyReader;
+    protected ReferenceManager<IndexSearcher> searchManager;
+    protected TrackingIndexWriter trackingWriter;
+    protected NRTManagerReopenThread reopenThread;
+    protected final AtomicLong lastGeneration = new AtomicLong();
+    protected boolean waitForSearch = false;
+    protected double nrtMaxStale;
+    protected double nrtMinStale;
+    protected volatile Reindex reindex;
+    protected ExecutorService indexPool;
+    protected int indexThreads = 1;
+    protected com.epimorphics.server.metrics.Timer indexTimer;
+    protected Counter docsIndexed;
 
     protected int batchDepth = 0;
     protected int commitWindow = DEFAULT_COMMIT_WINDOW;
     protected boolean commitScheduled = false;
-    protected static Timer cleanupTimer;
+    protected Timer cleanupTimer;
 
     @Override
     public void init(Map<String, String> config, ServletContext context) {
         super.init(config, context);
         try {
-            String indexLocation = getFileParam(LOCATION_PARAM);
-            if (indexLocation == null) {
+            String location = getFileParam(LOCATION_PARAM);
+            if (location == null) {
                 // Typically used for testing only
                 log.warn("No index location, creating RAM directory");
                 indexDir = new RAMDirectory();
                 getIndexWriter().commit();
             } else {
-                File indexF = new File(indexLocation);
+                File indexF = new File(location);
+                synchronized (locationsInUse) {
+                    if (!locationsInUse.add(indexF.getCanonicalPath())) {
+                        throw new EpiException("Index location is already used by another indexer: " + location);
+                    }
+                }
+                indexLocation = indexF.getCanonicalPath();
                 indexDir = FSDirectory.open( indexF );
                 if (!indexF.exists() || (indexF.isDirectory() && indexF.list().length == 0)) {
-                    log.warn("No existing index files, initializing directory " + indexLocation);
-                    FileUtil.ensureDir(indexLocation);
+                    log.warn("No existing index files, initializing directory " + location);
+                    FileUtil.ensureDir(location);
                     getIndexWriter().commit();
                 }
             }
@@ -165,34 +264,222 @@ public class LuceneIndex extends ServiceBase implements Indexer, Service, Shutdo
             }
 
             IndexWriter writer = getIndexWriter();
-            searchManager = new SearcherManager(writer, true, null);
+            waitForSearch = "true".equalsIgnoreCase( config.get(WAIT_FOR_SEARCH_PARAM) );
+            String maxStale = config.get(NRT_MAX_STALE_PARAM);
+            if (maxStale != null) {
+                nrtMaxStale = Double.parseDouble(maxStale);
+                nrtMinStale = config.containsKey(NRT_MIN_STALE_PARAM) ? Double.parseDouble(config.get(NRT_MIN_STALE_PARAM)) : DEFAULT_NRT_MIN_STALE;
+                trackingWriter = new TrackingIndexWriter(writer);
+                searchManager = new NRTManager(trackingWriter, null, true);
+                startReopenThread();
+            } else {
+                searchManager = new SearcherManager(writer, true, null);
+            }
+
+            if (config.containsKey(INDEX_THREADS_PARAM)) {
+                indexThreads = getRequiredIntParam(INDEX_THREADS_PARAM);
+                if (indexThreads > 1) {
+                    indexPool = Executors.newFixedThreadPool(indexThreads, new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "lucene-index-worker");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                }
+            }
+            initMetrics( config.containsKey(METRICS_PARAM) ? config.get(METRICS_PARAM)
+                    : (getServiceName() == null ? "index" : getServiceName()) );
 
-            String configLocation = getRequiredFileParam(CONFIG_PARAM);
-            Model configModel = FileManager.get().loadModel(configLocation);
-            analyseConfigModel( configModel );
+            configLocation = getRequiredFileParam(CONFIG_PARAM);
+            indexConfig = analyseConfigModel( FileManager.get().loadModel(configLocation) );
         } catch (Exception e) {
+            // Release the writer and the location so the configuration can be retried
+            shutdown();
             throw new EpiException(e);
         }
     }
 
+    protected void startReopenThread() {
+        reopenThread = new NRTManagerReopenThread((NRTManager)searchManager, nrtMaxStale, nrtMinStale);
+        reopenThread.setName("lucene-nrt-reopen");
+        reopenThread.setDaemon(true);
+        reopenThread.start();
+    }
+
+    // Each update marks its graphs as changed, for any rebuild in progress, within the update lock
+
     @Override
     public void addGraph(String graphname, Model graph) {
-        indexGraph(graphname, graph, false);
+        updateLock.readLock().lock();
+        try {
+            markChanged(graphname);
+            indexGraph(graphname, graph, false);
+        } finally {
+            updateLock.readLock().unlock();
+        }
     }
 
     @Override
     public void updateGraph(String graphname, Model graph) {
-        indexGraph(graphname, graph, true);
+        updateLock.readLock().lock();
+        try {
+            markChanged(graphname);
+            indexGraph(graphname, graph, true);
+        } finally {
+            updateLock.readLock().unlock();
+        }
     }
 
     @Override
     public void deleteGraph(String graphname) {
+        updateLock.readLock().lock();
+        try {
+            markChanged(graphname);
+            deleteDocuments(new Term(FIELD_GRAPH, graphname));
+            requestCommit();
+        } catch (Exception e) {
+            throw new EpiException(e);
+        } finally {
+            updateLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteGraphs(Collection<String> graphnames) {
+        if (graphnames.isEmpty()) return;
+        Term[] terms = new Term[ graphnames.size() ];
+        int i = 0;
+        for (String graphname : graphnames) {
+            terms[i++] = new Term(FIELD_GRAPH, graphname);
+        }
+        updateLock.readLock().lock();
+        try {
+            for (String graphname : graphnames) {
+                markChanged(graphname);
+            }
+            deleteDocuments(terms);
+            requestCommit();
+        } catch (Exception e) {
+            throw new EpiException(e);
+        } finally {
+            updateLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void updateEntities(String graphname, Model graph, Collection<Resource> subjects) {
+        updateLock.readLock().lock();
         try {
-            IndexWriter iwriter = getIndexWriter();
-            iwriter.deleteDocuments(new Term(FIELD_GRAPH, graphname));
+            markChanged(graphname);
+            for (Resource subject : subjects) {
+                if (subject.isAnon()) continue;
+                Resource entity = subject.inModel(graph);
+                if (entity.hasProperty(RDF.type)) {
+                    indexEntity(true, graphname, entity);
+                } else {
+                    deleteDocuments( entityQuery(graphname, subject.getURI()) );
+                }
+            }
             requestCommit();
         } catch (Exception e) {
             throw new EpiException(e);
+        } finally {
+            updateLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Query to find the document for an entity in a specific graph
+     */
+    protected Query entityQuery(String graphname, String uri) {
+        BooleanQuery query = new BooleanQuery();
+        query.add(new TermQuery(new Term(FIELD_URI, uri)), Occur.MUST);
+        query.add(new TermQuery(new Term(FIELD_GRAPH, graphname)), Occur.MUST);
+        return query;
+    }
+
+    @Override
+    public StreamRDF indexStream(String graphname, Model target, boolean update) {
+        updateLock.readLock().lock();
+        try {
+            markChanged(graphname);
+        } finally {
+            updateLock.readLock().unlock();
+        }
+        return new EntityStream(graphname, target, update);
+    }
+
+    /**
+     * Indexes the entities in a triple stream. Each entity is indexed from the target graph
+     * when the stream moves on to a new subject. Subjects which are not contiguous in the
+     * stream are reindexed once the stream finishes. A failed parse may never finish the
+     * stream, so the update lock is taken for each change rather than for the whole stream,
+     * and the graph is marked as changed again at the end.
+     */
+    protected class EntityStream extends StreamRDFBase {
+        protected String graphname;
+        protected Model target;
+        protected boolean update;
+        protected Node current;
+        protected Set<Node> seen = new HashSet<Node>();
+        protected Set<Node> revisit = new LinkedHashSet<Node>();
+
+        public EntityStream(String graphname, Model target, boolean update) {
+            this.graphname = graphname;
+            this.target = target;
+            this.update = update;
+        }
+
+        @Override
+        public void triple(Triple triple) {
+            Node subject = triple.getSubject();
+            if (!subject.isURI() || subject.equals(current)) return;
+            flush();
+            current = subject;
+            if (!seen.add(subject)) {
+                revisit.add(subject);
+            }
+        }
+
+        @Override
+        public void finish() {
+            flush();
+            updateLock.readLock().lock();
+            try {
+                markChanged(graphname);
+                for (Node subject : revisit) {
+                    deleteDocuments( entityQuery(graphname, subject.getURI()) );
+                    indexSubject(subject);
+                }
+                requestCommit();
+            } catch (IOException e) {
+                throw new EpiException(e);
+            } finally {
+                updateLock.readLock().unlock();
+            }
+        }
+
+        protected void flush() {
+            if (current != null && !revisit.contains(current)) {
+                updateLock.readLock().lock();
+                try {
+                    markChanged(graphname);
+                    indexSubject(current);
+                } catch (IOException e) {
+                    throw new EpiException(e);
+                } finally {
+                    updateLock.readLock().unlock();
+                }
+            }
+        }
+
+        protected void indexSubject(Node subject) throws IOException {
+            Resource entity = target.getResource(subject.getURI());
+            if (entity.hasProperty(RDF.type)) {
+                indexEntity(update, graphname, entity);
+            }
         }
     }
 
@@ -240,27 +527,140 @@ public class LuceneIndex extends ServiceBase implements Indexer, Service, Shutdo
         }
     }
 
+    /**
+     * Search the index for entities which match a lucene query, returning a page of the
+     * matches together with the counts of the values of each category property over all
+     * the matches.
+     *
+     * @param query the query to match
+     * @param drillDown optional map from category property URI to a value, restricts the matches
+     * to entities which have all the given values
+     * @param offset index of the first match to return
+     * @param maxResults maximum number of matches to return
+     * @param maxFacetValues maximum number of values, with the highest counts, to return for each category property
+     */
+    public FacetSearchResult facetSearch(Query query, Map<String, String> drillDown, int offset, int maxResults, int maxFacetValues) {
+        Set<Resource> categories = indexConfig.categoryProps;
+        if (drillDown != null && !drillDown.isEmpty()) {
+            DrillDownQuery ddq = new DrillDownQuery(FacetIndexingParams.ALL_PARENTS, query);
+            for (Map.Entry<String, String> e : drillDown.entrySet()) {
+                ddq.add( new CategoryPath(e.getKey(), e.getValue()) );
+            }
+            query = ddq;
+        }
+        try {
+            IndexSearcher searcher = searchManager.acquire();
+            try {
+                TopScoreDocCollector topDocs = TopScoreDocCollector.create(Math.max(1, offset + maxResults), true);
+                FacetSearchResult result = new FacetSearchResult();
+                if (categories.isEmpty()) {
+                    searcher.search(query, topDocs);
+                } else {
+                    List<FacetRequest> requests = new ArrayList<FacetRequest>();
+                    for (Resource category : categories) {
+                        requests.add( new CountFacetRequest(new CategoryPath(category.getURI()), maxFacetValues) );
+                    }
+                    // Taxonomy reader is opened after the searcher so it covers every category the searcher can see
+                    TaxonomyReader taxonomy = acquireTaxonomyReader();
+                    try {
+                        FacetsCollector facets = FacetsCollector.create(new FacetSearchParams(requests), searcher.getIndexReader(), taxonomy);
+                        searcher.search(query, MultiCollector.wrap(topDocs, facets));
+                        for (FacetResult fr : facets.getFacetResults()) {
+                            String category = fr.getFacetRequest().categoryPath.components[0];
+                            result.addCategory(category);
+                            FacetResultNode root = fr.getFacetResultNode();
+                            if (root != null && root.subResults != null) {
+                                for (FacetResultNode node : root.subResults) {
+                                    result.addCount(category, node.label.components[1], (long)node.value);
+                                }
+                            }
+                        }
+                    } finally {
+                        taxonomy.decRef();
+                    }
+                }
+                result.setTotalHits( topDocs.getTotalHits() );
+                ScoreDoc[] hits = topDocs.topDocs(offset, maxResults).scoreDocs;
+                LuceneResult[] results = new LuceneResult[hits.length];
+                for (int i = 0; i < hits.length; i++) {
+                    results[i] = new LuceneResult(searcher.getIndexReader().document(hits[i].doc), hits[i].score);
+                }
+                result.setHits(results);
+                return result;
+            } finally {
+                searchManager.release(searcher);
+            }
+        } catch (IOException e) {
+            throw new EpiException(e);
+        }
+    }
 
-    private void analyseConfigModel(Model configModel) {
+    /**
+     * Faceted search using the standard lucene query syntax, see {@link #search(String, int, int)}
+     */
+    public FacetSearchResult facetSearch(String query, Map<String, String> drillDown, int offset, int maxResults, int maxFacetValues) {
+        Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_40);
+        QueryParser parser = new QueryParser(Version.LUCENE_40, FIELD_LABEL, analyzer);
+        try {
+            return facetSearch(parser.parse(query), drillDown, offset, maxResults, maxFacetValues);
+        } catch (ParseException e) {
+            throw new EpiException(e);
+        }
+    }
+
+    /**
+     * Return an up to date reader for the facet taxonomy, the caller must decRef it when done
+     */
+    protected synchronized TaxonomyReader acquireTaxonomyReader() throws IOException {
+        if (taxonomyReader == null) {
+            taxonomyReader = new DirectoryTaxonomyReader( getTaxonomyWriter() );
+        } else {
+            DirectoryTaxonomyReader newer = TaxonomyReader.openIfChanged(taxonomyReader);
+            if (newer != null) {
+                taxonomyReader.decRef();
+                taxonomyReader = newer;
+            }
+        }
+        taxonomyReader.incRef();
+        return taxonomyReader;
+    }
+
+
+    private IndexConfig analyseConfigModel(Model configModel) {
         ResIterator ri = configModel.listResourcesWithProperty(RDF.type, Li.Config);
         if (ri.hasNext()) {
             Resource configR = ri.next();
+            IndexConfig ic = new IndexConfig();
 
             Statement indexAllS = configR.getProperty(Li.indexAll);
-            if (indexAllS != null && indexAllS.getObject().isLiteral()) {
-                indexAll = indexAllS.getObject().asLiteral().getBoolean();
-            }
+            ic.indexAll = indexAllS != null && indexAllS.getObject().isLiteral() && indexAllS.getObject().asLiteral().getBoolean();
 
-            extractSet(configR, Li.ignoreProp, ignoreProps);
-            extractSet(configR, Li.labelOnlyProp, labelOnlyProps);
-            extractSet(configR, Li.labelProp, labelProps);
-            extractSet(configR, Li.valueProp, valueProps);
+            ic.ignoreProps = extractSet(configR, Li.ignoreProp);
+            ic.labelOnlyProps = extractSet(configR, Li.labelOnlyProp);
+            ic.labelProps = extractSet(configR, Li.labelProp);
+            ic.valueProps = extractSet(configR, Li.valueProp);
+            ic.categoryProps = extractSet(configR, Li.categoryProp);
+            return ic;
         } else {
             throw new EpiException("Can't find root config resource for Lucene indexer");
         }
     }
 
-    private void extractSet(Resource configR, Property p, Set<Resource> set) {
+    /**
+     * The properties to index, read from the configuration file. A reloaded
+     * configuration replaces the whole object in a single step.
+     */
+    protected static class IndexConfig {
+        protected boolean indexAll;
+        protected Set<Resource> labelProps = new HashSet<Resource>();
+        protected Set<Resource> labelOnlyProps = new HashSet<Resource>();
+        protected Set<Resource> ignoreProps = new HashSet<Resource>();
+        protected Set<Resource> valueProps = new HashSet<Resource>();
+        protected Set<Resource> categoryProps = new HashSet<Resource>();
+    }
+
+    private Set<Resource> extractSet(Resource configR, Property p) {
+        Set<Resource> set = new HashSet<Resource>();
         StmtIterator si = configR.listProperties(p);
         while (si.hasNext()) {
             RDFNode n = si.next().getObject();
@@ -268,39 +668,428 @@ public class LuceneIndex extends ServiceBase implements Indexer, Service, Shutdo
                 set.add(n.asResource());
             }
         }
+        return set;
+    }
+
+    /**
+     * Look up the index metrics, the time spent indexing graphs and the number of entity documents
+     */
+    protected void initMetrics(String prefix) {
+        MetricsRegistry registry = Metrics.getRegistry();
+        indexTimer  = registry.timer(prefix + ".graphs");
+        docsIndexed = registry.counter(prefix + ".docs");
+        final com.epimorphics.server.metrics.Timer timer = indexTimer;
+        final Counter docs = docsIndexed;
+        registry.gauge(prefix + ".docsPerSecond", new Gauge() {
+            @Override
+            public Number getValue() {
+                double secs = timer.getTotalMillis() / 1000.0;
+                return secs > 0 ? docs.get() / secs : 0.0;
+            }
+        });
+    }
+
+    /**
+     * Start rebuilding the whole index from the named graphs of the store, for example after
+     * a change to the index configuration, which is reloaded first. The new index is built in a background thread
+     * in a shadow directory while this index carries on serving searches and updates.
+     * Graphs which change during the rebuild are indexed again at the end, then the new index
+     * replaces the contents of this one in a single commit so searches switch over atomically.
+     * Updates keep using the old configuration until the switch, so a failed or
+     * cancelled rebuild leaves both the index and its configuration unchanged.
+     *
+     * @return the status of the rebuild, which can be polled for progress
+     */
+    public synchronized Reindex startReindex(Store store) {
+        if (reindex != null && reindex.isRunning()) {
+            throw new EpiException("Index rebuild is already in progress");
+        }
+        IndexConfig newConfig = analyseConfigModel( FileManager.get().loadModel(configLocation) );
+        reindex = new Reindex(store, newConfig);
+        Thread thread = new Thread(reindex, "lucene-reindex");
+        thread.setDaemon(true);
+        reindex.thread = thread;
+        thread.start();
+        return reindex;
+    }
+
+    /**
+     * Return the status of the current or most recent index rebuild, or null if there hasn't been one
+     */
+    public Reindex getReindex() {
+        return reindex;
+    }
+
+    /**
+     * Cancel any index rebuild in progress, leaving the current index unchanged
+     */
+    public void cancelReindex() {
+        Reindex r = reindex;
+        if (r != null) {
+            r.cancel();
+        }
+    }
+
+    private void markChanged(String graphname) {
+        Reindex r = reindex;
+        if (r != null && r.isRunning()) {
+            r.markChanged(graphname);
+        }
+    }
+
+    /**
+     * A rebuild of the index from a store, run in its own thread
+     */
+    public class Reindex implements Runnable {
+        protected final Store store;
+        protected final IndexConfig config;
+        protected final Set<String> changed = new LinkedHashSet<String>();
+        protected Thread thread;
+        protected Directory shadowDir;
+        protected File shadowFile;
+        protected IndexWriter shadow;
+
+        protected volatile ReindexState state = ReindexState.RUNNING;
+        protected volatile boolean cancelled = false;
+        protected volatile int graphsTotal;
+        protected volatile int graphsDone;
+        protected volatile long docs;
+        protected volatile String error;
+        protected final long started = System.currentTimeMillis();
+        protected volatile long finished;
+
+        public Reindex(Store store, IndexConfig config) {
+            this.store = store;
+            this.config = config;
+        }
+
+        public ReindexState getState() { return state; }
+        public boolean isRunning()  { return state == ReindexState.RUNNING; }
+        public int getGraphsTotal() { return graphsTotal; }
+        public int getGraphsDone()  { return graphsDone; }
+        public long getDocs()       { return docs; }
+        public String getError()    { return error; }
+        public long getStarted()    { return started; }
+        public long getFinished()   { return finished; }
+
+        /**
+         * Return the fraction of the graphs indexed so far
+         */
+        public double getProgress() {
+            int total = graphsTotal;
+            return total == 0 ? (isRunning() ? 0.0 : 1.0) : (double)graphsDone / total;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Wait for the rebuild to finish, returns false if the timeout expired
+         */
+        public boolean await(long timeout) throws InterruptedException {
+            thread.join(timeout);
+            return !thread.isAlive();
+        }
+
+        protected synchronized void markChanged(String graphname) {
+            changed.add(graphname);
+        }
+
+        protected synchronized List<String> takeChanged() {
+            List<String> graphs = new ArrayList<String>(changed);
+            changed.clear();
+            return graphs;
+        }
+
+        @Override
+        public void run() {
+            try {
+                openShadow();
+                List<String> graphs = listGraphs();
+                graphsTotal = graphs.size();
+                log.info("Rebuilding index from " + graphsTotal + " graphs");
+                for (String graphname : graphs) {
+                    rebuildGraph(graphname);
+                    graphsDone++;
+                }
+                // Catch up with graphs changed during the scan, any further changes are picked up by swap
+                for (String graphname : takeChanged()) {
+                    rebuildGraph(graphname);
+                }
+                swap();
+                state = ReindexState.COMPLETE;
+                log.info("Index rebuild complete, " + docs + " entities indexed");
+            } catch (CancelledException e) {
+                state = ReindexState.CANCELLED;
+                log.info("Index rebuild cancelled");
+            } catch (Throwable t) {
+                error = t.getMessage();
+                state = ReindexState.FAILED;
+                log.error("Index rebuild failed", t);
+            } finally {
+                finished = System.currentTimeMillis();
+                closeShadow();
+            }
+        }
+
+        protected void openShadow() throws IOException {
+            if (indexLocation == null) {
+                shadowDir = new RAMDirectory();
+            } else {
+                shadowFile = new File(indexLocation + "-reindex");
+                deleteShadowFiles();
+                FileUtil.ensureDir(shadowFile.getPath());
+                shadowDir = FSDirectory.open(shadowFile);
+            }
+            IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_40, new StandardAnalyzer(Version.LUCENE_40));
+            config.setOpenMode( OpenMode.CREATE );
+            shadow = new IndexWriter(shadowDir, config);
+        }
+
+        protected List<String> listGraphs() {
+            List<String> graphs = new ArrayList<String>();
+            store.lock();
+            try {
+                for (Iterator<String> i = store.asDataset().listNames(); i.hasNext();) {
+                    graphs.add( i.next() );
+                }
+            } finally {
+                store.unlock();
+            }
+            return graphs;
+        }
+
+        /**
+         * Replace the shadow index entries for one graph with its current state in the store
+         */
+        protected void rebuildGraph(String graphname) throws IOException {
+            checkCancelled();
+            shadow.deleteDocuments( new Term(FIELD_GRAPH, graphname) );
+            store.lock();
+            try {
+                Dataset dataset = store.asDataset();
+                if (!dataset.containsNamedModel(graphname)) return;
+                ResIterator ri = dataset.getNamedModel(graphname).listSubjectsWithProperty(RDF.type);
+                while (ri.hasNext()) {
+                    Resource entity = ri.next();
+                    if (entity.isURIResource()) {
+                        shadow.addDocument( buildDocument(graphname, new Entity(entity.getURI(), entity.listProperties().toList()), config) );
+                        docs++;
+                        if (docs % 1000 == 0) {
+                            checkCancelled();
+                        }
+                    }
+                }
+            } finally {
+                store.unlock();
+            }
+        }
+
+        /**
+         * Bring the shadow index fully up to date and copy it over the live index. The store's
+         * write lock is taken, though nothing is written, so that writes in flight have committed
+         * before the changed graphs are read. The index's own update lock then keeps out any
+         * other index updates while the last changes are drained. NRT reopens are paused, so searches
+         * go straight from the old index to the new one when the searcher is refreshed after the commit.
+         */
+        protected void swap() throws IOException {
+            store.lockWrite();
+            updateLock.writeLock().lock();
+            try {
+                for (String graphname : takeChanged()) {
+                    rebuildGraph(graphname);
+                }
+                checkCancelled();
+                shadow.commit();
+                shadow.close();
+                shadow = null;
+
+                synchronized (LuceneIndex.this) {
+                    if (reopenThread != null) {
+                        reopenThread.close();
+                        reopenThread = null;
+                    }
+                    try {
+                        if (trackingWriter != null) {
+                            recordGeneration( trackingWriter.deleteAll() );
+                            recordGeneration( trackingWriter.addIndexes(shadowDir) );
+                        } else {
+                            getIndexWriter().deleteAll();
+                            getIndexWriter().addIndexes(shadowDir);
+                        }
+                        doCommit();
+                        indexConfig = config;
+                        searchManager.maybeRefreshBlocking();
+                    } finally {
+                        if (trackingWriter != null) {
+                            startReopenThread();
+                        }
+                    }
+                }
+            } finally {
+                updateLock.writeLock().unlock();
+                store.unlock();
+            }
+        }
+
+        protected void checkCancelled() {
+            if (cancelled) {
+                throw new CancelledException();
+            }
+        }
+
+        protected void closeShadow() {
+            try {
+                if (shadow != null) {
+                    shadow.rollback();
+                    shadow = null;
+                }
+                if (shadowDir != null) {
+                    shadowDir.close();
+                }
+            } catch (IOException e) {
+                log.error("Problem closing shadow index", e);
+            }
+            deleteShadowFiles();
+        }
+
+        protected void deleteShadowFiles() {
+            if (shadowFile != null && shadowFile.isDirectory()) {
+                for (File f : shadowFile.listFiles()) {
+                    f.delete();
+                }
+                shadowFile.delete();
+            }
+        }
+    }
+
+    public enum ReindexState { RUNNING, COMPLETE, CANCELLED, FAILED };
+
+    protected static class CancelledException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
     }
 
     protected void indexGraph(String graphname, Model graph, boolean update) {
+        long start = indexTimer.start();
+        long count = 0;
         try {
-            IndexWriter iwriter = getIndexWriter();
             ResIterator ri = graph.listSubjectsWithProperty(RDF.type);
-            while (ri.hasNext()) {
-                indexEntity(iwriter, update, graphname, ri.next());
+            if (indexPool == null) {
+                while (ri.hasNext()) {
+                    if (indexEntity(update, graphname, ri.next())) {
+                        count++;
+                    }
+                }
+            } else {
+                count = indexParallel(graphname, ri, update);
             }
             requestCommit();
         } catch (Exception e) {
             throw new EpiException(e);
+        } finally {
+            long elapsed = indexTimer.stop(start);
+            docsIndexed.add(count);
+            if (log.isDebugEnabled() && elapsed > 0) {
+                log.debug(String.format("Indexed %d entities from %s at %.0f docs/s", count, graphname, count * 1e9 / elapsed));
+            }
         }
     }
 
-    private void indexEntity(IndexWriter iwriter, boolean update, String graphname, Resource entity) throws IOException {
-        if (entity.isAnon()) return;
+    /**
+     * Index the entities using the worker pool. The statements of each entity are read on the
+     * calling thread, which holds the store lock, and the documents are built and analysed by
+     * the workers. The number of chunks in flight is bounded to limit the memory used.
+     */
+    protected long indexParallel(final String graphname, ResIterator subjects, final boolean update) throws IOException {
+        LinkedList<Future<Integer>> pending = new LinkedList<Future<Integer>>();
+        long count = 0;
+        try {
+            while (subjects.hasNext()) {
+                final List<Entity> chunk = new ArrayList<Entity>(PARALLEL_CHUNK_SIZE);
+                while (subjects.hasNext() && chunk.size() < PARALLEL_CHUNK_SIZE) {
+                    Resource subject = subjects.next();
+                    if (subject.isURIResource()) {
+                        chunk.add( new Entity(subject.getURI(), subject.listProperties().toList()) );
+                    }
+                }
+                pending.add( indexPool.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws IOException {
+                        for (Entity entity : chunk) {
+                            writeEntity(update, graphname, entity);
+                        }
+                        return chunk.size();
+                    }
+                }) );
+                if (pending.size() > 2 * indexThreads) {
+                    count += pending.removeFirst().get();
+                }
+            }
+            while (!pending.isEmpty()) {
+                count += pending.removeFirst().get();
+            }
+            return count;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EpiException("Interrupted while indexing " + graphname, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            throw new EpiException(cause);
+        } finally {
+            for (Future<Integer> f : pending) {
+                f.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Index one entity, returns false if it could not be indexed because it is a blank node
+     */
+    private boolean indexEntity(boolean update, String graphname, Resource entity) throws IOException {
+        if (entity.isAnon()) return false;
+        writeEntity(update, graphname, new Entity(entity.getURI(), entity.listProperties().toList()));
+        return true;
+    }
+
+    /**
+     * Build the document for an entity and add it to the index, may be called from several threads
+     */
+    protected void writeEntity(boolean update, String graphname, Entity entity) throws IOException {
+        Document doc = buildDocument(graphname, entity);
+        if (update) {
+            updateDocument(new Term(FIELD_URI, entity.uri), doc);
+        } else {
+            addDocument(doc);
+        }
+    }
+
+    protected Document buildDocument(String graphname, Entity entity) throws IOException {
+        return buildDocument(graphname, entity, indexConfig);
+    }
+
+    protected Document buildDocument(String graphname, Entity entity, IndexConfig config) throws IOException {
         Document doc = new Document();
-        doc.add( new StringField(FIELD_URI, entity.getURI(), Field.Store.YES) );
+        doc.add( new StringField(FIELD_URI, entity.uri, Field.Store.YES) );
         doc.add( new StringField(FIELD_GRAPH, graphname, Field.Store.YES) );
-        StmtIterator si = entity.listProperties();
-        while (si.hasNext()) {
-            Statement s = si.next();
+        List<CategoryPath> categories = new ArrayList<CategoryPath>();
+        for (Statement s : entity.statements) {
             Property p = s.getPredicate();
             RDFNode value = s.getObject();
             String valueStr = asString(value);
-            if (labelProps.contains(p)) {
+            if (config.categoryProps.contains(p) && !valueStr.isEmpty()) {
+                categories.add( new CategoryPath(p.getURI(), valueStr) );
+            }
+            if (config.labelProps.contains(p)) {
                 doc.add( new TextField(p.getURI(), valueStr, Field.Store.YES) );
                 doc.add( new TextField(FIELD_LABEL, valueStr, Field.Store.NO) );
-            } else if (labelOnlyProps.contains(p)) {
+            } else if (config.labelOnlyProps.contains(p)) {
                 doc.add( new TextField(p.getURI(), valueStr, Field.Store.NO) );
                 doc.add( new TextField(FIELD_LABEL, valueStr, Field.Store.NO) );
-            } else if (valueProps.contains(p) || (indexAll && !ignoreProps.contains(p))) {
+            } else if (config.valueProps.contains(p) || (config.indexAll && !config.ignoreProps.contains(p))) {
                 if (value.isURIResource()) {
                     doc.add( new StringField(p.getURI(), value.asResource().getURI(), Field.Store.YES) );
                     // Alternative below would share storage of URIs but only allows per document field
@@ -316,13 +1105,93 @@ public class LuceneIndex extends ServiceBase implements Indexer, Service, Shutdo
                 }
             }
         }
-        if (update) {
-            iwriter.updateDocument(new Term(FIELD_URI, entity.getURI()), doc);
+        if (!categories.isEmpty()) {
+            new FacetFields( getTaxonomyWriter() ).addFields(doc, categories);
+        }
+        return doc;
+    }
+
+    /**
+     * The statements about an entity, copied out of the graph so that the document
+     * can be built without access to the graph
+     */
+    protected static class Entity {
+        protected final String uri;
+        protected final List<Statement> statements;
+
+        public Entity(String uri, List<Statement> statements) {
+            this.uri = uri;
+            this.statements = statements;
+        }
+    }
+
+    // Index changes go through the tracking writer in NRT mode so that searches can wait for them
+
+    protected void addDocument(Document doc) throws IOException {
+        if (trackingWriter != null) {
+            recordGeneration( trackingWriter.addDocument(doc) );
+        } else {
+            getIndexWriter().addDocument(doc);
+        }
+    }
+
+    protected void updateDocument(Term term, Document doc) throws IOException {
+        if (trackingWriter != null) {
+            recordGeneration( trackingWriter.updateDocument(term, doc) );
         } else {
-            iwriter.addDocument(doc);
+            getIndexWriter().updateDocument(term, doc);
         }
     }
 
+    protected void deleteDocuments(Term... terms) throws IOException {
+        if (trackingWriter != null) {
+            recordGeneration( trackingWriter.deleteDocuments(terms) );
+        } else {
+            getIndexWriter().deleteDocuments(terms);
+        }
+    }
+
+    protected void deleteDocuments(Query query) throws IOException {
+        if (trackingWriter != null) {
+            recordGeneration( trackingWriter.deleteDocuments(query) );
+        } else {
+            getIndexWriter().deleteDocuments(query);
+        }
+    }
+
+    private void recordGeneration(long generation) {
+        long last;
+        do {
+            last = lastGeneration.get();
+        } while (generation > last && !lastGeneration.compareAndSet(last, generation));
+    }
+
+    /**
+     * Return the generation of the latest change to the index. Only meaningful
+     * in NRT mode, when it can be passed to {@link #waitForGeneration(long)}.
+     */
+    public long getGeneration() {
+        return lastGeneration.get();
+    }
+
+    /**
+     * Block until searches will see all index changes up to the given generation.
+     * Does nothing if the index is not in NRT mode, since then each change is
+     * made visible before the indexing call returns.
+     */
+    public void waitForGeneration(long generation) {
+        if (searchManager instanceof NRTManager) {
+            ((NRTManager)searchManager).waitForGeneration(generation);
+        }
+    }
+
+    /**
+     * Block until searches will see all changes made to the index so far
+     */
+    public void waitForSearch() {
+        waitForGeneration( lastGeneration.get() );
+    }
+
     private String asString(RDFNode n) {
         if (n.isLiteral()) {
             return n.asLiteral().getLexicalForm();
@@ -348,28 +1217,62 @@ public class LuceneIndex extends ServiceBase implements Indexer, Service, Shutdo
         return writer;
     }
 
+    /**
+     * Return the writer for the facet taxonomy, which is opened on first use
+     */
+    protected synchronized DirectoryTaxonomyWriter getTaxonomyWriter() {
+        if (taxonomyWriter == null) {
+            try {
+                if (indexLocation == null) {
+                    taxonomyDir = new RAMDirectory();
+                } else {
+                    String taxonomyLocation = indexLocation + "-taxonomy";
+                    FileUtil.ensureDir(taxonomyLocation);
+                    taxonomyDir = FSDirectory.open( new File(taxonomyLocation) );
+                }
+                taxonomyWriter = new DirectoryTaxonomyWriter(taxonomyDir, OpenMode.CREATE_OR_APPEND);
+            } catch (Exception e) {
+                throw new EpiException(e);
+            }
+        }
+        return taxonomyWriter;
+    }
+
     @Override
     public synchronized void startBatch() {
         batchDepth++;
     }
 
     @Override
-    public synchronized void endBatch() {
-        if (batchDepth <= 0) {
-            throw new EpiException("Attemted to end a non-existent index batch");
+    public void endBatch() {
+        boolean ended = false;
+        synchronized (this) {
+            if (batchDepth <= 0) {
+                throw new EpiException("Attemted to end a non-existent index batch");
+            }
+            if (--batchDepth == 0) {
+                scheduleCommit();
+                ended = true;
+            }
         }
-        if (--batchDepth == 0) {
-            scheduleCommit();
+        if (ended && reopenThread != null && waitForSearch) {
+            waitForSearch();
         }
     }
 
     protected void requestCommit() throws IOException {
+        boolean inBatch;
         synchronized (this) {
-            if (batchDepth <= 0) {
+            inBatch = batchDepth > 0;
+            if (!inBatch) {
                 scheduleCommit();
             }
         }
-        searchManager.maybeRefresh();
+        if (reopenThread == null) {
+            searchManager.maybeRefresh();
+        } else if (waitForSearch && !inBatch) {
+            waitForSearch();
+        }
     }
 
     protected void scheduleCommit() {
@@ -379,7 +1282,7 @@ public class LuceneIndex extends ServiceBase implements Indexer, Service, Shutdo
             synchronized (this) {
                 if (!commitScheduled) {
                     if (cleanupTimer == null) {
-                        cleanupTimer = new Timer(true);
+                        cleanupTimer = new Timer("lucene-commit", true);
                     }
                     cleanupTimer.schedule(new TimerTask() {
                         @Override
@@ -394,9 +1297,13 @@ public class LuceneIndex extends ServiceBase implements Indexer, Service, Shutdo
         }
     }
 
-    protected void doCommit() {
+    protected synchronized void doCommit() {
         IndexWriter writer = getIndexWriter();
         try {
+            // Taxonomy first so a committed index never refers to uncommitted categories
+            if (taxonomyWriter != null) {
+                taxonomyWriter.commit();
+            }
             writer.commit();
         } catch (Exception e) {
             // try to save the data
@@ -412,6 +1319,35 @@ public class LuceneIndex extends ServiceBase implements Indexer, Service, Shutdo
 
     @Override
     public void shutdown() {
+        Reindex r = reindex;
+        if (r != null && r.isRunning()) {
+            r.cancel();
+            try {
+                r.await(10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (cleanupTimer != null) {
+                cleanupTimer.cancel();
+                cleanupTimer = null;
+            }
+        }
+        if (indexPool != null) {
+            indexPool.shutdownNow();
+        }
+        if (reopenThread != null) {
+            reopenThread.close();
+            reopenThread = null;
+        }
+        try {
+            if (searchManager != null) {
+                searchManager.close();
+            }
+        } catch (IOException e) {
+            log.error("Problem closing searcher", e);
+        }
         if (writer != null) {
             try {
                 writer.close();
@@ -420,6 +1356,23 @@ public class LuceneIndex extends ServiceBase implements Indexer, Service, Shutdo
                 log.error("Problem shutting down", e);
             }
         }
+        try {
+            if (taxonomyReader != null) {
+                taxonomyReader.close();
+                taxonomyReader = null;
+            }
+            if (taxonomyWriter != null) {
+                taxonomyWriter.close();
+                taxonomyWriter = null;
+            }
+        } catch (IOException e) {
+            log.error("Problem closing facet taxonomy", e);
+        }
+        if (indexLocation != null) {
+            synchronized (locationsInUse) {
+                locationsInUse.remove(indexLocation);
+            }
+        }
     }
 
 }
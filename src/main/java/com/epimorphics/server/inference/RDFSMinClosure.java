@@ -23,7 +23,10 @@ package com.epimorphics.server.inference;
 
 import java.util.Iterator;
 
-import com.epimorphics.server.core.Mutator;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWrapper;
+
+import com.epimorphics.server.core.StreamingMutator;
 import com.hp.hpl.jena.graph.Factory;
 import com.hp.hpl.jena.graph.Graph;
 import com.hp.hpl.jena.graph.GraphUtil;
@@ -48,7 +51,7 @@ import com.hp.hpl.jena.vocabulary.RDFS;
  *
  * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
  */
-public class RDFSMinClosure implements Mutator {
+public class RDFSMinClosure implements StreamingMutator {
     OneToManyMap<Node, Node> subProperties = new OneToManyMap<Node, Node>();
     OneToManyMap<Node, Node> subClasses = new OneToManyMap<Node, Node>();
 
@@ -94,4 +97,28 @@ public class RDFSMinClosure implements Mutator {
         GraphUtil.addInto(data, deductions);
     }
 
+    /**
+     * Streaming version of the closure, each triple is passed on followed by
+     * any super-property or super-class deductions from it. Deductions are not
+     * deduplicated, the destination graph is expected to do that.
+     */
+    @Override
+    public StreamRDF mutateStream(StreamRDF dest) {
+        return new StreamRDFWrapper(dest) {
+            @Override
+            public void triple(Triple t) {
+                super.triple(t);
+                Node p = t.getPredicate();
+                for (Iterator<Node> i = subProperties.getAll(p); i.hasNext();) {
+                    super.triple( new Triple(t.getSubject(), i.next(), t.getObject()) );
+                }
+                if (p.equals(RDF.type.asNode())) {
+                    for (Iterator<Node> i = subClasses.getAll(t.getObject()); i.hasNext();) {
+                        super.triple( new Triple(t.getSubject(), RDF.type.asNode(), i.next()) );
+                    }
+                }
+            }
+        };
+    }
+
 }
@@ -25,9 +25,11 @@ import java.util.Map;
 
 import javax.servlet.ServletContext;
 
-import com.epimorphics.server.core.Mutator;
+import org.apache.jena.riot.system.StreamRDF;
+
 import com.epimorphics.server.core.Service;
 import com.epimorphics.server.core.ServiceBase;
+import com.epimorphics.server.core.StreamingMutator;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.util.FileManager;
 
@@ -39,9 +41,9 @@ import com.hp.hpl.jena.util.FileManager;
  * 
  * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
  */
-public class RDFSMinClosureService extends ServiceBase implements Service, Mutator {
+public class RDFSMinClosureService extends ServiceBase implements Service, StreamingMutator {
     public static final String ONTOLOGY_PARAM = "ontology";
-    Mutator engine;
+    RDFSMinClosure engine;
     
     @Override
     public void init(Map<String, String> config, ServletContext context) {
@@ -56,4 +58,9 @@ public class RDFSMinClosureService extends ServiceBase implements Service, Mutat
         engine.mutate(data);
     }
 
+    @Override
+    public StreamRDF mutateStream(StreamRDF dest) {
+        return engine.mutateStream(dest);
+    }
+
 }
@@ -0,0 +1,79 @@
+/******************************************************************
+ * File:        Metrics.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+package com.epimorphics.server.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.epimorphics.util.EpiException;
+
+/**
+ * Access to the shared metrics registry.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class Metrics {
+    public static final String DEFAULT_JMX_NAME = "com.epimorphics.server:type=Metrics";
+
+    protected static volatile MetricsRegistry registry = new SimpleMetricsRegistry();
+
+    public static MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Replace the registry. Components look up their metrics when they are initialized
+     * so this should be called before the other services are configured.
+     */
+    public static void setRegistry(MetricsRegistry registry) {
+        Metrics.registry = registry;
+    }
+
+    /**
+     * Publish the metrics of the current registry as attributes of a JMX bean
+     */
+    public static void registerJMX(String objectName) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new MetricsMBean(registry), name);
+        } catch (Exception e) {
+            throw new EpiException("Failed to register metrics with JMX", e);
+        }
+    }
+
+    public static void unregisterJMX(String objectName) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (Exception e) {
+            throw new EpiException("Failed to unregister metrics from JMX", e);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/******************************************************************
+ * File:        MetricsRegistry.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+package com.epimorphics.server.metrics;
+
+import java.util.Map;
+
+/**
+ * Registry of named metrics. Components ask for their counters and timers by name,
+ * the same metric is returned for the same name. Replace the registry via
+ * {@link Metrics#setRegistry(MetricsRegistry)} to report into another metrics system.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public interface MetricsRegistry {
+
+    public Counter counter(String name);
+
+    public Timer timer(String name);
+
+    public void gauge(String name, Gauge gauge);
+
+    /**
+     * Return the current value of every metric, with timers expanded into
+     * their count, total, mean and max values, sorted by name.
+     */
+    public Map<String, Number> getValues();
+}
@@ -0,0 +1,72 @@
+/******************************************************************
+ * File:        MetricsService.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+package com.epimorphics.server.metrics;
+
+import java.util.Map;
+
+import javax.servlet.ServletContext;
+
+import com.epimorphics.server.core.Service;
+import com.epimorphics.server.core.ServiceBase;
+import com.epimorphics.server.core.Shutdown;
+import com.epimorphics.util.EpiException;
+
+/**
+ * Configurable service to set up metrics reporting. Should be configured ahead
+ * of the stores. Parameters:
+ * <ul>
+ *  <li>registry - class name of an alternative MetricsRegistry implementation</li>
+ *  <li>jmx - "true" to publish the metrics via JMX under the default name, or the object name to use</li>
+ * </ul>
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class MetricsService extends ServiceBase implements Service, Shutdown {
+    public static final String REGISTRY_PARAM = "registry";
+    public static final String JMX_PARAM = "jmx";
+
+    protected String jmxName;
+
+    @Override
+    public void init(Map<String, String> config, ServletContext context) {
+        super.init(config, context);
+        String registry = config.get(REGISTRY_PARAM);
+        if (registry != null) {
+            try {
+                Metrics.setRegistry( (MetricsRegistry) Class.forName(registry).newInstance() );
+            } catch (Exception e) {
+                throw new EpiException("Failed to create metrics registry " + registry, e);
+            }
+        }
+        String jmx = config.get(JMX_PARAM);
+        if (jmx != null && !"false".equalsIgnoreCase(jmx)) {
+            jmxName = "true".equalsIgnoreCase(jmx) ? Metrics.DEFAULT_JMX_NAME : jmx;
+            Metrics.registerJMX(jmxName);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        if (jmxName != null) {
+            Metrics.unregisterJMX(jmxName);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/******************************************************************
+ * File:        SimpleMetricsRegistry.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+package com.epimorphics.server.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Default in-memory metrics registry.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class SimpleMetricsRegistry implements MetricsRegistry {
+    protected ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+    protected ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+    protected ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+    @Override
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counters.putIfAbsent(name, new Counter());
+            counter = counters.get(name);
+        }
+        return counter;
+    }
+
+    @Override
+    public Timer timer(String name) {
+        Timer timer = timers.get(name);
+        if (timer == null) {
+            timers.putIfAbsent(name, new Timer());
+            timer = timers.get(name);
+        }
+        return timer;
+    }
+
+    @Override
+    public void gauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    @Override
+    public Map<String, Number> getValues() {
+        Map<String, Number> values = new TreeMap<String, Number>();
+        for (Map.Entry<String, Counter> e : counters.entrySet()) {
+            values.put(e.getKey(), e.getValue().get());
+        }
+        for (Map.Entry<String, Timer> e : timers.entrySet()) {
+            Timer timer = e.getValue();
+            values.put(e.getKey() + ".count", timer.getCount());
+            values.put(e.getKey() + ".totalMs", timer.getTotalMillis());
+            values.put(e.getKey() + ".meanMs", timer.getMeanMillis());
+            values.put(e.getKey() + ".maxMs", timer.getMaxMillis());
+        }
+        for (Map.Entry<String, Gauge> e : gauges.entrySet()) {
+            values.put(e.getKey(), e.getValue().getValue());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,78 @@
+/******************************************************************
+ * File:        Timer.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+package com.epimorphics.server.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe accumulator of timings. Use as:
+ * <pre>
+ *   long start = timer.start();
+ *   try { ... } finally { timer.stop(start); }
+ * </pre>
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class Timer {
+    protected final AtomicLong count = new AtomicLong();
+    protected final AtomicLong total = new AtomicLong();
+    protected final AtomicLong max = new AtomicLong();
+
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the time since the given start, returns the elapsed nanoseconds
+     */
+    public long stop(long start) {
+        long elapsed = System.nanoTime() - start;
+        update(elapsed);
+        return elapsed;
+    }
+
+    public void update(long nanos) {
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+        long m;
+        while ((m = max.get()) < nanos && !max.compareAndSet(m, nanos)) {
+            // retry
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getTotalMillis() {
+        return total.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public double getMaxMillis() {
+        return max.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public double getMeanMillis() {
+        long n = count.get();
+        return n == 0 ? 0 : getTotalMillis() / n;
+    }
+}
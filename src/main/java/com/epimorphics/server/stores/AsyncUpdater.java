@@ -0,0 +1,377 @@
+/******************************************************************
+ * File:        AsyncUpdater.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.stores;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.epimorphics.util.EpiException;
+import com.hp.hpl.jena.rdf.model.Model;
+
+/**
+ * Bounded queue of store updates applied, in order, by a single writer thread.
+ * <p>
+ * Callers get back a Future which completes once their update has been committed.
+ * An UPDATE or DELETE of a graph replaces a queued, not yet started, change to the
+ * same graph at the tail of the queue, since it would overwrite it anyway. The
+ * futures of replaced requests complete along with their replacement.
+ * </p>
+ * <p>
+ * When the queue is full callers block until there is space, or until the timeout
+ * expires at which point an EpiException is thrown. Input streams are spooled to
+ * a temporary file by the caller so the request can complete without waiting
+ * for the parse.
+ * </p>
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class AsyncUpdater {
+    static Logger log = LoggerFactory.getLogger(AsyncUpdater.class);
+
+    protected StoreBase store;
+    protected int capacity;
+    protected long timeout;
+
+    protected final ReentrantLock lock = new ReentrantLock();
+    protected final Condition notEmpty = lock.newCondition();
+    protected final Condition notFull = lock.newCondition();
+    protected final LinkedList<Request> queue = new LinkedList<Request>();
+    protected volatile boolean running = true;
+    protected Thread writer;
+
+    /**
+     * @param store the store to update
+     * @param capacity maximum number of queued requests
+     * @param timeout maximum time in milliseconds to wait for queue space, zero for no limit
+     */
+    public AsyncUpdater(StoreBase store, int capacity, long timeout) {
+        this.store = store;
+        this.capacity = Math.max(1, capacity);
+        this.timeout = timeout;
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "store-async-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public Future<Void> addGraph(String graphname, Model graph) {
+        return submit( new Request(StoreBase.ADD_ACTION, graphname, graph) );
+    }
+
+    public Future<Void> addGraph(String graphname, InputStream input, String mimeType) {
+        return submit( new Request(StoreBase.ADD_ACTION, graphname, spool(input), mimeType) );
+    }
+
+    public Future<Void> updateGraph(String graphname, Model graph) {
+        return submit( new Request(StoreBase.UPDATE_ACTION, graphname, graph) );
+    }
+
+    public Future<Void> updateGraph(String graphname, InputStream input, String mimeType) {
+        return submit( new Request(StoreBase.UPDATE_ACTION, graphname, spool(input), mimeType) );
+    }
+
+    public Future<Void> deleteGraph(String graphname) {
+        return submit( new Request(StoreBase.DELETE_ACTION, graphname, null) );
+    }
+
+    /**
+     * Return the number of requests waiting to be applied
+     */
+    public int getQueueLength() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop accepting requests, wait for the queued requests to be applied and stop the writer thread
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            running = false;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    protected Future<Void> submit(Request request) {
+        lock.lock();
+        try {
+            if (!running) {
+                request.discard();
+                throw new EpiException("Store update queue has been shut down");
+            }
+            Request last = queue.peekLast();
+            if (last != null && request.supersedes(last)) {
+                queue.removeLast();
+                last.discard();
+                request.status.merge(last.status);
+                queue.addLast(request);
+                return request.status;
+            }
+            long deadline = System.currentTimeMillis() + timeout;
+            while (queue.size() >= capacity && running) {
+                if (timeout <= 0) {
+                    notFull.await();
+                } else {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        request.discard();
+                        throw new EpiException("Store update queue is full");
+                    }
+                    notFull.await(wait, TimeUnit.MILLISECONDS);
+                }
+            }
+            if (!running) {
+                request.discard();
+                throw new EpiException("Store update queue has been shut down");
+            }
+            queue.addLast(request);
+            notEmpty.signal();
+            return request.status;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            request.discard();
+            throw new EpiException("Interrupted waiting for store update queue", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected void drain() {
+        while (true) {
+            Request request;
+            lock.lock();
+            try {
+                while (queue.isEmpty() && running) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (queue.isEmpty()) {
+                    return;
+                }
+                request = queue.removeFirst();
+                notFull.signal();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                request.apply(store);
+                request.status.complete(null);
+            } catch (Throwable t) {
+                log.error("Asynchronous " + request.action + " of " + request.graphname + " failed", t);
+                request.status.complete(t);
+            } finally {
+                request.discard();
+            }
+        }
+    }
+
+    /**
+     * Copy an upload to a temporary file, deleted once the request has been applied
+     * or discarded. A failed copy is deleted straight away.
+     */
+    protected static File spool(InputStream input) {
+        File file = null;
+        try {
+            file = File.createTempFile("async-update", ".rdf");
+            OutputStream out = new FileOutputStream(file);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                int len;
+                while ((len = input.read(buffer)) != -1) {
+                    out.write(buffer, 0, len);
+                }
+            } finally {
+                out.close();
+                input.close();
+            }
+            return file;
+        } catch (IOException e) {
+            if (file != null) {
+                file.delete();
+            }
+            throw new EpiException("Failed to spool store update", e);
+        }
+    }
+
+    /**
+     * A queued update
+     */
+    protected static class Request {
+        protected String action;
+        protected String graphname;
+        protected Model graph;
+        protected File spool;
+        protected String mimeType;
+        protected UpdateStatus status = new UpdateStatus();
+
+        public Request(String action, String graphname, Model graph) {
+            this.action = action;
+            this.graphname = graphname;
+            this.graph = graph;
+        }
+
+        public Request(String action, String graphname, File spool, String mimeType) {
+            this.action = action;
+            this.graphname = graphname;
+            this.spool = spool;
+            this.mimeType = mimeType;
+        }
+
+        public boolean supersedes(Request previous) {
+            return !StoreBase.ADD_ACTION.equals(action) && graphname.equals(previous.graphname);
+        }
+
+        public void apply(StoreBase store) throws IOException {
+            if (StoreBase.DELETE_ACTION.equals(action)) {
+                store.deleteGraph(graphname);
+            } else if (spool != null) {
+                InputStream in = new FileInputStream(spool);
+                try {
+                    if (StoreBase.ADD_ACTION.equals(action)) {
+                        store.addGraph(graphname, in, mimeType);
+                    } else {
+                        store.updateGraph(graphname, in, mimeType);
+                    }
+                } finally {
+                    in.close();
+                }
+            } else if (StoreBase.ADD_ACTION.equals(action)) {
+                store.addGraph(graphname, graph);
+            } else {
+                store.updateGraph(graphname, graph);
+            }
+        }
+
+        public void discard() {
+            if (spool != null) {
+                spool.delete();
+                spool = null;
+            }
+        }
+    }
+
+    /**
+     * Completion status for a queued update, shared with any requests it replaced
+     */
+    public static class UpdateStatus implements Future<Void> {
+        protected final CountDownLatch done = new CountDownLatch(1);
+        protected volatile Throwable error;
+        protected List<UpdateStatus> merged = new ArrayList<UpdateStatus>();
+
+        /**
+         * Return a status for an update which has already been applied
+         */
+        public static UpdateStatus completed() {
+            UpdateStatus status = new UpdateStatus();
+            status.complete(null);
+            return status;
+        }
+
+        protected synchronized void merge(UpdateStatus other) {
+            merged.add(other);
+        }
+
+        protected synchronized void complete(Throwable error) {
+            this.error = error;
+            done.countDown();
+            for (UpdateStatus other : merged) {
+                other.complete(error);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        /**
+         * True if the update has completed and failed
+         */
+        public boolean isFailed() {
+            return isDone() && error != null;
+        }
+
+        @Override
+        public Void get() throws InterruptedException, ExecutionException {
+            done.await();
+            return result();
+        }
+
+        @Override
+        public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return result();
+        }
+
+        protected Void result() throws ExecutionException {
+            if (error != null) {
+                throw new ExecutionException(error);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,761 @@
+/******************************************************************
+ * File:        ChangeJournal.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.stores;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.epimorphics.util.EpiException;
+import com.epimorphics.util.FileUtil;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.sparql.core.Quad;
+
+/**
+ * Append-only journal of store changes. Entries are written as N-Quads into
+ * gzip compressed segment files, rotated when they exceed a size limit. Each entry
+ * starts with a comment line giving its sequence number, timestamp, action and graph,
+ * and ends with a comment line repeating the sequence number, so a segment is still
+ * a legal N-Quads file and an entry cut short by a crash can be recognized.
+ * <pre>
+ * # @entry 42 1381234567890 UPDATE http://example.com/graph
+ * &lt;s&gt; &lt;p&gt; &lt;o&gt; &lt;http://example.com/graph&gt; .
+ * # @end 42
+ * </pre>
+ * <p>
+ * Entries are serialized on the calling thread into a spool (spilling to a temporary
+ * file for large graphs). Starting an entry allocates its sequence number, so entries
+ * must be started while holding the store's write lock. Once the store transaction
+ * has finished the entry is either committed, which queues it for writing, or cancelled.
+ * A background writer thread writes the committed entries in sequence order, as a group,
+ * and fsyncs once per group. Callers that need durability can wait for a sequence
+ * number with {@link #sync(long)}.
+ * </p>
+ * <p>
+ * The queue limits the number of entries waiting for the writer and also the memory
+ * they hold. Once the queued entries hold 64MB an entry still held in memory is
+ * spilled to its temporary file before it is queued, so a stalled writer costs disk
+ * space rather than heap.
+ * </p>
+ * <p>
+ * If writing a group fails the segment is closed and the group is retried in a new
+ * segment. If that also fails the journal is marked as failed, after which new entries
+ * and {@link #sync(long)} throw an exception rather than silently losing changes.
+ * </p>
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ChangeJournal {
+    static Logger log = LoggerFactory.getLogger(ChangeJournal.class);
+
+    public static final String SEGMENT_PREFIX = "journal-";
+    public static final String SEGMENT_SUFFIX = ".nq.gz";
+    public static final String ENTRY_MARKER = "# @entry ";
+    public static final String END_MARKER = "# @end ";
+
+    public static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    protected static final int SPOOL_MEMORY_LIMIT = 1024 * 1024;
+    protected static final int MAX_GROUP = 1000;
+    protected static final int QUEUE_SIZE = 10000;
+    protected static final long MAX_QUEUED_MEMORY = 64 * 1024 * 1024;
+
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+    protected File dir;
+    protected long maxSegmentSize;
+
+    protected long lastSequence;
+    protected volatile long durableSequence;
+    protected BlockingQueue<Entry> queue = new LinkedBlockingQueue<Entry>(QUEUE_SIZE);
+    protected final AtomicLong queuedMemory = new AtomicLong();
+    protected long maxQueuedMemory = MAX_QUEUED_MEMORY;
+    protected Thread writerThread;
+    protected volatile boolean running = true;
+    protected volatile Throwable failure;
+
+    protected FileOutputStream segmentFile;
+    protected OutputStream segment;
+
+    public ChangeJournal(String dir) {
+        this(dir, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public ChangeJournal(String dir, long maxSegmentSize) {
+        FileUtil.ensureDir(dir);
+        this.dir = new File(dir);
+        this.maxSegmentSize = maxSegmentSize;
+        File[] segments = listSegments(this.dir);
+        if (segments.length > 0) {
+            File last = segments[segments.length - 1];
+            // A segment left empty by a crash still accounts for the sequence numbers before it
+            lastSequence = Math.max( lastSequence(last), firstSequence(last) - 1 );
+        }
+        durableSequence = lastSequence;
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "change-journal-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Return the segment files in a journal directory, in sequence order
+     */
+    public static File[] listSegments(File dir) {
+        File[] segments = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (segments == null) {
+            return new File[0];
+        }
+        // Names embed zero padded sequence numbers so name order is sequence order
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    /**
+     * Open a segment for reading. A segment truncated by a crash is read up to the truncation.
+     */
+    public static BufferedReader openSegment(File segment) throws IOException {
+        InputStream in = new TolerantInputStream( new GZIPInputStream( new FileInputStream(segment) ) );
+        return new BufferedReader( new InputStreamReader(in, UTF8) );
+    }
+
+    /**
+     * Parse an entry header line, returns null if the line is not a header.
+     */
+    public static EntryHeader parseHeader(String line) {
+        if (!line.startsWith(ENTRY_MARKER)) {
+            return null;
+        }
+        String[] parts = line.substring(ENTRY_MARKER.length()).split(" ", 4);
+        if (parts.length != 4) {
+            return null;
+        }
+        try {
+            return new EntryHeader(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2], parts[3]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parse an entry end line, returns the sequence number or -1 if the line is not an end marker
+     */
+    public static long parseEnd(String line) {
+        if (!line.startsWith(END_MARKER)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong( line.substring(END_MARKER.length()).trim() );
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Return the sequence number of the first entry in a segment, from its file name
+     */
+    protected static long firstSequence(File segment) {
+        String name = segment.getName();
+        try {
+            return Long.parseLong( name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()) );
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    protected static long lastSequence(File segment) {
+        long seq = 0;
+        try {
+            BufferedReader in = openSegment(segment);
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    EntryHeader header = parseHeader(line);
+                    if (header != null) {
+                        seq = header.sequence;
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new EpiException("Failed to read journal segment " + segment, e);
+        }
+        return seq;
+    }
+
+    /**
+     * Record an entry for an action on a graph, data may be null e.g. for deletes.
+     * Returns the finished entry, which must then be committed or cancelled.
+     */
+    public EntryStream append(String action, String graphname, Model data) {
+        EntryStream entry = startEntry(action, graphname);
+        try {
+            if (data != null) {
+                for (Iterator<Triple> i = data.getGraph().find(Node.ANY, Node.ANY, Node.ANY); i.hasNext();) {
+                    entry.triple( i.next() );
+                }
+            }
+            entry.finish();
+        } catch (RuntimeException e) {
+            entry.cancel();
+            throw e;
+        }
+        return entry;
+    }
+
+    /**
+     * Start an entry whose data will be streamed. Allocates the entry's sequence number
+     * so must be called with the store's write lock held. Once the stream is finished and
+     * the store change has committed call {@link EntryStream#commit()} to queue it for writing,
+     * otherwise call {@link EntryStream#cancel()}. Later entries are held back until this one
+     * has been committed or cancelled.
+     */
+    public EntryStream startEntry(String action, String graphname) {
+        checkHealthy();
+        EntryStream entry = new EntryStream(action, graphname);
+        synchronized (this) {
+            entry.entry.sequence = ++lastSequence;
+        }
+        return entry;
+    }
+
+    /**
+     * Wait until the entry with the given sequence number has been written and synced to disk.
+     * Throws an exception if the journal has failed before the entry could be written.
+     */
+    public void sync(long seq) {
+        synchronized (this) {
+            while (durableSequence < seq && running && failure == null) {
+                try {
+                    wait(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (durableSequence < seq && failure != null) {
+                throw new EpiException("Change journal has failed, entry " + seq + " was not written", failure);
+            }
+        }
+    }
+
+    /**
+     * True if the journal has stopped writing entries after a write error
+     */
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    protected void checkHealthy() {
+        if (failure != null) {
+            throw new EpiException("Change journal has failed, no further changes can be recorded", failure);
+        }
+        if (!running) {
+            throw new EpiException("Change journal has been closed");
+        }
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Write any queued entries and close the journal
+     */
+    public void close() {
+        running = false;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Hand a committed or cancelled entry to the writer thread
+     */
+    protected void enqueue(Entry entry) {
+        if (!running) {
+            entry.spool.discard();
+            if (!entry.cancelled) {
+                throw new EpiException("Change journal has been closed");
+            }
+            return;
+        }
+        if (!entry.cancelled) {
+            reserveMemory(entry);
+        }
+        try {
+            queue.put(entry);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            discard(entry);
+            throw new EpiException("Interrupted while queuing journal entry", e);
+        }
+    }
+
+    /**
+     * Count the memory held by an entry against the queue's limit, first spilling
+     * the entry to disk if the limit would be exceeded
+     */
+    protected void reserveMemory(Entry entry) {
+        long size = entry.spool.memorySize();
+        if (size == 0) return;
+        if (queuedMemory.addAndGet(size) > maxQueuedMemory) {
+            queuedMemory.addAndGet(-size);
+            try {
+                entry.spool.spillToDisk();
+                return;
+            } catch (IOException e) {
+                // Better to hold it in memory than to lose a committed change
+                log.warn("Failed to spill journal entry " + entry.sequence + " to disk, holding it in memory", e);
+                queuedMemory.addAndGet(size);
+            }
+        }
+        entry.memory = size;
+    }
+
+    /**
+     * Drop the data of an entry which has been written or abandoned
+     */
+    protected void discard(Entry entry) {
+        entry.spool.discard();
+        queuedMemory.addAndGet(-entry.memory);
+        entry.memory = 0;
+    }
+
+    protected void writeLoop() {
+        // Entries can be committed out of order, they are held here until all earlier entries are done
+        TreeMap<Long, Entry> waiting = new TreeMap<Long, Entry>();
+        long next = durableSequence + 1;
+        List<Entry> received = new ArrayList<Entry>();
+        List<Entry> group = new ArrayList<Entry>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Entry first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                received.add(first);
+                queue.drainTo(received, MAX_GROUP - 1);
+                for (Entry entry : received) {
+                    waiting.put(entry.sequence, entry);
+                }
+                received.clear();
+                while (!waiting.isEmpty() && waiting.firstKey() == next) {
+                    group.add( waiting.pollFirstEntry().getValue() );
+                    next++;
+                }
+                if (!group.isEmpty()) {
+                    writeGroup(group);
+                }
+            } catch (InterruptedException e) {
+                // Just go round and check the running flag
+            } finally {
+                for (Entry entry : group) {
+                    discard(entry);
+                }
+                group.clear();
+            }
+        }
+        if (!waiting.isEmpty()) {
+            log.warn("Change journal closed with " + waiting.size() + " entries waiting for an earlier unfinished entry, discarding them");
+            for (Entry entry : waiting.values()) {
+                discard(entry);
+            }
+        }
+        try {
+            closeSegment();
+        } catch (IOException e) {
+            log.error("Failed to close change journal segment", e);
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Write a group of consecutive entries and sync them. On failure the segment is abandoned,
+     * leaving any partial entry without its end marker, and the group is retried in a new segment.
+     * If the retry fails too the journal is marked as failed.
+     */
+    protected void writeGroup(List<Entry> group) {
+        if (failure != null) return;
+        try {
+            writeEntries(group);
+        } catch (Exception e) {
+            log.error("Failed to write change journal entries, retrying in a new segment", e);
+            abandonSegment();
+            try {
+                writeEntries(group);
+            } catch (Exception e2) {
+                log.error("Failed to write change journal entries, journal is now disabled", e2);
+                abandonSegment();
+                synchronized (this) {
+                    failure = e2;
+                    notifyAll();
+                }
+                return;
+            }
+        }
+        synchronized (this) {
+            durableSequence = group.get(group.size() - 1).sequence;
+            notifyAll();
+        }
+    }
+
+    protected void writeEntries(List<Entry> group) throws IOException {
+        boolean written = false;
+        for (Entry entry : group) {
+            if (!entry.cancelled) {
+                write(entry);
+                written = true;
+            }
+        }
+        if (written) {
+            segment.flush();
+            segmentFile.getChannel().force(false);
+            if (segmentFile.getChannel().position() > maxSegmentSize) {
+                closeSegment();
+            }
+        }
+    }
+
+    protected void write(Entry entry) throws IOException {
+        if (segment == null) {
+            File file = new File(dir, String.format("%s%020d%s", SEGMENT_PREFIX, entry.sequence, SEGMENT_SUFFIX));
+            segmentFile = new FileOutputStream(file);
+            segment = new GZIPOutputStream(segmentFile, 64 * 1024, true);
+        }
+        String header = String.format("%s%d %d %s %s\n", ENTRY_MARKER, entry.sequence, entry.timestamp, entry.action, entry.graphname);
+        segment.write( header.getBytes(UTF8) );
+        entry.spool.copyTo(segment);
+        segment.write( String.format("%s%d\n", END_MARKER, entry.sequence).getBytes(UTF8) );
+    }
+
+    protected void closeSegment() throws IOException {
+        if (segment != null) {
+            segment.close();
+            segment = null;
+            segmentFile = null;
+        }
+    }
+
+    /**
+     * Close a segment after a write error, ignoring any further errors
+     */
+    protected void abandonSegment() {
+        try {
+            if (segment != null) {
+                segment.close();
+            }
+        } catch (IOException e) {
+            // The segment is already damaged, replay stops at its last complete entry
+        } finally {
+            try {
+                if (segmentFile != null) {
+                    segmentFile.close();
+                }
+            } catch (IOException e) {
+                // As above
+            }
+            segment = null;
+            segmentFile = null;
+        }
+    }
+
+    /**
+     * Parsed form of an entry header line
+     */
+    public static class EntryHeader {
+        public final long sequence;
+        public final long timestamp;
+        public final String action;
+        public final String graphname;
+
+        public EntryHeader(long sequence, long timestamp, String action, String graphname) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.action = action;
+            this.graphname = graphname;
+        }
+    }
+
+    protected static class Entry {
+        protected long sequence;
+        protected long timestamp = System.currentTimeMillis();
+        protected String action;
+        protected String graphname;
+        protected Spool spool;
+        protected boolean cancelled = false;
+        // Bytes counted against the queue's memory limit
+        protected long memory = 0;
+    }
+
+    /**
+     * Stream which records the data for a journal entry. Once the stream is finished
+     * the entry is queued by {@link #commit()}, use {@link #cancel()} to abandon it.
+     */
+    public class EntryStream implements StreamRDF {
+        protected Entry entry = new Entry();
+        protected Node graph;
+        protected StreamRDF out;
+        protected boolean finished = false;
+        protected boolean done = false;
+
+        protected EntryStream(String action, String graphname) {
+            entry.action = action;
+            entry.graphname = graphname;
+            entry.spool = new Spool(dir);
+            graph = NodeFactory.createURI(graphname);
+            out = StreamRDFLib.writer(entry.spool);
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void triple(Triple triple) {
+            out.quad( new Quad(graph, triple) );
+        }
+
+        @Override
+        public void quad(Quad quad) {
+            triple( quad.asTriple() );
+        }
+
+        @Override
+        public void base(String base) {
+        }
+
+        @Override
+        public void prefix(String prefix, String iri) {
+        }
+
+        @Override
+        public void finish() {
+            finished = true;
+            out.finish();
+            try {
+                entry.spool.close();
+            } catch (IOException e) {
+                throw new EpiException("Failed to spool journal entry", e);
+            }
+        }
+
+        /**
+         * Queue the finished entry for writing, call once the store change has committed
+         */
+        public void commit() {
+            if (done) return;
+            if (!finished) {
+                cancel();
+                throw new EpiException("Journal entry " + entry.sequence + " was committed before it was finished");
+            }
+            done = true;
+            enqueue(entry);
+        }
+
+        /**
+         * Abandon the entry, its sequence number is skipped
+         */
+        public void cancel() {
+            if (done) return;
+            done = true;
+            entry.cancelled = true;
+            entry.spool.discard();
+            enqueue(entry);
+        }
+
+        public long getSequence() {
+            return entry.sequence;
+        }
+    }
+
+    /**
+     * Output stream which buffers in memory up to a limit and then spills to a temporary file.
+     */
+    protected static class Spool extends OutputStream {
+        protected File dir;
+        protected ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        protected File spillFile;
+        protected OutputStream spill;
+
+        public Spool(File dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target(1).write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target(len).write(b, off, len);
+        }
+
+        protected OutputStream target(int len) throws IOException {
+            if (spill == null && buffer.size() + len > SPOOL_MEMORY_LIMIT) {
+                spillFile = File.createTempFile("spool-", ".tmp", dir);
+                spill = new BufferedOutputStream( new FileOutputStream(spillFile) );
+                buffer.writeTo(spill);
+                buffer = null;
+            }
+            return spill == null ? buffer : spill;
+        }
+
+        /**
+         * Number of bytes held in memory
+         */
+        public long memorySize() {
+            return buffer == null ? 0 : buffer.size();
+        }
+
+        /**
+         * Move the data of a finished spool from memory to a temporary file. The data
+         * stays in memory if this fails.
+         */
+        public void spillToDisk() throws IOException {
+            if (spillFile != null) return;
+            File file = File.createTempFile("spool-", ".tmp", dir);
+            try {
+                OutputStream out = new BufferedOutputStream( new FileOutputStream(file) );
+                try {
+                    buffer.writeTo(out);
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                file.delete();
+                throw e;
+            }
+            spillFile = file;
+            buffer = null;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (spill != null) spill.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (spill != null) spill.close();
+        }
+
+        public void copyTo(OutputStream out) throws IOException {
+            if (spillFile == null) {
+                buffer.writeTo(out);
+            } else {
+                InputStream in = new FileInputStream(spillFile);
+                try {
+                    byte[] buf = new byte[64 * 1024];
+                    int len;
+                    while ((len = in.read(buf)) != -1) {
+                        out.write(buf, 0, len);
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        }
+
+        public void discard() {
+            if (spillFile != null) {
+                try {
+                    if (spill != null) spill.close();
+                } catch (IOException e) {
+                    // Ignore, we are just tidying up
+                }
+                spillFile.delete();
+                spillFile = null;
+            }
+        }
+    }
+
+    /**
+     * Treats a truncated compressed stream, as left by a crash, as a normal end of stream.
+     */
+    protected static class TolerantInputStream extends FilterInputStream {
+        protected TolerantInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (EOFException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (EOFException e) {
+                return -1;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+/******************************************************************
+ * File:        CompactGraph.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.stores;
+
+import java.util.Iterator;
+
+import com.epimorphics.server.stores.CompactTripleIndex.IntTriple;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.graph.impl.GraphBase;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.Map1;
+import com.hp.hpl.jena.util.iterator.NullIterator;
+import com.hp.hpl.jena.util.iterator.WrappedIterator;
+
+/**
+ * Jena graph over a {@link CompactTripleIndex}, with nodes encoded
+ * through a shared {@link NodeDictionary}. Changes are passed on to the
+ * store's union graph, if there is one.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class CompactGraph extends GraphBase {
+    // Lookup result for a concrete node which is not in the dictionary so can't match
+    protected static final int MISSING = -2;
+
+    protected NodeDictionary dictionary;
+    protected CompactTripleIndex index;
+    protected CompactUnionGraph union;
+
+    public CompactGraph(NodeDictionary dictionary, boolean offHeap, CompactUnionGraph union) {
+        this.dictionary = dictionary;
+        this.index = new CompactTripleIndex(offHeap);
+        this.union = union;
+    }
+
+    /**
+     * Merge pending changes into the sorted index
+     */
+    public void flush() {
+        index.flush();
+    }
+
+    /**
+     * Release all the triples of this graph from the union, used when the graph is dropped
+     */
+    public void releaseAll() {
+        if (union != null) {
+            for (Iterator<IntTriple> i = index.find(CompactTripleIndex.ANY, CompactTripleIndex.ANY, CompactTripleIndex.ANY); i.hasNext();) {
+                IntTriple t = i.next();
+                union.release(t.s, t.p, t.o);
+            }
+        }
+    }
+
+    @Override
+    protected ExtendedIterator<Triple> graphBaseFind(TripleMatch m) {
+        Triple pattern = m.asTriple();
+        int s = lookup( pattern.getSubject() );
+        int p = lookup( pattern.getPredicate() );
+        int o = lookup( pattern.getObject() );
+        if (s == MISSING || p == MISSING || o == MISSING) {
+            return NullIterator.instance();
+        }
+        return WrappedIterator.createNoRemove( index.find(s, p, o) ).mapWith(new Map1<IntTriple, Triple>() {
+            @Override
+            public Triple map1(IntTriple t) {
+                return Triple.create( dictionary.get(t.s), dictionary.get(t.p), dictionary.get(t.o) );
+            }
+        });
+    }
+
+    @Override
+    protected boolean graphBaseContains(Triple t) {
+        if (!t.isConcrete()) {
+            return super.graphBaseContains(t);
+        }
+        int s = lookup( t.getSubject() );
+        int p = lookup( t.getPredicate() );
+        int o = lookup( t.getObject() );
+        if (s == MISSING || p == MISSING || o == MISSING) {
+            return false;
+        }
+        return index.contains(s, p, o);
+    }
+
+    @Override
+    protected int graphBaseSize() {
+        return index.size();
+    }
+
+    @Override
+    public void performAdd(Triple t) {
+        int s = dictionary.intern( t.getSubject() );
+        int p = dictionary.intern( t.getPredicate() );
+        int o = dictionary.intern( t.getObject() );
+        if (index.add(s, p, o) && union != null) {
+            union.include(s, p, o);
+        }
+    }
+
+    @Override
+    public void performDelete(Triple t) {
+        int s = dictionary.lookup( t.getSubject() );
+        int p = dictionary.lookup( t.getPredicate() );
+        int o = dictionary.lookup( t.getObject() );
+        if (s == NodeDictionary.NONE || p == NodeDictionary.NONE || o == NodeDictionary.NONE) {
+            return;
+        }
+        if (index.delete(s, p, o) && union != null) {
+            union.release(s, p, o);
+        }
+    }
+
+    protected int lookup(Node n) {
+        if (n == null || !n.isConcrete()) {
+            return CompactTripleIndex.ANY;
+        }
+        int id = dictionary.lookup(n);
+        return id == NodeDictionary.NONE ? MISSING : id;
+    }
+}
@@ -0,0 +1,180 @@
+/******************************************************************
+ * File:        CompactStore.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.stores;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.ServletContext;
+
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.system.StreamRDFLib;
+
+import com.epimorphics.util.EpiException;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.query.Dataset;
+import com.hp.hpl.jena.query.DatasetFactory;
+import com.hp.hpl.jena.query.ReadWrite;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.sparql.core.DatasetGraphMap;
+
+/**
+ * In memory store which interns all nodes into an integer dictionary and holds
+ * each graph as sorted SPO, POS and OSP arrays of node ids. Uses a fraction of
+ * the memory of the default Jena in-memory graphs. The default graph is the
+ * union of the named graphs, held as its own reference counted index.
+ * <p>
+ * Setting <code>offHeap=true</code> allocates the index arrays outside the Java heap.
+ * Updates are buffered and merged into the sorted arrays in steps as the buffered
+ * changes grow, see {@link CompactTripleIndex}, so small writes stay cheap. At the
+ * end of each write only the graphs it changed are flushed. Named graphs must only
+ * be changed via the store API.
+ * </p>
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class CompactStore extends StoreBase {
+    public static final String OFF_HEAP_PARAM = "offHeap";
+
+    protected boolean offHeap;
+    protected NodeDictionary dictionary;
+    protected CompactUnionGraph unionGraph;
+    protected Model unionModel;
+    protected DatasetGraphMap dsg;
+    protected Map<String, CompactGraph> graphs = new HashMap<String, CompactGraph>();
+    // Graphs changed by the current write
+    protected Set<CompactGraph> touched = new LinkedHashSet<CompactGraph>();
+
+    @Override
+    public void init(Map<String, String> config, ServletContext context) {
+        super.init(config, context);
+        offHeap = "true".equalsIgnoreCase( config.get(OFF_HEAP_PARAM) );
+        dictionary = new NodeDictionary();
+        unionGraph = new CompactUnionGraph(dictionary, offHeap);
+        unionModel = ModelFactory.createModelForGraph(unionGraph);
+        dsg = new DatasetGraphMap(unionGraph);
+        dataset = DatasetFactory.create(dsg);
+
+        installJenaText();
+        installQueryEndpoint(context);
+    }
+
+    @Override
+    protected void doAddGraph(String graphname, Model graph) {
+        lockWrite();
+        long start = writeTimer.start();
+        try {
+            Model m = targetModel(graphname);
+            m.add(graph);
+            m.setNsPrefixes(graph);
+            unionModel.setNsPrefixes(graph);
+        } finally {
+            writeTimer.stop(start);
+            unlock();
+        }
+    }
+
+    @Override
+    protected void doAddGraph(String graphname, InputStream input, String mimeType) {
+        Lang lang = RDFLanguages.contentTypeToLang(mimeType);
+        if (lang == null) {
+            throw new EpiException("Cannot read MIME type: " + mimeType);
+        }
+        boolean ok = false;
+        lockWrite();
+        long start = writeTimer.start();
+        try {
+            parse(input, graphname, lang, StreamRDFLib.graph(targetModel(graphname).getGraph()));
+            try { input.close(); } catch (IOException eio) {}
+            ok = true;
+        } catch (Exception e) {
+            throw new EpiException(e);
+        } finally {
+            writeTimer.stop(start);
+            endWrite(ok);
+        }
+    }
+
+    @Override
+    protected void doDeleteGraph(String graphname) {
+        lockWrite();
+        long start = writeTimer.start();
+        try {
+            CompactGraph graph = graphs.remove(graphname);
+            if (graph != null) {
+                touched.remove(graph);
+                graph.releaseAll();
+                dsg.removeGraph( NodeFactory.createURI(graphname) );
+            }
+        } finally {
+            writeTimer.stop(start);
+            unlock();
+        }
+    }
+
+    @Override
+    protected Model targetModel(String graphname) {
+        CompactGraph graph = graphs.get(graphname);
+        if (graph == null) {
+            graph = new CompactGraph(dictionary, offHeap, unionGraph);
+            graphs.put(graphname, graph);
+            dsg.addGraph(NodeFactory.createURI(graphname), graph);
+        }
+        touched.add(graph);
+        return ModelFactory.createModelForGraph(graph);
+    }
+
+    /**
+     * Flush the buffered changes of the graphs changed by a write before the write lock is released
+     */
+    @Override
+    protected void endTransaction(ReadWrite mode, boolean commit) {
+        try {
+            if (mode == ReadWrite.WRITE) {
+                for (CompactGraph graph : touched) {
+                    graph.flush();
+                }
+                touched.clear();
+                unionGraph.flush();
+            }
+        } finally {
+            super.endTransaction(mode, commit);
+        }
+    }
+
+    @Override
+    public Dataset asDataset() {
+        return dataset;
+    }
+
+    @Override
+    public Model getUnionModel() {
+        return unionModel;
+    }
+
+}
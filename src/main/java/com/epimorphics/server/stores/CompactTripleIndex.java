@@ -0,0 +1,604 @@
+/******************************************************************
+ * File:        CompactTripleIndex.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.stores;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Set of triples of node ids held as three sorted permutations (SPO, POS, OSP)
+ * in primitive int buffers, optionally allocated off-heap. Any pattern lookup
+ * is a binary search for a range in one of the permutations.
+ * <p>
+ * Changes are layered so that a write does not rebuild the whole index:
+ * <ul>
+ *   <li>new triples are appended to an unsorted tail, with a small open addressing
+ *   hash table for membership tests, which pattern lookups scan;</li>
+ *   <li>the tail is sorted into a delta, held as three sorted int arrays, when it
+ *   fills up or by {@link #flush()};</li>
+ *   <li>deletes of triples in the main permutations just set a bit per permutation;</li>
+ *   <li>once the delta and deletes outgrow a fraction of the main permutations
+ *   (between {@value #DELTA_MIN} and {@value #DELTA_MAX} triples) they are merged
+ *   into them. The merge works in place when the existing buffers have room, so
+ *   off-heap buffers are only reallocated as the index grows.</li>
+ * </ul>
+ * Not thread safe, the owning store flushes at the end of each write. Iterators
+ * should not be used after the index has been changed.
+ * </p>
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class CompactTripleIndex {
+    /** Use as a lookup argument to match any node */
+    public static final int ANY = -1;
+
+    // Triple position held at each slot of the SPO, POS and OSP permutations
+    protected static final int[][] ORDERS = { {0, 1, 2}, {1, 2, 0}, {2, 0, 1} };
+    protected static final int SPO = 0;
+    protected static final int POS = 1;
+    protected static final int OSP = 2;
+
+    protected static final int TAIL_INITIAL = 16;
+    protected static final int TAIL_MAX = 8 * 1024;
+    protected static final int DELTA_MIN = 256;
+    protected static final int DELTA_MAX = 64 * 1024;
+    protected static final int[] EMPTY = new int[0];
+
+    protected boolean offHeap;
+
+    // Main sorted permutations, entries flagged in deleted are no longer present
+    protected IntBuffer[] perms = new IntBuffer[3];
+    protected BitSet[] deleted = new BitSet[3];
+    protected int size = 0;
+    protected int deletedCount = 0;
+
+    // Sorted permutations of recently added triples
+    protected int[][] delta = { EMPTY, EMPTY, EMPTY };
+    protected int deltaCount = 0;
+
+    // Most recently added triples, unsorted, with a hash table of their positions + 1
+    // in which 0 marks an empty slot and -1 a removed entry
+    protected int[] tail = new int[TAIL_INITIAL * 3];
+    protected int tailCount = 0;
+    protected int[] tailSlots = new int[TAIL_INITIAL * 2];
+    protected int tailSlotsUsed = 0;
+
+    public CompactTripleIndex(boolean offHeap) {
+        this.offHeap = offHeap;
+        for (int i = 0; i < 3; i++) {
+            perms[i] = allocate(0);
+            deleted[i] = new BitSet();
+        }
+    }
+
+    public int size() {
+        return size - deletedCount + deltaCount + tailCount;
+    }
+
+    public boolean contains(int s, int p, int o) {
+        int[] key = {s, p, o};
+        int pos = search(perms[SPO], size, key);
+        if (pos >= 0) {
+            return !deleted[SPO].get(pos);
+        }
+        return search(IntBuffer.wrap(delta[SPO]), deltaCount, key) >= 0 || tailIndex(s, p, o) >= 0;
+    }
+
+    /**
+     * Add a triple, returns true if it was not already present
+     */
+    public boolean add(int s, int p, int o) {
+        int[] key = {s, p, o};
+        int pos = search(perms[SPO], size, key);
+        if (pos >= 0) {
+            if (!deleted[SPO].get(pos)) return false;
+            markDeleted(key, false);
+            return true;
+        }
+        if (search(IntBuffer.wrap(delta[SPO]), deltaCount, key) >= 0 || tailIndex(s, p, o) >= 0) {
+            return false;
+        }
+        if (tailCount * 3 == tail.length) {
+            if (tailCount < TAIL_MAX) {
+                tail = Arrays.copyOf(tail, tail.length * 2);
+                rehashTail(tailSlots.length * 2);
+            } else {
+                flushTail();
+            }
+        }
+        if (tailSlotsUsed * 2 >= tailSlots.length) {
+            rehashTail(tailSlots.length);
+        }
+        int base = tailCount * 3;
+        tail[base] = s;
+        tail[base + 1] = p;
+        tail[base + 2] = o;
+        tailCount++;
+        int slot = tailHash(s, p, o);
+        while (tailSlots[slot] > 0) {
+            slot = (slot + 1) & (tailSlots.length - 1);
+        }
+        if (tailSlots[slot] == 0) {
+            tailSlotsUsed++;
+        }
+        tailSlots[slot] = tailCount;
+        return true;
+    }
+
+    /**
+     * Delete a triple, returns true if it was present
+     */
+    public boolean delete(int s, int p, int o) {
+        int slot = tailSlot(s, p, o);
+        if (slot >= 0) {
+            // Order within the tail doesn't matter, move the last entry into the gap
+            int i = tailSlots[slot] - 1;
+            tailSlots[slot] = -1;
+            tailCount--;
+            if (i < tailCount) {
+                int last = tailCount * 3;
+                tailSlots[ tailSlot(tail[last], tail[last + 1], tail[last + 2]) ] = i + 1;
+                System.arraycopy(tail, last, tail, i * 3, 3);
+            }
+            return true;
+        }
+        int[] key = {s, p, o};
+        if (search(IntBuffer.wrap(delta[SPO]), deltaCount, key) >= 0) {
+            for (int perm = 0; perm < 3; perm++) {
+                int[] d = delta[perm];
+                int pos = search(IntBuffer.wrap(d), deltaCount, permute(key, ORDERS[perm]));
+                System.arraycopy(d, (pos + 1) * 3, d, pos * 3, (deltaCount - pos - 1) * 3);
+            }
+            deltaCount--;
+            return true;
+        }
+        int pos = search(perms[SPO], size, key);
+        if (pos < 0 || deleted[SPO].get(pos)) {
+            return false;
+        }
+        markDeleted(key, true);
+        return true;
+    }
+
+    /**
+     * Find all triples matching the pattern, use ANY for unbound positions.
+     * Triples deleted while iterating may or may not be returned, the iterator
+     * should not be used after a flush.
+     */
+    public Iterator<IntTriple> find(int s, int p, int o) {
+        int perm;
+        int[] prefix;
+        if (s != ANY) {
+            if (p != ANY) {
+                perm = SPO;
+                prefix = (o != ANY) ? new int[]{s, p, o} : new int[]{s, p};
+            } else if (o != ANY) {
+                perm = OSP;
+                prefix = new int[]{o, s};
+            } else {
+                perm = SPO;
+                prefix = new int[]{s};
+            }
+        } else if (p != ANY) {
+            perm = POS;
+            prefix = (o != ANY) ? new int[]{p, o} : new int[]{p};
+        } else if (o != ANY) {
+            perm = OSP;
+            prefix = new int[]{o};
+        } else {
+            perm = SPO;
+            prefix = new int[0];
+        }
+        IntBuffer buffer = perms[perm];
+        IntBuffer deltaBuffer = IntBuffer.wrap(delta[perm]);
+
+        List<IntTriple> recent = new ArrayList<IntTriple>();
+        for (int i = 0; i < tailCount; i++) {
+            IntTriple t = new IntTriple(tail[i * 3], tail[i * 3 + 1], tail[i * 3 + 2]);
+            if (t.matches(s, p, o)) recent.add(t);
+        }
+        return new RangeIterator(ORDERS[perm],
+                buffer, bound(buffer, size, prefix, false), bound(buffer, size, prefix, true), deleted[perm],
+                deltaBuffer, bound(deltaBuffer, deltaCount, prefix, false), bound(deltaBuffer, deltaCount, prefix, true),
+                recent);
+    }
+
+    /**
+     * Sort recently added triples into the delta, and merge the delta and any
+     * deletes into the main permutations if they have grown large enough
+     */
+    public void flush() {
+        flushTail();
+        if (deltaCount + deletedCount > mergeThreshold()) {
+            merge();
+        }
+    }
+
+    protected int mergeThreshold() {
+        return Math.min( Math.max(size / 8, DELTA_MIN), DELTA_MAX );
+    }
+
+    protected void flushTail() {
+        if (tailCount == 0) return;
+        Integer[] entries = new Integer[tailCount];
+        for (int i = 0; i < tailCount; i++) {
+            entries[i] = i;
+        }
+        int newCount = deltaCount + tailCount;
+        for (int perm = 0; perm < 3; perm++) {
+            final int[] order = ORDERS[perm];
+            Arrays.sort(entries, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    for (int i = 0; i < 3; i++) {
+                        int x = tail[a * 3 + order[i]];
+                        int y = tail[b * 3 + order[i]];
+                        if (x != y) {
+                            return x < y ? -1 : 1;
+                        }
+                    }
+                    return 0;
+                }
+            });
+            int[] sorted = new int[tailCount * 3];
+            for (int i = 0; i < tailCount; i++) {
+                for (int j = 0; j < 3; j++) {
+                    sorted[i * 3 + j] = tail[entries[i] * 3 + order[j]];
+                }
+            }
+            int[] d = delta[perm];
+            if (d.length < newCount * 3) {
+                d = Arrays.copyOf(d, Math.max(newCount, deltaCount * 2) * 3);
+                delta[perm] = d;
+            }
+            mergeBackwards(IntBuffer.wrap(d), deltaCount, sorted, tailCount);
+        }
+        deltaCount = newCount;
+        tailCount = 0;
+        if (tail.length > TAIL_INITIAL * 3 && size() < TAIL_MAX) {
+            tail = new int[TAIL_INITIAL * 3];
+            tailSlots = new int[TAIL_INITIAL * 2];
+        } else {
+            Arrays.fill(tailSlots, 0);
+        }
+        tailSlotsUsed = 0;
+        if (deltaCount + deletedCount > mergeThreshold()) {
+            merge();
+        }
+    }
+
+    /**
+     * Merge the delta into the main permutations, dropping deleted entries
+     */
+    protected void merge() {
+        int newSize = size - deletedCount + deltaCount;
+        for (int perm = 0; perm < 3; perm++) {
+            IntBuffer buffer = perms[perm];
+            int[] d = delta[perm];
+            if (buffer.capacity() >= newSize * 3) {
+                int live = compact(buffer, size, deleted[perm]);
+                mergeBackwards(buffer, live, d, deltaCount);
+            } else {
+                IntBuffer merged = allocate( (newSize + newSize / 8) * 3 );
+                BitSet skip = deleted[perm];
+                int out = 0;
+                int j = 0;
+                for (int i = 0; i < size; i++) {
+                    if (skip.get(i)) continue;
+                    while (j < deltaCount && compare(d, j, buffer, i) < 0) {
+                        copy(d, j++, merged, out++);
+                    }
+                    copy(buffer, i, merged, out++);
+                }
+                while (j < deltaCount) {
+                    copy(d, j++, merged, out++);
+                }
+                perms[perm] = merged;
+            }
+            deleted[perm].clear();
+            if (d.length > DELTA_MIN * 3) {
+                delta[perm] = EMPTY;
+            }
+        }
+        size = newSize;
+        deletedCount = 0;
+        deltaCount = 0;
+    }
+
+    /**
+     * Set or clear the deleted flag for a triple in the main permutations
+     */
+    protected void markDeleted(int[] spo, boolean flag) {
+        for (int perm = 0; perm < 3; perm++) {
+            int pos = search(perms[perm], size, permute(spo, ORDERS[perm]));
+            deleted[perm].set(pos, flag);
+        }
+        deletedCount += flag ? 1 : -1;
+    }
+
+    protected int tailIndex(int s, int p, int o) {
+        int slot = tailSlot(s, p, o);
+        return slot < 0 ? -1 : tailSlots[slot] - 1;
+    }
+
+    /**
+     * Return the hash table slot holding a tail triple, or -1 if it is not in the tail
+     */
+    protected int tailSlot(int s, int p, int o) {
+        int mask = tailSlots.length - 1;
+        for (int slot = tailHash(s, p, o); tailSlots[slot] != 0; slot = (slot + 1) & mask) {
+            int i = tailSlots[slot] - 1;
+            if (i >= 0 && tail[i * 3] == s && tail[i * 3 + 1] == p && tail[i * 3 + 2] == o) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    protected int tailHash(int s, int p, int o) {
+        int h = ((s * 31 + p) * 31 + o) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (tailSlots.length - 1);
+    }
+
+    /**
+     * Rebuild the tail hash table, dropping removed entries
+     */
+    protected void rehashTail(int slots) {
+        tailSlots = new int[slots];
+        int mask = slots - 1;
+        for (int i = 0; i < tailCount; i++) {
+            int slot = tailHash(tail[i * 3], tail[i * 3 + 1], tail[i * 3 + 2]);
+            while (tailSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            tailSlots[slot] = i + 1;
+        }
+        tailSlotsUsed = tailCount;
+    }
+
+    protected IntBuffer allocate(int ints) {
+        if (offHeap) {
+            return ByteBuffer.allocateDirect(ints * 4).order( ByteOrder.nativeOrder() ).asIntBuffer();
+        } else {
+            return IntBuffer.allocate(ints);
+        }
+    }
+
+    /**
+     * Remove the flagged entries from the first n entries of a buffer, returns the number left
+     */
+    protected static int compact(IntBuffer buffer, int n, BitSet skip) {
+        int first = skip.nextSetBit(0);
+        if (first < 0 || first >= n) return n;
+        int out = first;
+        for (int i = first + 1; i < n; i++) {
+            if (!skip.get(i)) {
+                copy(buffer, i, buffer, out++);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Merge m sorted entries into the n sorted entries at the start of a buffer which
+     * has room for both, working from the end so nothing is overwritten before it is read
+     */
+    protected static void mergeBackwards(IntBuffer buffer, int n, int[] entries, int m) {
+        int i = n - 1;
+        int j = m - 1;
+        int out = n + m - 1;
+        while (j >= 0) {
+            if (i >= 0 && compare(entries, j, buffer, i) < 0) {
+                copy(buffer, i--, buffer, out--);
+            } else {
+                copy(entries, j--, buffer, out--);
+            }
+        }
+    }
+
+    protected static int compare(int[] a, int i, IntBuffer b, int j) {
+        for (int k = 0; k < 3; k++) {
+            int x = a[i * 3 + k];
+            int y = b.get(j * 3 + k);
+            if (x != y) {
+                return x < y ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    protected static void copy(IntBuffer from, int i, IntBuffer to, int j) {
+        for (int k = 0; k < 3; k++) {
+            to.put(j * 3 + k, from.get(i * 3 + k));
+        }
+    }
+
+    protected static void copy(int[] from, int i, IntBuffer to, int j) {
+        for (int k = 0; k < 3; k++) {
+            to.put(j * 3 + k, from[i * 3 + k]);
+        }
+    }
+
+    protected static int[] permute(int[] spo, int[] order) {
+        return new int[]{ spo[order[0]], spo[order[1]], spo[order[2]] };
+    }
+
+    /**
+     * Return the position of an entry in the first n entries of a sorted buffer, or -1
+     */
+    protected static int search(IntBuffer buffer, int n, int[] key) {
+        int pos = bound(buffer, n, key, false);
+        return (pos < n && comparePrefix(buffer, pos, key) == 0) ? pos : -1;
+    }
+
+    /**
+     * Binary search for the first entry whose prefix is not less than (or, if upper,
+     * is greater than) the given prefix.
+     */
+    protected static int bound(IntBuffer buffer, int n, int[] prefix, boolean upper) {
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = comparePrefix(buffer, mid, prefix);
+            if (c < 0 || (upper && c == 0)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    protected static int comparePrefix(IntBuffer buffer, int entry, int[] prefix) {
+        int base = entry * 3;
+        for (int i = 0; i < prefix.length; i++) {
+            int v = buffer.get(base + i);
+            if (v != prefix[i]) {
+                return v < prefix[i] ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    protected static IntTriple tripleAt(IntBuffer buffer, int[] order, int entry) {
+        int[] spo = new int[3];
+        int base = entry * 3;
+        for (int i = 0; i < 3; i++) {
+            spo[order[i]] = buffer.get(base + i);
+        }
+        return new IntTriple(spo[0], spo[1], spo[2]);
+    }
+
+    /**
+     * A triple of node ids
+     */
+    public static final class IntTriple {
+        public final int s;
+        public final int p;
+        public final int o;
+
+        public IntTriple(int s, int p, int o) {
+            this.s = s;
+            this.p = p;
+            this.o = o;
+        }
+
+        public int get(int position) {
+            switch (position) {
+            case 0: return s;
+            case 1: return p;
+            default: return o;
+            }
+        }
+
+        public boolean matches(int ms, int mp, int mo) {
+            return (ms == ANY || ms == s) && (mp == ANY || mp == p) && (mo == ANY || mo == o);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (other instanceof IntTriple) {
+                IntTriple t = (IntTriple)other;
+                return s == t.s && p == t.p && o == t.o;
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return (s * 31 + p) * 31 + o;
+        }
+    }
+
+    /**
+     * Iterates over a range of the main permutation, skipping deleted entries,
+     * then a range of the delta and then the matching recent additions
+     */
+    protected static class RangeIterator implements Iterator<IntTriple> {
+        protected int[] order;
+        protected IntBuffer main;
+        protected int next;
+        protected int end;
+        protected BitSet deleted;
+        protected IntBuffer delta;
+        protected int deltaNext;
+        protected int deltaEnd;
+        protected Iterator<IntTriple> recent;
+        protected IntTriple pending;
+
+        public RangeIterator(int[] order, IntBuffer main, int start, int end, BitSet deleted,
+                IntBuffer delta, int deltaStart, int deltaEnd, List<IntTriple> recent) {
+            this.order = order;
+            this.main = main;
+            this.next = start;
+            this.end = end;
+            this.deleted = deleted;
+            this.delta = delta;
+            this.deltaNext = deltaStart;
+            this.deltaEnd = deltaEnd;
+            this.recent = recent.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (pending == null) {
+                if (next < end) {
+                    int entry = next++;
+                    if (!deleted.get(entry)) {
+                        pending = tripleAt(main, order, entry);
+                    }
+                } else if (deltaNext < deltaEnd) {
+                    pending = tripleAt(delta, order, deltaNext++);
+                } else if (recent.hasNext()) {
+                    pending = recent.next();
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public IntTriple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            IntTriple t = pending;
+            pending = null;
+            return t;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
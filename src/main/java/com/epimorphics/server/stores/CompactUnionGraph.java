@@ -0,0 +1,81 @@
+/******************************************************************
+ * File:        CompactUnionGraph.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.stores;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.epimorphics.server.stores.CompactTripleIndex.IntTriple;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.shared.AddDeniedException;
+import com.hp.hpl.jena.shared.DeleteDeniedException;
+
+/**
+ * Read only union of all the graphs in a {@link CompactStore}, held as a single
+ * reference counted index maintained by the member graphs.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class CompactUnionGraph extends CompactGraph {
+    // Reference counts above one, most triples only occur in one graph so this stays small
+    protected Map<IntTriple, Integer> extraRefs = new HashMap<IntTriple, Integer>();
+
+    public CompactUnionGraph(NodeDictionary dictionary, boolean offHeap) {
+        super(dictionary, offHeap, null);
+    }
+
+    /**
+     * Record one more occurrence of the triple in a member graph
+     */
+    public void include(int s, int p, int o) {
+        if (!index.add(s, p, o)) {
+            IntTriple t = new IntTriple(s, p, o);
+            Integer count = extraRefs.get(t);
+            extraRefs.put(t, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Record the removal of one occurrence of the triple from a member graph
+     */
+    public void release(int s, int p, int o) {
+        IntTriple t = new IntTriple(s, p, o);
+        Integer count = extraRefs.get(t);
+        if (count == null) {
+            index.delete(s, p, o);
+        } else if (count == 1) {
+            extraRefs.remove(t);
+        } else {
+            extraRefs.put(t, count - 1);
+        }
+    }
+
+    @Override
+    public void performAdd(Triple t) {
+        throw new AddDeniedException("Union graph is read only", t);
+    }
+
+    @Override
+    public void performDelete(Triple t) {
+        throw new DeleteDeniedException("Union graph is read only", t);
+    }
+}
@@ -0,0 +1,288 @@
+/******************************************************************
+ * File:        GraphCatalog.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.stores;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.epimorphics.util.EpiException;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+
+/**
+ * Catalog of the named graphs in a store with their size and the time and store
+ * version of their last change. Maintained incrementally by the store as each
+ * write commits, so listing it does not touch the data.
+ * <p>
+ * Triple counts are exact after updating a graph from a model. Stream uploads are
+ * counted as they load, rather than by scanning the graph afterwards, so duplicates
+ * in the input count again, as does adding to an existing graph any triples it already
+ * holds. Sizes are estimates of the N-Triples serialization in bytes.
+ * </p>
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class GraphCatalog {
+    protected final Map<String, GraphStats> graphs = new ConcurrentHashMap<String, GraphStats>();
+    protected final Collection<GraphStats> view = Collections.unmodifiableCollection( graphs.values() );
+
+    /**
+     * Return the stats for all graphs, a live view of the catalog
+     */
+    public Collection<GraphStats> list() {
+        return view;
+    }
+
+    public GraphStats get(String graphname) {
+        return graphs.get(graphname);
+    }
+
+    public int size() {
+        return graphs.size();
+    }
+
+    /**
+     * Apply the changes from a committed write
+     */
+    public void apply(List<Change> changes, long version, long time) {
+        for (Change change : changes) {
+            GraphStats old = graphs.get(change.graphname);
+            if (change.delete) {
+                graphs.remove(change.graphname);
+            } else if (change.replace || old == null) {
+                graphs.put(change.graphname, new GraphStats(change.graphname, change.triples, change.bytes, time, version));
+            } else {
+                graphs.put(change.graphname, new GraphStats(change.graphname,
+                        Math.max(0, old.triples + change.triples), Math.max(0, old.bytes + change.bytes), time, version));
+            }
+        }
+    }
+
+    public void clear() {
+        graphs.clear();
+    }
+
+    /**
+     * Record the size of a graph, used when building the catalog from the stored data
+     */
+    public void put(String graphname, Graph graph, long version) {
+        Change c = Change.replace(graphname, graph);
+        graphs.put(graphname, new GraphStats(graphname, c.triples, c.bytes, System.currentTimeMillis(), version));
+    }
+
+    /**
+     * Save the catalog as tab separated lines of name, triples, bytes, modified, version
+     */
+    public void save(File file) {
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            Writer out = new BufferedWriter( new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8) );
+            try {
+                for (GraphStats s : graphs.values()) {
+                    out.write(s.graphname + "\t" + s.triples + "\t" + s.bytes + "\t" + s.modified + "\t" + s.version + "\n");
+                }
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                file.delete();
+                if (!temp.renameTo(file)) {
+                    throw new EpiException("Failed to write graph catalog " + file);
+                }
+            }
+        } catch (IOException e) {
+            throw new EpiException("Failed to write graph catalog " + file, e);
+        }
+    }
+
+    public void load(File file) {
+        try {
+            BufferedReader in = new BufferedReader( new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8) );
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] fields = line.split("\t");
+                    if (fields.length != 5) {
+                        throw new EpiException("Bad graph catalog entry: " + line);
+                    }
+                    graphs.put(fields[0], new GraphStats(fields[0], Long.parseLong(fields[1]),
+                            Long.parseLong(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4])));
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException | NumberFormatException e) {
+            throw new EpiException("Failed to read graph catalog " + file, e);
+        }
+    }
+
+    /**
+     * Count the triples of a graph and estimate their size as N-Triples, in one pass
+     * since counting a persistent graph may mean scanning it anyway.
+     */
+    protected static long[] measure(Graph graph) {
+        long triples = 0;
+        long bytes = 0;
+        ExtendedIterator<Triple> it = graph.find(Node.ANY, Node.ANY, Node.ANY);
+        try {
+            while (it.hasNext()) {
+                triples++;
+                bytes += estimate( it.next() );
+            }
+        } finally {
+            it.close();
+        }
+        return new long[]{ triples, bytes };
+    }
+
+    /**
+     * Estimate the size of a triple as an N-Triples line
+     */
+    public static long estimate(Triple t) {
+        return estimate(t.getSubject()) + estimate(t.getPredicate()) + estimate(t.getObject()) + 4;
+    }
+
+    protected static long estimate(Node n) {
+        if (n.isURI()) {
+            return n.getURI().length() + 2;
+        } else if (n.isLiteral()) {
+            String lang = n.getLiteralLanguage();
+            String dt = n.getLiteralDatatypeURI();
+            return n.getLiteralLexicalForm().length() + 2
+                    + (lang == null || lang.isEmpty() ? 0 : lang.length() + 1)
+                    + (dt == null ? 0 : dt.length() + 4);
+        } else {
+            return 20;
+        }
+    }
+
+    /**
+     * Catalog entry for a graph
+     */
+    public static class GraphStats {
+        protected final String graphname;
+        protected final long triples;
+        protected final long bytes;
+        protected final long modified;
+        protected final long version;
+
+        public GraphStats(String graphname, long triples, long bytes, long modified, long version) {
+            this.graphname = graphname;
+            this.triples = triples;
+            this.bytes = bytes;
+            this.modified = modified;
+            this.version = version;
+        }
+
+        public String getGraphname() {
+            return graphname;
+        }
+
+        public long getTriples() {
+            return triples;
+        }
+
+        /** Approximate size of the graph as N-Triples */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /** Time of the last change, in milliseconds since the epoch */
+        public long getModified() {
+            return modified;
+        }
+
+        /** Store version of the last change */
+        public long getVersion() {
+            return version;
+        }
+    }
+
+    /**
+     * A pending change to the catalog, recorded within a write and applied if it commits
+     */
+    public static class Change {
+        protected final String graphname;
+        protected final boolean delete;
+        protected final boolean replace;
+        protected final long triples;
+        protected final long bytes;
+
+        protected Change(String graphname, boolean delete, boolean replace, long triples, long bytes) {
+            this.graphname = graphname;
+            this.delete = delete;
+            this.replace = replace;
+            this.triples = triples;
+            this.bytes = bytes;
+        }
+
+        public static Change delete(String graphname) {
+            return new Change(graphname, true, false, 0, 0);
+        }
+
+        /** The graph now holds exactly the given triples */
+        public static Change replace(String graphname, Graph graph) {
+            long[] size = measure(graph);
+            return new Change(graphname, false, true, size[0], size[1]);
+        }
+
+        /**
+         * The given number of triples, of the given estimated size, were streamed into the
+         * graph, replacing its previous contents if replace is true
+         */
+        public static Change counted(String graphname, boolean replace, long triples, long bytes) {
+            return new Change(graphname, false, replace, triples, bytes);
+        }
+
+        /** The given triples have been added to, and removed from, the graph */
+        public static Change delta(String graphname, Graph added, Graph removed) {
+            long triples = 0;
+            long bytes = 0;
+            if (added != null) {
+                long[] size = measure(added);
+                triples += size[0];
+                bytes += size[1];
+            }
+            if (removed != null) {
+                long[] size = measure(removed);
+                triples -= size[0];
+                bytes -= size[1];
+            }
+            return new Change(graphname, false, false, triples, bytes);
+        }
+    }
+}
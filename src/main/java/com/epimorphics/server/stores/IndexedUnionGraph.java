@@ -0,0 +1,180 @@
+/******************************************************************
+ * File:        IndexedUnionGraph.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.stores;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.hp.hpl.jena.graph.Factory;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.graph.impl.GraphBase;
+import com.hp.hpl.jena.shared.PrefixMapping;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.WrappedIterator;
+
+/**
+ * Union of a set of member graphs which is maintained as a single merged,
+ * reference counted, triple index. Lookups cost the same as for a single graph
+ * no matter how many members there are.
+ * <p>
+ * Members must be updated through the graphs returned by {@link #track(Graph)}
+ * so that the union sees every change. Triples added directly to the union
+ * are held in a separate base graph, as for MultiUnion.
+ * </p>
+ * <p>
+ * Not thread safe, updates and reads are expected to be under the store lock.
+ * </p>
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class IndexedUnionGraph extends GraphBase {
+    protected Graph index = Factory.createGraphMem();
+    protected Graph base = Factory.createGraphMem();
+
+    // Reference counts above one, most triples only occur in one graph so this stays small
+    protected Map<Triple, Integer> extraRefs = new HashMap<Triple, Integer>();
+
+    /**
+     * Record one more occurrence of the triple in a member graph
+     */
+    public void include(Triple t) {
+        if (index.contains(t)) {
+            Integer count = extraRefs.get(t);
+            extraRefs.put(t, count == null ? 1 : count + 1);
+        } else {
+            index.add(t);
+        }
+    }
+
+    /**
+     * Record the removal of one occurrence of the triple from a member graph
+     */
+    public void release(Triple t) {
+        Integer count = extraRefs.get(t);
+        if (count == null) {
+            index.delete(t);
+        } else if (count == 1) {
+            extraRefs.remove(t);
+        } else {
+            extraRefs.put(t, count - 1);
+        }
+    }
+
+    /**
+     * Release all the triples of a member graph which is being dropped
+     */
+    public void releaseAll(Graph member) {
+        for (Iterator<Triple> i = member.find(Node.ANY, Node.ANY, Node.ANY); i.hasNext();) {
+            release( i.next() );
+        }
+    }
+
+    /**
+     * Return a view of a member graph through which updates are reflected in the union
+     */
+    public Graph track(Graph member) {
+        return new TrackedGraph(member);
+    }
+
+    @Override
+    protected ExtendedIterator<Triple> graphBaseFind(TripleMatch m) {
+        return WrappedIterator.createNoRemove( index.find(m) );
+    }
+
+    @Override
+    protected boolean graphBaseContains(Triple t) {
+        return index.contains(t);
+    }
+
+    @Override
+    protected int graphBaseSize() {
+        return index.size();
+    }
+
+    @Override
+    public void performAdd(Triple t) {
+        if (!base.contains(t)) {
+            base.add(t);
+            include(t);
+        }
+    }
+
+    @Override
+    public void performDelete(Triple t) {
+        if (base.contains(t)) {
+            base.delete(t);
+            release(t);
+        }
+    }
+
+    /**
+     * Member graph view which passes changes on to the union index
+     */
+    protected class TrackedGraph extends GraphBase {
+        protected Graph member;
+
+        public TrackedGraph(Graph member) {
+            this.member = member;
+        }
+
+        @Override
+        protected ExtendedIterator<Triple> graphBaseFind(TripleMatch m) {
+            return WrappedIterator.createNoRemove( member.find(m) );
+        }
+
+        @Override
+        protected boolean graphBaseContains(Triple t) {
+            return member.contains(t);
+        }
+
+        @Override
+        protected int graphBaseSize() {
+            return member.size();
+        }
+
+        @Override
+        protected PrefixMapping createPrefixMapping() {
+            return member.getPrefixMapping();
+        }
+
+        @Override
+        public void performAdd(Triple t) {
+            if (!member.contains(t)) {
+                member.add(t);
+                include(t);
+            }
+        }
+
+        @Override
+        public void performDelete(Triple t) {
+            if (member.contains(t)) {
+                member.delete(t);
+                release(t);
+            }
+        }
+    }
+
+}
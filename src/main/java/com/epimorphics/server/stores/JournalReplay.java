@@ -0,0 +1,516 @@
+/******************************************************************
+ * File:        JournalReplay.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.stores;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.epimorphics.util.EpiException;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+
+/**
+ * Rebuilds a store by replaying a {@link ChangeJournal}.
+ * <p>
+ * The journal is first scanned to find, for each graph, the last UPDATE or DELETE
+ * and the ADDs which follow it, which is all that is needed to recreate the final
+ * state of that graph. The data for those entries is then parsed on a pool of worker
+ * threads and the resulting graphs are applied to the store in batches. Journal
+ * entries are not recreated for the replayed actions.
+ * </p>
+ * <p>
+ * Only complete entries, those with an end marker, are replayed. An entry cut short
+ * by a crash, or a damaged end to a segment, is skipped with a warning. Replay carries
+ * on with the next segment, since the journal starts a new segment after a write error,
+ * and entries written twice by such a retry are only applied once.
+ * </p>
+ * <p>
+ * The entry data for a graph is normally held until the graph's last entry has been read.
+ * If the data held for all graphs exceeds a limit (default 64MB) the held data is parsed
+ * and added to the store early, in parts.
+ * </p>
+ * <p>
+ * Can be run from the command line to rebuild a TDB store:
+ * <pre>
+ *   java com.epimorphics.server.stores.JournalReplay logDir tdbLocation [threads]
+ * </pre>
+ * </p>
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class JournalReplay {
+    static Logger log = LoggerFactory.getLogger(JournalReplay.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final long DEFAULT_MAX_PENDING = 64 * 1024 * 1024;
+
+    protected StoreBase store;
+    protected File dir;
+    protected int threads = Runtime.getRuntime().availableProcessors();
+    protected int batchSize = DEFAULT_BATCH_SIZE;
+    protected long maxPending = DEFAULT_MAX_PENDING;
+
+    public JournalReplay(StoreBase store, String logDirectory) {
+        this.store = store;
+        this.dir = new File(logDirectory);
+    }
+
+    public JournalReplay setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+        return this;
+    }
+
+    /** Set the number of graphs applied per write transaction */
+    public JournalReplay setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+        return this;
+    }
+
+    /** Set the number of bytes of unparsed entry data to hold before adding graphs in parts */
+    public JournalReplay setMaxPending(long maxPending) {
+        this.maxPending = Math.max(1, maxPending);
+        return this;
+    }
+
+    /**
+     * Replay the whole journal into the store, returns the number of triples loaded.
+     */
+    public long replay() {
+        long start = System.currentTimeMillis();
+        File[] segments = ChangeJournal.listSegments(dir);
+        Map<String, GraphPlan> plans = plan(segments);
+
+        Set<Long> needed = new HashSet<Long>();
+        for (GraphPlan plan : plans.values()) {
+            needed.addAll(plan.sequences);
+        }
+
+        final BlockingQueue<ReplayGraph> ready = new LinkedBlockingQueue<ReplayGraph>();
+        final Semaphore inFlight = new Semaphore(threads * 4);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Thread reader = startReader(segments, plans, needed, pool, ready, inFlight);
+
+        // Parts applied so far for each graph, and graphs whose last part has been read
+        Map<String, Integer> appliedParts = new HashMap<String, Integer>();
+        Set<String> lastRead = new HashSet<String>();
+        long triples = 0;
+        int applied = 0;
+        int parts = 0;
+        boolean inBatch = false;
+        try {
+            while (true) {
+                ReplayGraph graph = ready.take();
+                if (graph.end) {
+                    if (graph.error != null) {
+                        throw new EpiException("Failed to read journal", graph.error);
+                    }
+                    break;
+                }
+                inFlight.release();
+                if (graph.error != null) {
+                    throw new EpiException("Failed to replay graph " + graph.plan.graphname, graph.error);
+                }
+                if (!inBatch) {
+                    store.startBatch();
+                    inBatch = true;
+                }
+                String graphname = graph.plan.graphname;
+                Integer done = appliedParts.get(graphname);
+                int count = done == null ? 1 : done + 1;
+                appliedParts.put(graphname, count);
+                if (graph.last) {
+                    lastRead.add(graphname);
+                }
+                // Parts are parsed in parallel so the last part read may not be the last applied
+                boolean complete = lastRead.contains(graphname) && count >= graph.plan.parts;
+                store.replayGraph(graphname, graph.data, graph.plan.reset, done == null, complete);
+                if (graph.data != null) {
+                    triples += graph.data.size();
+                }
+                if (complete) {
+                    applied++;
+                }
+                parts++;
+                if (parts % batchSize == 0) {
+                    inBatch = false;
+                    store.endBatch();
+                }
+            }
+            if (inBatch) {
+                inBatch = false;
+                store.endBatch();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EpiException("Replay interrupted", e);
+        } finally {
+            if (inBatch) {
+                store.abortBatch();
+            }
+            reader.interrupt();
+            pool.shutdownNow();
+        }
+
+        double secs = (System.currentTimeMillis() - start) / 1000.0;
+        log.info(String.format("Replayed %d graphs, %d triples, from %d journal segments in %.1fs (%.0f triples/s)",
+                applied, triples, segments.length, secs, secs > 0 ? triples / secs : (double)triples));
+        return triples;
+    }
+
+    /**
+     * Scan the entry headers to find which complete entries are needed to recreate each graph
+     */
+    protected Map<String, GraphPlan> plan(File[] segments) {
+        final Map<String, GraphPlan> plans = new HashMap<String, GraphPlan>();
+        final Set<Long> seen = new HashSet<Long>();
+        for (File segment : segments) {
+            scanSegment(segment, new EntryHandler() {
+                @Override
+                public void line(ChangeJournal.EntryHeader header, String line) {
+                }
+
+                @Override
+                public void end(ChangeJournal.EntryHeader header) {
+                    if (!seen.add(header.sequence)) return;
+                    GraphPlan plan = plans.get(header.graphname);
+                    if (plan == null) {
+                        plan = new GraphPlan(header.graphname);
+                        plans.put(header.graphname, plan);
+                    }
+                    if (StoreBase.DELETE_ACTION.equals(header.action)) {
+                        plan.reset = true;
+                        plan.sequences.clear();
+                    } else if (StoreBase.UPDATE_ACTION.equals(header.action)) {
+                        plan.reset = true;
+                        plan.sequences.clear();
+                        plan.sequences.add(header.sequence);
+                    } else {
+                        plan.sequences.add(header.sequence);
+                    }
+                }
+            }, true);
+        }
+        for (GraphPlan plan : plans.values()) {
+            plan.remaining = plan.sequences.size();
+        }
+        return plans;
+    }
+
+    /**
+     * Read the entries of a segment, passing the lines of each entry to the handler and
+     * signalling the end of each complete entry. A damaged or truncated end to the segment
+     * stops the scan at the last complete entry.
+     */
+    protected void scanSegment(File segment, EntryHandler handler, boolean warn) {
+        ChangeJournal.EntryHeader current = null;
+        try {
+            BufferedReader in = ChangeJournal.openSegment(segment);
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    ChangeJournal.EntryHeader header = ChangeJournal.parseHeader(line);
+                    if (header != null) {
+                        if (current != null && warn) {
+                            log.warn("Skipping incomplete journal entry " + current.sequence + " in " + segment);
+                        }
+                        current = header;
+                    } else if (current != null) {
+                        if (ChangeJournal.parseEnd(line) == current.sequence) {
+                            handler.end(current);
+                            current = null;
+                        } else {
+                            handler.line(current, line);
+                        }
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            if (warn) {
+                log.warn("Journal segment " + segment + " is damaged, replaying up to its last complete entry: " + e);
+            }
+        }
+        if (current != null && warn) {
+            log.warn("Skipping incomplete journal entry " + current.sequence + " at the end of " + segment);
+        }
+    }
+
+    /**
+     * Start a thread which reads the needed entry bodies and hands them to the worker pool
+     * for parsing. The thread always finishes by handing over an end marker, which carries
+     * any error that stopped it.
+     */
+    protected Thread startReader(final File[] segments, final Map<String, GraphPlan> plans, final Set<Long> needed,
+            final ExecutorService pool, final BlockingQueue<ReplayGraph> ready, final Semaphore inFlight) {
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ReplayGraph end = new ReplayGraph(null);
+                end.end = true;
+                try {
+                    for (GraphPlan plan : plans.values()) {
+                        if (plan.sequences.isEmpty()) {
+                            inFlight.acquire();
+                            ready.put( new ReplayGraph(plan) );
+                        }
+                    }
+                    BodyReader bodies = new BodyReader(plans, needed, pool, ready, inFlight);
+                    for (File segment : segments) {
+                        scanSegment(segment, bodies, false);
+                        bodies.checkInterrupted();
+                    }
+                    bodies.flushAll(true);
+                    pool.shutdown();
+                    pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // Replay has been abandoned
+                } catch (Throwable e) {
+                    log.error("Failed to read journal", e);
+                    end.error = e;
+                } finally {
+                    try {
+                        ready.put(end);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }, "journal-replay-reader");
+        reader.setDaemon(true);
+        reader.start();
+        return reader;
+    }
+
+    /**
+     * Receives the lines of each journal entry read from a segment
+     */
+    protected interface EntryHandler {
+        public void line(ChangeJournal.EntryHeader header, String line);
+
+        public void end(ChangeJournal.EntryHeader header);
+    }
+
+    /**
+     * Collects the bodies of the needed entries for each graph and hands them to the
+     * worker pool when the graph is complete, or early if too much data is being held.
+     */
+    protected class BodyReader implements EntryHandler {
+        protected Map<String, GraphPlan> plans;
+        protected Set<Long> needed;
+        protected ExecutorService pool;
+        protected BlockingQueue<ReplayGraph> ready;
+        protected Semaphore inFlight;
+
+        protected Map<String, List<byte[]>> pending = new HashMap<String, List<byte[]>>();
+        protected long pendingBytes = 0;
+        protected ByteArrayOutputStream body;
+        protected InterruptedException interrupted;
+
+        public BodyReader(Map<String, GraphPlan> plans, Set<Long> needed,
+                ExecutorService pool, BlockingQueue<ReplayGraph> ready, Semaphore inFlight) {
+            this.plans = plans;
+            this.needed = needed;
+            this.pool = pool;
+            this.ready = ready;
+            this.inFlight = inFlight;
+        }
+
+        @Override
+        public void line(ChangeJournal.EntryHeader header, String line) {
+            if (!needed.contains(header.sequence)) return;
+            if (body == null) {
+                body = new ByteArrayOutputStream();
+            }
+            byte[] bytes = line.getBytes(ChangeJournal.UTF8);
+            body.write(bytes, 0, bytes.length);
+            body.write('\n');
+        }
+
+        @Override
+        public void end(ChangeJournal.EntryHeader header) {
+            // Removing the sequence means a duplicate copy of the entry is ignored
+            if (!needed.remove(header.sequence) || interrupted != null) {
+                body = null;
+                return;
+            }
+            GraphPlan plan = plans.get(header.graphname);
+            List<byte[]> graphBodies = pending.get(plan.graphname);
+            if (graphBodies == null) {
+                graphBodies = new ArrayList<byte[]>();
+                pending.put(plan.graphname, graphBodies);
+            }
+            if (body != null) {
+                graphBodies.add( body.toByteArray() );
+                pendingBytes += body.size();
+                body = null;
+            }
+            plan.remaining--;
+            try {
+                if (plan.remaining == 0) {
+                    flush(plan, true);
+                } else if (pendingBytes > maxPending) {
+                    flushAll(false);
+                }
+            } catch (InterruptedException e) {
+                interrupted = e;
+            }
+        }
+
+        protected void flush(GraphPlan plan, boolean last) throws InterruptedException {
+            List<byte[]> graphBodies = pending.remove(plan.graphname);
+            if (graphBodies == null) {
+                if (!last || plan.parts == 0) return;
+                // Earlier parts have been handed over, an empty last part completes the graph
+                graphBodies = new ArrayList<byte[]>();
+            }
+            for (byte[] b : graphBodies) {
+                pendingBytes -= b.length;
+            }
+            plan.parts++;
+            inFlight.acquire();
+            pool.execute( new ParseTask(plan, graphBodies, last, ready) );
+        }
+
+        protected void flushAll(boolean last) throws InterruptedException {
+            if (last) {
+                // Finish the graphs whose remaining entries were not found
+                for (GraphPlan plan : plans.values()) {
+                    if (plan.remaining > 0) {
+                        flush(plan, true);
+                    }
+                }
+            } else {
+                for (String graphname : new ArrayList<String>(pending.keySet())) {
+                    flush(plans.get(graphname), false);
+                }
+            }
+        }
+
+        protected void checkInterrupted() throws InterruptedException {
+            if (interrupted != null) {
+                throw interrupted;
+            }
+        }
+    }
+
+    /**
+     * The journal entries needed to recreate one graph
+     */
+    protected static class GraphPlan {
+        protected String graphname;
+        protected boolean reset = false;
+        protected List<Long> sequences = new ArrayList<Long>();
+        protected int remaining;
+        // Number of parts handed over for parsing, set before the last part is handed over
+        protected int parts = 0;
+
+        public GraphPlan(String graphname) {
+            this.graphname = graphname;
+        }
+    }
+
+    /**
+     * Parsed data for a graph, or for part of it if last is false
+     */
+    protected static class ReplayGraph {
+        protected GraphPlan plan;
+        protected boolean last = true;
+        protected boolean end = false;
+        protected Model data;
+        protected Throwable error;
+
+        public ReplayGraph(GraphPlan plan) {
+            this.plan = plan;
+        }
+    }
+
+    protected static class ParseTask implements Runnable {
+        protected ReplayGraph result;
+        protected List<byte[]> bodies;
+        protected BlockingQueue<ReplayGraph> ready;
+
+        public ParseTask(GraphPlan plan, List<byte[]> bodies, boolean last, BlockingQueue<ReplayGraph> ready) {
+            this.result = new ReplayGraph(plan);
+            this.result.last = last;
+            this.bodies = bodies;
+            this.ready = ready;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Model data = ModelFactory.createDefaultModel();
+                StreamRDFFanOut sink = new StreamRDFFanOut().add( StreamRDFLib.graph(data.getGraph()) );
+                for (byte[] body : bodies) {
+                    RDFDataMgr.parse(sink, new ByteArrayInputStream(body), Lang.NQUADS);
+                }
+                result.data = data;
+            } catch (Throwable e) {
+                result.error = e;
+            }
+            try {
+                ready.put(result);
+            } catch (InterruptedException e) {
+                // Replay has been abandoned
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: JournalReplay logDir tdbLocation [threads]");
+            System.exit(1);
+        }
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(TDBStore.LOCATION_PARAM, args[1]);
+        TDBStore store = new TDBStore();
+        store.init(config, null);
+        JournalReplay replay = new JournalReplay(store, args[0]);
+        if (args.length > 2) {
+            replay.setThreads( Integer.parseInt(args[2]) );
+        }
+        replay.replay();
+        store.shutdown();
+    }
+}
@@ -0,0 +1,308 @@
+/******************************************************************
+ * File:        MemSnapshot.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.stores;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.epimorphics.util.EpiException;
+import com.hp.hpl.jena.datatypes.RDFDatatype;
+import com.hp.hpl.jena.datatypes.TypeMapper;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.query.Dataset;
+import com.hp.hpl.jena.rdf.model.AnonId;
+import com.hp.hpl.jena.rdf.model.Model;
+
+/**
+ * Binary, dictionary encoded, snapshot of the named graphs in a dataset.
+ * <p>
+ * The file holds a node table followed by each graph as its name, prefixes and
+ * triples, with each triple written as three node table indexes. Snapshots are
+ * read through a memory mapped window onto the file so no text parsing is
+ * needed at startup.
+ * </p>
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class MemSnapshot {
+    static Logger log = LoggerFactory.getLogger(MemSnapshot.class);
+
+    protected static final int MAGIC = 0x45504d53;
+    protected static final int VERSION = 1;
+
+    protected static final byte URI_NODE = 1;
+    protected static final byte BLANK_NODE = 2;
+    protected static final byte LITERAL_NODE = 3;
+
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Receives the graphs read from a snapshot
+     */
+    public interface GraphLoader {
+        /**
+         * Start loading a named graph, returns the graph the triples should be added to
+         */
+        public Graph startGraph(String graphname, Map<String, String> prefixes);
+    }
+
+    /**
+     * Write all the named graphs of the dataset to a snapshot file. The snapshot
+     * is written to a temporary file which replaces the target once complete.
+     */
+    public static void write(Dataset dataset, File file) {
+        long start = System.currentTimeMillis();
+        List<String> names = new ArrayList<String>();
+        for (Iterator<String> i = dataset.listNames(); i.hasNext();) {
+            names.add( i.next() );
+        }
+
+        Map<Node, Integer> ids = new HashMap<Node, Integer>();
+        List<Node> nodes = new ArrayList<Node>();
+        long triples = 0;
+        for (String name : names) {
+            Graph graph = dataset.getNamedModel(name).getGraph();
+            for (Iterator<Triple> i = graph.find(Node.ANY, Node.ANY, Node.ANY); i.hasNext();) {
+                Triple t = i.next();
+                intern(t.getSubject(), ids, nodes);
+                intern(t.getPredicate(), ids, nodes);
+                intern(t.getObject(), ids, nodes);
+                triples++;
+            }
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream(temp), 64 * 1024 ) );
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(nodes.size());
+                for (Node node : nodes) {
+                    writeNode(out, node);
+                }
+                out.writeInt(names.size());
+                for (String name : names) {
+                    Model model = dataset.getNamedModel(name);
+                    writeString(out, name);
+                    Map<String, String> prefixes = model.getNsPrefixMap();
+                    out.writeInt(prefixes.size());
+                    for (Map.Entry<String, String> prefix : prefixes.entrySet()) {
+                        writeString(out, prefix.getKey());
+                        writeString(out, prefix.getValue());
+                    }
+                    Graph graph = model.getGraph();
+                    out.writeInt(graph.size());
+                    for (Iterator<Triple> i = graph.find(Node.ANY, Node.ANY, Node.ANY); i.hasNext();) {
+                        Triple t = i.next();
+                        out.writeInt( ids.get(t.getSubject()) );
+                        out.writeInt( ids.get(t.getPredicate()) );
+                        out.writeInt( ids.get(t.getObject()) );
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                if (!file.delete() || !temp.renameTo(file)) {
+                    throw new EpiException("Failed to replace snapshot file " + file);
+                }
+            }
+        } catch (IOException e) {
+            throw new EpiException("Failed to write snapshot " + file, e);
+        }
+        log.info(String.format("Wrote snapshot of %d graphs, %d triples, to %s in %dms",
+                names.size(), triples, file, System.currentTimeMillis() - start));
+    }
+
+    /**
+     * Read a snapshot file, passing each graph to the loader
+     */
+    public static void read(File file, GraphLoader loader) {
+        long start = System.currentTimeMillis();
+        long triples = 0;
+        try {
+            MappedInput in = new MappedInput(file);
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new EpiException("Not a store snapshot: " + file);
+                }
+                int version = in.readInt();
+                if (version != VERSION) {
+                    throw new EpiException("Unsupported snapshot version " + version + " in " + file);
+                }
+                Node[] nodes = new Node[ in.readInt() ];
+                for (int i = 0; i < nodes.length; i++) {
+                    nodes[i] = readNode(in);
+                }
+                int graphs = in.readInt();
+                for (int g = 0; g < graphs; g++) {
+                    String name = in.readString();
+                    int prefixCount = in.readInt();
+                    Map<String, String> prefixes = new HashMap<String, String>();
+                    for (int p = 0; p < prefixCount; p++) {
+                        String prefix = in.readString();
+                        prefixes.put(prefix, in.readString());
+                    }
+                    Graph graph = loader.startGraph(name, prefixes);
+                    int size = in.readInt();
+                    for (int t = 0; t < size; t++) {
+                        graph.add( Triple.create(nodes[in.readInt()], nodes[in.readInt()], nodes[in.readInt()]) );
+                    }
+                    triples += size;
+                }
+                log.info(String.format("Loaded snapshot of %d graphs, %d triples, from %s in %dms",
+                        graphs, triples, file, System.currentTimeMillis() - start));
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new EpiException("Failed to read snapshot " + file, e);
+        }
+    }
+
+    private static void intern(Node node, Map<Node, Integer> ids, List<Node> nodes) {
+        if (!ids.containsKey(node)) {
+            ids.put(node, nodes.size());
+            nodes.add(node);
+        }
+    }
+
+    protected static void writeNode(DataOutputStream out, Node node) throws IOException {
+        if (node.isURI()) {
+            out.writeByte(URI_NODE);
+            writeString(out, node.getURI());
+        } else if (node.isBlank()) {
+            out.writeByte(BLANK_NODE);
+            writeString(out, node.getBlankNodeLabel());
+        } else if (node.isLiteral()) {
+            out.writeByte(LITERAL_NODE);
+            writeString(out, node.getLiteralLexicalForm());
+            writeString(out, node.getLiteralLanguage());
+            String dt = node.getLiteralDatatypeURI();
+            writeString(out, dt == null ? "" : dt);
+        } else {
+            throw new EpiException("Cannot snapshot node: " + node);
+        }
+    }
+
+    protected static Node readNode(MappedInput in) throws IOException {
+        byte kind = in.readByte();
+        switch (kind) {
+        case URI_NODE:
+            return NodeFactory.createURI( in.readString() );
+        case BLANK_NODE:
+            return NodeFactory.createAnon( AnonId.create(in.readString()) );
+        case LITERAL_NODE:
+            String lex = in.readString();
+            String lang = in.readString();
+            String dt = in.readString();
+            RDFDatatype dtype = dt.isEmpty() ? null : TypeMapper.getInstance().getSafeTypeByName(dt);
+            return NodeFactory.createLiteral(lex, lang, dtype);
+        default:
+            throw new EpiException("Corrupt snapshot, unknown node kind " + kind);
+        }
+    }
+
+    protected static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a file through a sliding memory mapped window, so files larger
+     * than a single mapped buffer can be read.
+     */
+    protected static class MappedInput {
+        protected static final long WINDOW = 64L * 1024 * 1024;
+
+        protected RandomAccessFile file;
+        protected FileChannel channel;
+        protected long length;
+        protected long windowStart = 0;
+        protected MappedByteBuffer buffer;
+
+        public MappedInput(File f) throws IOException {
+            file = new RandomAccessFile(f, "r");
+            channel = file.getChannel();
+            length = channel.size();
+            map(0, 0);
+        }
+
+        protected void map(long position, int needed) throws IOException {
+            long size = Math.min(Math.max(WINDOW, needed), length - position);
+            if (size < needed) {
+                throw new EpiException("Truncated snapshot file");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            windowStart = position;
+        }
+
+        protected void ensure(int needed) throws IOException {
+            if (buffer.remaining() < needed) {
+                map(windowStart + buffer.position(), needed);
+            }
+        }
+
+        public byte readByte() throws IOException {
+            ensure(1);
+            return buffer.get();
+        }
+
+        public int readInt() throws IOException {
+            ensure(4);
+            return buffer.getInt();
+        }
+
+        public String readString() throws IOException {
+            int len = readInt();
+            ensure(len);
+            byte[] bytes = new byte[len];
+            buffer.get(bytes);
+            return new String(bytes, UTF8);
+        }
+
+        public void close() throws IOException {
+            channel.close();
+            file.close();
+        }
+    }
+}
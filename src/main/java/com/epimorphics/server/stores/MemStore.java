@@ -21,6 +21,7 @@
 
 package com.epimorphics.server.stores;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
@@ -31,37 +32,87 @@ import javax.servlet.ServletContext;
 
 import org.apache.jena.riot.Lang;
 import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.system.StreamRDFLib;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.epimorphics.server.core.ServiceConfig;
 import com.epimorphics.util.EpiException;
 import com.hp.hpl.jena.graph.Graph;
 import com.hp.hpl.jena.graph.compose.MultiUnion;
 import com.hp.hpl.jena.query.Dataset;
 import com.hp.hpl.jena.query.DatasetFactory;
+import com.hp.hpl.jena.query.ReadWrite;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
 
 /**
  * Store implementation in memory, used for test harnesses.
+ * <p>
+ * By default the union graph is a MultiUnion over the named graphs. Setting
+ * <code>union=indexed</code> instead maintains a single merged, reference counted,
+ * index of all the named graphs so that union queries do not slow down as the
+ * number of graphs grows. In that mode the named graphs must only be changed via
+ * the store API.
+ * </p>
+ * <p>
+ * Setting <code>snapshot</code> to a file name saves a binary snapshot of the store
+ * to that file on shutdown, or on demand, and reloads it at startup.
+ * </p>
+ * <p>
+ * Setting <code>snapshotReads=true</code> gives each reader a consistent immutable
+ * version of the store so reads never wait for a write, see {@link SnapshotDatasetGraph}.
+ * Changes are only visible to other threads once the write completes, and an
+ * aborted write is rolled back. Cannot be combined with <code>union=indexed</code>.
+ * </p>
  *
  * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
  */
 public class MemStore extends StoreBase {
     static final Logger log = LoggerFactory.getLogger( MemStore.class );
 
+    public static final String UNION_PARAM = "union";
+    public static final String UNION_INDEXED = "indexed";
+    public static final String SNAPSHOT_PARAM = "snapshot";
+    public static final String SNAPSHOT_READS_PARAM = "snapshotReads";
+
     protected Model unionModel;
     protected MultiUnion unionGraph;
+    protected IndexedUnionGraph indexedUnion;
+    protected File snapshotFile;
+    protected SnapshotDatasetGraph snapshotDataset;
     
     @Override
     public void init(Map<String, String> config, ServletContext context) {
         super.init(config, context);
-        dataset = DatasetFactory.createMem();
-        
-        Model dflt = ModelFactory.createDefaultModel();
-        unionGraph = new MultiUnion( new Graph[]{dflt.getGraph()} );
-        unionModel = ModelFactory.createModelForGraph(unionGraph);
-        dataset.setDefaultModel(unionModel);
+        boolean indexed = UNION_INDEXED.equals( config.get(UNION_PARAM) );
+        if ("true".equalsIgnoreCase( config.get(SNAPSHOT_READS_PARAM) )) {
+            if (indexed) {
+                throw new EpiException("MemStore snapshot reads cannot be used with an indexed union");
+            }
+            snapshotDataset = new SnapshotDatasetGraph();
+            dataset = DatasetFactory.create(snapshotDataset);
+            unionModel = ModelFactory.createModelForGraph( snapshotDataset.getDefaultGraph() );
+        } else {
+            dataset = DatasetFactory.createMem();
+            if (indexed) {
+                indexedUnion = new IndexedUnionGraph();
+                unionModel = ModelFactory.createModelForGraph(indexedUnion);
+            } else {
+                Model dflt = ModelFactory.createDefaultModel();
+                unionGraph = new MultiUnion( new Graph[]{dflt.getGraph()} );
+                unionModel = ModelFactory.createModelForGraph(unionGraph);
+            }
+            dataset.setDefaultModel(unionModel);
+        }
+
+        String snapshot = config.get(SNAPSHOT_PARAM);
+        if (snapshot != null) {
+            snapshotFile = new File( ServiceConfig.get().expandFileLocation(snapshot) );
+            if (snapshotFile.exists()) {
+                loadSnapshot();
+            }
+        }
         
         installJenaText();
         installQueryEndpoint(context);
@@ -71,19 +122,35 @@ public class MemStore extends StoreBase {
     protected
     void doAddGraph(String graphname, Model graph) {
         lockWrite();
+        long start = writeTimer.start();
         try {
-            Model m = getSafeNamedModel(graphname);
+            Model m = targetModel(graphname);
             m.add(graph);
             m.setNsPrefixes(graph);
-            
-            unionGraph.addGraph( m.getGraph() );
             unionModel.setNsPrefixes( graph );
         } finally {
+            writeTimer.stop(start);
             unlock();
         }
     }
 
+    @Override
+    protected Model targetModel(String graphname) {
+        Model m = getSafeNamedModel(graphname);
+        if (snapshotDataset != null) {
+            return m;
+        }
+        if (indexedUnion != null) {
+            return ModelFactory.createModelForGraph( indexedUnion.track(m.getGraph()) );
+        }
+        unionGraph.addGraph( m.getGraph() );
+        return m;
+    }
+
     protected Model getSafeNamedModel(String graphname) {
+        if (snapshotDataset != null) {
+            return ModelFactory.createModelForGraph( snapshotDataset.writableGraph(graphname) );
+        }
         Model m = dataset.getNamedModel(graphname);
         if (m == null) {
             m = ModelFactory.createDefaultModel();
@@ -97,11 +164,22 @@ public class MemStore extends StoreBase {
     protected
     void doDeleteGraph(String graphname) {
         lockWrite();
+        long start = writeTimer.start();
         try {
-            unionGraph.removeGraph( dataset.getNamedModel(graphname).getGraph() );
+            if (snapshotDataset != null) {
+                snapshotDataset.dropGraph(graphname);
+                return;
+            }
+            Graph g = dataset.getNamedModel(graphname).getGraph();
+            if (indexedUnion != null) {
+                indexedUnion.releaseAll(g);
+            } else {
+                unionGraph.removeGraph(g);
+            }
 
             dataset.removeNamedModel(graphname);
         } finally {
+            writeTimer.stop(start);
             unlock();
         }
     }
@@ -118,18 +196,103 @@ public class MemStore extends StoreBase {
         if (lang == null) {
             throw new EpiException("Cannot read MIME type: " + mimeType);
         }
+        boolean ok = false;
         lockWrite();
+        long start = writeTimer.start();
         try {
-            getSafeNamedModel(graphname).read(input, graphname, lang.getName());
+            parse(input, graphname, lang, StreamRDFLib.graph(targetModel(graphname).getGraph()));
             try { input.close(); } catch (IOException eio) {}
+            ok = true;
         } catch (Exception e) {
-            abort();
             throw new EpiException(e);
+        } finally {
+            writeTimer.stop(start);
+            endWrite(ok);
+        }
+    }
+
+    @Override
+    public boolean hasIsolatedReads() {
+        return snapshotDataset != null || super.hasIsolatedReads();
+    }
+
+    @Override
+    protected void beginTransaction(ReadWrite mode) {
+        if (snapshotDataset == null) {
+            super.beginTransaction(mode);
+        } else if (mode == ReadWrite.READ) {
+            snapshotDataset.beginRead();
+        } else {
+            snapshotDataset.beginWrite();
+        }
+    }
+
+    @Override
+    protected void endTransaction(ReadWrite mode, boolean commit) {
+        if (snapshotDataset == null) {
+            super.endTransaction(mode, commit);
+        } else if (mode == ReadWrite.READ) {
+            snapshotDataset.endRead();
+        } else {
+            snapshotDataset.endWrite(commit);
+        }
+    }
+
+    protected void loadSnapshot() {
+        lockWrite();
+        try {
+            MemSnapshot.read(snapshotFile, new MemSnapshot.GraphLoader() {
+                @Override
+                public Graph startGraph(String graphname, Map<String, String> prefixes) {
+                    Model m = targetModel(graphname);
+                    m.setNsPrefixes(prefixes);
+                    unionModel.setNsPrefixes(prefixes);
+                    return m.getGraph();
+                }
+            });
         } finally {
             unlock();
         }
     }
 
+    /**
+     * Write a snapshot of the current store state to the configured snapshot file
+     */
+    public void snapshot() {
+        if (snapshotFile == null) {
+            throw new EpiException("No snapshot file configured for store");
+        }
+        snapshot(snapshotFile);
+    }
+
+    /**
+     * Write a snapshot of the current store state to the given file
+     */
+    public void snapshot(File file) {
+        lock();
+        try {
+            MemSnapshot.write(dataset, file);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * The catalog is kept next to the snapshot, if there is one
+     */
+    @Override
+    protected File catalogFile() {
+        return snapshotFile == null ? null : new File(snapshotFile.getPath() + ".catalog");
+    }
+
+    @Override
+    public void shutdown() {
+        if (snapshotFile != null) {
+            snapshot(snapshotFile);
+        }
+        super.shutdown();
+    }
+
     @Override
     public Model getUnionModel() {
         if (unionModel == null) {
@@ -0,0 +1,75 @@
+/******************************************************************
+ * File:        NodeDictionary.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.stores;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.hp.hpl.jena.graph.Node;
+
+/**
+ * Maps each distinct node to a small integer id, shared by all the graphs
+ * of a {@link CompactStore}. Ids are never reclaimed.
+ * <p>
+ * Not thread safe, interning is only done under the store write lock.
+ * </p>
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class NodeDictionary {
+    /** Returned by lookup for a node with no id */
+    public static final int NONE = -1;
+
+    protected Map<Node, Integer> ids = new HashMap<Node, Integer>();
+    protected List<Node> nodes = new ArrayList<Node>();
+
+    /**
+     * Return the id for a node, allocating one if needed
+     */
+    public int intern(Node node) {
+        Integer id = ids.get(node);
+        if (id == null) {
+            id = nodes.size();
+            ids.put(node, id);
+            nodes.add(node);
+        }
+        return id;
+    }
+
+    /**
+     * Return the id for a node or NONE if it has never been interned
+     */
+    public int lookup(Node node) {
+        Integer id = ids.get(node);
+        return id == null ? NONE : id;
+    }
+
+    public Node get(int id) {
+        return nodes.get(id);
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+}
@@ -0,0 +1,259 @@
+/******************************************************************
+ * File:        ParallelLineParser.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.stores;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RiotReader;
+import org.apache.jena.riot.lang.LabelToNode;
+import org.apache.jena.riot.lang.LangRIOT;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+
+import com.epimorphics.util.EpiException;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.sparql.core.Quad;
+
+/**
+ * Parses N-Triples or N-Quads using several threads. The input is split into
+ * line aligned chunks by a reader thread, the chunks are parsed on a worker pool
+ * and the results are passed, in the original order, to the destination stream
+ * on the calling thread. So the destination need not be thread safe and can be
+ * a graph within the caller's write transaction.
+ * <p>
+ * Chunks are parsed with blank node labels kept as given and the labels are mapped
+ * to fresh blank nodes on the calling thread, so a label used in several chunks is
+ * still a single blank node. Line numbers in parse errors are relative to the chunk.
+ * </p>
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ParallelLineParser {
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    protected ExecutorService pool;
+    protected int threads;
+    protected int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    // Marks the end of the chunk sequence
+    protected static final Future<Chunk> END = new FutureTask<Chunk>(new Callable<Chunk>() {
+        @Override
+        public Chunk call() {
+            return null;
+        }
+    });
+
+    public ParallelLineParser(ExecutorService pool, int threads) {
+        this.pool = pool;
+        this.threads = Math.max(1, threads);
+    }
+
+    public ParallelLineParser setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(1024, chunkSize);
+        return this;
+    }
+
+    /**
+     * True if the language is line based so can be parsed in parallel
+     */
+    public static boolean supports(Lang lang) {
+        return Lang.NTRIPLES.equals(lang) || Lang.NQUADS.equals(lang);
+    }
+
+    public void parse(final InputStream input, final Lang lang, StreamRDF dest) {
+        final BlockingQueue<Future<Chunk>> pending = new ArrayBlockingQueue<Future<Chunk>>(threads * 2);
+        final Throwable[] readError = new Throwable[1];
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    split(input, lang, pending);
+                } catch (InterruptedException e) {
+                    // Parse abandoned by the consumer
+                    return;
+                } catch (Throwable t) {
+                    readError[0] = t;
+                }
+                try {
+                    pending.put(END);
+                } catch (InterruptedException e) {
+                    // Parse abandoned by the consumer
+                }
+            }
+        }, "parallel-parse-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        Map<String, Node> bnodes = new HashMap<String, Node>();
+        boolean ok = false;
+        dest.start();
+        try {
+            while (true) {
+                Future<Chunk> next = pending.take();
+                if (next == END) break;
+                Chunk chunk = next.get();
+                for (Triple t : chunk.triples) {
+                    dest.triple( Triple.create(remap(t.getSubject(), bnodes), t.getPredicate(), remap(t.getObject(), bnodes)) );
+                }
+                for (Quad q : chunk.quads) {
+                    dest.quad( new Quad(q.getGraph(), remap(q.getSubject(), bnodes), q.getPredicate(), remap(q.getObject(), bnodes)) );
+                }
+            }
+            reader.join();
+            if (readError[0] != null) {
+                throw new EpiException("Failed to read input", readError[0]);
+            }
+            ok = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EpiException("Interrupted during parse", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new EpiException(cause);
+        } finally {
+            if (!ok) {
+                reader.interrupt();
+                for (Future<Chunk> f : pending) {
+                    f.cancel(true);
+                }
+            }
+        }
+        dest.finish();
+    }
+
+    protected Node remap(Node n, Map<String, Node> bnodes) {
+        if (!n.isBlank()) {
+            return n;
+        }
+        String label = n.getBlankNodeLabel();
+        Node mapped = bnodes.get(label);
+        if (mapped == null) {
+            mapped = NodeFactory.createAnon();
+            bnodes.put(label, mapped);
+        }
+        return mapped;
+    }
+
+    /**
+     * Split the input into line aligned chunks and queue them for parsing
+     */
+    protected void split(InputStream input, Lang lang, BlockingQueue<Future<Chunk>> pending) throws IOException, InterruptedException {
+        try {
+            byte[] carry = new byte[0];
+            boolean eof = false;
+            while (!eof) {
+                byte[] buffer = new byte[carry.length + chunkSize];
+                System.arraycopy(carry, 0, buffer, 0, carry.length);
+                int len = carry.length;
+                while (len < buffer.length) {
+                    int n = input.read(buffer, len, buffer.length - len);
+                    if (n < 0) {
+                        eof = true;
+                        break;
+                    }
+                    len += n;
+                }
+                int end = len;
+                if (!eof) {
+                    end = lastNewline(buffer, len);
+                    if (end < 0) {
+                        // Line longer than a chunk, keep reading
+                        carry = new byte[len];
+                        System.arraycopy(buffer, 0, carry, 0, len);
+                        continue;
+                    }
+                }
+                carry = new byte[len - end];
+                System.arraycopy(buffer, end, carry, 0, len - end);
+                if (end > 0) {
+                    pending.put( pool.submit( new ParseTask(buffer, end, lang) ) );
+                }
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    private static int lastNewline(byte[] buffer, int len) {
+        for (int i = len - 1; i >= 0; i--) {
+            if (buffer[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    protected static class Chunk extends StreamRDFBase {
+        protected List<Triple> triples = new ArrayList<Triple>();
+        protected List<Quad> quads = new ArrayList<Quad>();
+
+        @Override
+        public void triple(Triple triple) {
+            triples.add(triple);
+        }
+
+        @Override
+        public void quad(Quad quad) {
+            quads.add(quad);
+        }
+    }
+
+    protected static class ParseTask implements Callable<Chunk> {
+        protected byte[] data;
+        protected int length;
+        protected Lang lang;
+
+        public ParseTask(byte[] data, int length, Lang lang) {
+            this.data = data;
+            this.length = length;
+            this.lang = lang;
+        }
+
+        @Override
+        public Chunk call() {
+            Chunk chunk = new Chunk();
+            LangRIOT parser = RiotReader.createParser(new ByteArrayInputStream(data, 0, length), lang, null, chunk);
+            parser.getProfile().setLabelToNode( LabelToNode.createUseLabelAsGiven() );
+            parser.parse();
+            return chunk;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/******************************************************************
+ * File:        QueryCache.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.stores;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.query.ResultSetFactory;
+import com.hp.hpl.jena.query.ResultSetRewindable;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.sparql.core.Var;
+import com.hp.hpl.jena.sparql.engine.ResultSetStream;
+import com.hp.hpl.jena.sparql.engine.binding.Binding;
+import com.hp.hpl.jena.sparql.engine.iterator.QueryIterPlainWrapper;
+
+/**
+ * Cache of SPARQL select results for a store, bounded by the estimated size
+ * of the cached results and discarded whenever the store version changes.
+ * Least recently used results are evicted first. Each caller gets its own
+ * result set over the shared, immutable, rows.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class QueryCache {
+    // Rough per object overheads used in estimating result sizes
+    protected static final int ROW_OVERHEAD = 48;
+    protected static final int BINDING_OVERHEAD = 32;
+    protected static final int NODE_OVERHEAD = 40;
+
+    protected final long maxBytes;
+    protected long bytes = 0;
+    protected long version = -1;
+    protected final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /**
+     * @param maxBytes the maximum estimated size of the cached results
+     */
+    public QueryCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Return the cached results of the query at the given store version, or null.
+     */
+    public synchronized ResultSetRewindable get(String query, long version) {
+        checkVersion(version);
+        Entry entry = entries.get(query);
+        return entry == null ? null : entry.results();
+    }
+
+    /**
+     * Consume the results of the query, cache them if they fit, and return
+     * a copy for the caller.
+     */
+    public ResultSetRewindable put(String query, long version, ResultSet results) {
+        Entry entry = new Entry(results);
+        if (entry.bytes <= maxBytes) {
+            synchronized (this) {
+                checkVersion(version);
+                if (version == this.version) {
+                    Entry old = entries.put(query, entry);
+                    if (old != null) {
+                        bytes -= old.bytes;
+                    }
+                    bytes += entry.bytes;
+                    evict();
+                }
+            }
+        }
+        return entry.results();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Return the estimated size, in bytes, of the cached results
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    // Results from an older version are stale, results for an older version must not be cached
+    protected void checkVersion(long version) {
+        if (version > this.version) {
+            clear();
+            this.version = version;
+        }
+    }
+
+    protected void evict() {
+        Iterator<Map.Entry<String, Entry>> i = entries.entrySet().iterator();
+        while (bytes > maxBytes && i.hasNext()) {
+            bytes -= i.next().getValue().bytes;
+            i.remove();
+        }
+    }
+
+    protected static long estimate(Node n) {
+        if (n == null) {
+            return 0;
+        } else if (n.isURI()) {
+            return NODE_OVERHEAD + 2 * n.getURI().length();
+        } else if (n.isLiteral()) {
+            String lang = n.getLiteralLanguage();
+            return 2 * NODE_OVERHEAD + 2 * (n.getLiteralLexicalForm().length() + (lang == null ? 0 : lang.length()));
+        } else {
+            return 2 * NODE_OVERHEAD;
+        }
+    }
+
+    /**
+     * The materialized rows of a result set
+     */
+    protected static class Entry {
+        protected final List<String> vars;
+        protected final List<Binding> rows = new ArrayList<Binding>();
+        protected final Model model;
+        protected long bytes = 0;
+
+        public Entry(ResultSet results) {
+            vars = results.getResultVars();
+            model = results.getResourceModel();
+            while (results.hasNext()) {
+                Binding row = results.nextBinding();
+                rows.add(row);
+                bytes += ROW_OVERHEAD;
+                for (Iterator<Var> i = row.vars(); i.hasNext();) {
+                    bytes += BINDING_OVERHEAD + estimate( row.get(i.next()) );
+                }
+            }
+        }
+
+        public ResultSetRewindable results() {
+            return ResultSetFactory.makeRewindable( new ResultSetStream(vars, model, new QueryIterPlainWrapper(rows.iterator())) );
+        }
+    }
+}
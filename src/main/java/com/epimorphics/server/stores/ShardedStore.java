@@ -0,0 +1,714 @@
+/******************************************************************
+ * File:        ShardedStore.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.stores;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.servlet.ServletContext;
+
+import org.apache.jena.fuseki.server.DatasetRef;
+import org.apache.jena.fuseki.server.DatasetRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.epimorphics.server.core.Indexer;
+import com.epimorphics.server.core.Mutator;
+import com.epimorphics.server.core.Service;
+import com.epimorphics.server.core.ServiceBase;
+import com.epimorphics.server.core.Shutdown;
+import com.epimorphics.server.core.Store;
+import com.epimorphics.server.core.StoreListener;
+import com.epimorphics.util.EpiException;
+import com.epimorphics.util.FileUtil;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.graph.impl.GraphBase;
+import com.hp.hpl.jena.query.Dataset;
+import com.hp.hpl.jena.query.DatasetFactory;
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.query.QueryFactory;
+import com.hp.hpl.jena.query.ResultSetFactory;
+import com.hp.hpl.jena.query.ResultSetRewindable;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.shared.AddDeniedException;
+import com.hp.hpl.jena.shared.DeleteDeniedException;
+import com.hp.hpl.jena.sparql.core.DatasetGraphMap;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.Filter;
+import com.hp.hpl.jena.util.iterator.NullIterator;
+import com.hp.hpl.jena.util.iterator.WrappedIterator;
+
+/**
+ * Store which partitions its named graphs across several TDB stores, so that
+ * writes to graphs in different shards can run in parallel.
+ * <p>
+ * Set "location" to the directory holding the shards and "shards" to the number
+ * of shards, each shard is a {@link TDBStore} in a "shard-n" subdirectory. A graph goes
+ * to the shard given by the longest matching prefix in "shardPrefixes", a list of
+ * <code>prefix=n</code> entries separated by ";", or otherwise to a shard chosen by a hash
+ * of the graph name. Changing the number of shards or the prefixes of an existing store
+ * will lose track of graphs.
+ * </p>
+ * <p>
+ * Other parameters, including "indexer" and "mutator", are passed on to each shard.
+ * Each shard has its own change journal in a subdirectory of "log", if set. Indexers
+ * are shared between the shards so must cope with concurrent updates.
+ * </p>
+ * <p>
+ * The dataset and union model are read only views. A query run within {@link #lock()},
+ * as {@link #select(String)} does, fans out once: each shard is read in its own read
+ * transaction for the whole query and the union streams each shard's matches in turn.
+ * Triples are only checked for duplicates against earlier shards when more than one
+ * shard has a match for the pattern. Reads made without the lock, such as those from the
+ * query endpoint, copy the matches from every shard in parallel, on a pool of "queryThreads"
+ * threads (defaults to the number of shards). Either way a query may see a change
+ * committed to one shard but not yet to another. Batches span all the shards but are only atomic
+ * within each shard. Set "queryCache=n" to cache select results up to an estimated n MB.
+ * </p>
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ShardedStore extends ServiceBase implements Store, Service, Shutdown {
+    static Logger log = LoggerFactory.getLogger(ShardedStore.class);
+
+    public static final String LOCATION_PARAM = "location";
+    public static final String SHARDS_PARAM = "shards";
+    public static final String SHARD_PREFIXES_PARAM = "shardPrefixes";
+    public static final String QUERY_THREADS_PARAM = "queryThreads";
+
+    protected List<TDBStore> shards = new ArrayList<TDBStore>();
+    protected Map<String, Integer> prefixes = new LinkedHashMap<String, Integer>();
+    protected ExecutorService queryPool;
+    protected Graph unionGraph;
+    protected Model unionModel;
+    protected Dataset dataset;
+    protected QueryCache queryCache;
+
+    @Override
+    public void init(Map<String, String> config, ServletContext context) {
+        super.init(config, context);
+        String location = getRequiredFileParam(LOCATION_PARAM);
+        FileUtil.ensureDir(location);
+        int n = getRequiredIntParam(SHARDS_PARAM);
+        if (n < 1) {
+            throw new EpiException("Sharded store needs at least one shard");
+        }
+        String prefixList = config.get(SHARD_PREFIXES_PARAM);
+        if (prefixList != null) {
+            for (String entry : prefixList.split(";")) {
+                int split = entry.lastIndexOf('=');
+                if (split <= 0) {
+                    throw new EpiException("Badly formed shard prefix: " + entry);
+                }
+                int shard;
+                try {
+                    shard = Integer.parseInt( entry.substring(split + 1).trim() );
+                } catch (NumberFormatException e) {
+                    throw new EpiException("Badly formed shard prefix: " + entry, e);
+                }
+                if (shard < 0 || shard >= n) {
+                    throw new EpiException("Shard prefix refers to a missing shard: " + entry);
+                }
+                prefixes.put(entry.substring(0, split).trim(), shard);
+            }
+        }
+        String logDirectory = getFileParam(StoreBase.LOG_PARAM);
+        String metrics = config.containsKey(StoreBase.METRICS_PARAM) ? config.get(StoreBase.METRICS_PARAM)
+                : (getServiceName() == null ? "store" : getServiceName());
+        for (int i = 0; i < n; i++) {
+            Map<String, String> shardConfig = new HashMap<String, String>(config);
+            shardConfig.remove(StoreBase.QUERY_ENDPOINT_PARAM);
+            shardConfig.remove(StoreBase.QUERY_CACHE_PARAM);
+            shardConfig.remove(TDBStore.PRELOAD_PARAM);
+            shardConfig.put(TDBStore.LOCATION_PARAM, new File(location, "shard-" + i).getPath());
+            shardConfig.put(StoreBase.METRICS_PARAM, metrics + ".shard-" + i);
+            if (logDirectory != null) {
+                shardConfig.put(StoreBase.LOG_PARAM, new File(logDirectory, "shard-" + i).getPath());
+            }
+            TDBStore shard = new TDBStore();
+            shard.init(shardConfig, context);
+            shards.add(shard);
+        }
+
+        int threads = config.containsKey(QUERY_THREADS_PARAM) ? getRequiredIntParam(QUERY_THREADS_PARAM) : n;
+        queryPool = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "shard-query");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        if (config.containsKey(StoreBase.QUERY_CACHE_PARAM)) {
+            queryCache = new QueryCache( getRequiredIntParam(StoreBase.QUERY_CACHE_PARAM) * 1024L * 1024L );
+        }
+        unionGraph = new ShardUnionGraph();
+        unionModel = ModelFactory.createModelForGraph(unionGraph);
+        dataset = DatasetFactory.create( new ShardedDatasetGraph() );
+        installQueryEndpoint(context);
+    }
+
+    protected void installQueryEndpoint(ServletContext context) {
+        String qEndpoint = config.get(StoreBase.QUERY_ENDPOINT_PARAM);
+        if (qEndpoint != null) {
+            String base = context.getContextPath();
+            if ( ! base.endsWith("/")) {
+                base += "/";
+            }
+            base += qEndpoint;
+            DatasetRef ds = new DatasetRef();
+            ds.name = qEndpoint;
+            ds.query.endpoints.add("query" );
+            ds.init();
+            ds.dataset = dataset.asDatasetGraph();
+            DatasetRegistry.get().put(base, ds);
+            log.info("Installing SPARQL query endpoint at " + base + "/query");
+        }
+    }
+
+    @Override
+    public void postInit() {
+        for (TDBStore shard : shards) {
+            shard.postInit();
+        }
+    }
+
+    @Override
+    public void postPostInit() {
+        for (TDBStore shard : shards) {
+            shard.postPostInit();
+        }
+    }
+
+    /**
+     * Return the shard holding the named graph
+     */
+    public TDBStore shardFor(String graphname) {
+        int best = -1;
+        int shard = -1;
+        for (Map.Entry<String, Integer> e : prefixes.entrySet()) {
+            String prefix = e.getKey();
+            if (graphname.startsWith(prefix) && prefix.length() > best) {
+                best = prefix.length();
+                shard = e.getValue();
+            }
+        }
+        if (shard < 0) {
+            shard = (graphname.hashCode() & 0x7fffffff) % shards.size();
+        }
+        return shards.get(shard);
+    }
+
+    public List<TDBStore> getShards() {
+        return shards;
+    }
+
+    @Override
+    public void addGraph(String graphname, Model graph) {
+        shardFor(graphname).addGraph(graphname, graph);
+    }
+
+    @Override
+    public void addGraph(String graphname, InputStream input, String mimeType) {
+        shardFor(graphname).addGraph(graphname, input, mimeType);
+    }
+
+    @Override
+    public void updateGraph(String graphname, Model graph) {
+        shardFor(graphname).updateGraph(graphname, graph);
+    }
+
+    @Override
+    public void updateGraph(String graphname, InputStream input, String mimeType) {
+        shardFor(graphname).updateGraph(graphname, input, mimeType);
+    }
+
+    @Override
+    public void deleteGraph(String graphname) {
+        shardFor(graphname).deleteGraph(graphname);
+    }
+
+    /**
+     * Delete matching graphs from each shard in turn, each shard in its own transaction
+     */
+    @Override
+    public List<String> deleteGraphsWithPrefix(String prefix) {
+        List<String> deleted = new ArrayList<String>();
+        for (TDBStore shard : shards) {
+            deleted.addAll( shard.deleteGraphsWithPrefix(prefix) );
+        }
+        return deleted;
+    }
+
+    @Override
+    public List<String> deleteGraphsMatching(String regex) {
+        List<String> deleted = new ArrayList<String>();
+        for (TDBStore shard : shards) {
+            deleted.addAll( shard.deleteGraphsMatching(regex) );
+        }
+        return deleted;
+    }
+
+    /**
+     * Start a batch on every shard, taking their write locks in order
+     */
+    @Override
+    public void startBatch() {
+        int started = 0;
+        try {
+            for (TDBStore shard : shards) {
+                shard.startBatch();
+                started++;
+            }
+        } finally {
+            if (started < shards.size()) {
+                for (int i = started - 1; i >= 0; i--) {
+                    shards.get(i).abortBatch();
+                }
+            }
+        }
+    }
+
+    /**
+     * Commit the batch on each shard in turn. If a shard fails the remaining shards
+     * are aborted, but earlier shards will already have committed.
+     */
+    @Override
+    public void endBatch() {
+        RuntimeException failure = null;
+        for (TDBStore shard : shards) {
+            if (failure == null) {
+                try {
+                    shard.endBatch();
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+            } else {
+                shard.abortBatch();
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void abortBatch() {
+        for (TDBStore shard : shards) {
+            shard.abortBatch();
+        }
+    }
+
+    @Override
+    public void addListener(StoreListener listener) {
+        for (TDBStore shard : shards) {
+            shard.addListener(listener);
+        }
+    }
+
+    @Override
+    public void removeListener(StoreListener listener) {
+        for (TDBStore shard : shards) {
+            shard.removeListener(listener);
+        }
+    }
+
+    /**
+     * The store version is the sum of the shard versions, so it increases whenever any shard changes
+     */
+    @Override
+    public long getVersion() {
+        long version = 0;
+        for (TDBStore shard : shards) {
+            version += shard.getVersion();
+        }
+        return version;
+    }
+
+    @Override
+    public long getGraphVersion(String graphname) {
+        return shardFor(graphname).getGraphVersion(graphname);
+    }
+
+    @Override
+    public void addIndexer(Indexer indexer) {
+        for (TDBStore shard : shards) {
+            shard.addIndexer(indexer);
+        }
+    }
+
+    @Override
+    public void addMutator(Mutator mutator) {
+        for (TDBStore shard : shards) {
+            shard.addMutator(mutator);
+        }
+    }
+
+    @Override
+    public Dataset asDataset() {
+        return dataset;
+    }
+
+    @Override
+    public Model getUnionModel() {
+        return unionModel;
+    }
+
+    @Override
+    public ResultSetRewindable select(String query) {
+        // Read the version first, so it is never newer than the data the query sees
+        long version = getVersion();
+        Query q = QueryFactory.create(query);
+        String key = q.serialize();
+        if (queryCache != null) {
+            ResultSetRewindable results = queryCache.get(key, version);
+            if (results != null) {
+                return results;
+            }
+        }
+        lock();
+        QueryExecution qexec = QueryExecutionFactory.create(q, unionModel);
+        try {
+            if (queryCache != null) {
+                return queryCache.put(key, version, qexec.execSelect());
+            } else {
+                return ResultSetFactory.copyResults( qexec.execSelect() );
+            }
+        } finally {
+            qexec.close();
+            unlock();
+        }
+    }
+
+    /**
+     * The default graph of the sharded dataset is the union, so this is the same as {@link #select(String)}
+     */
+    @Override
+    public ResultSetRewindable selectDefault(String query) {
+        return select(query);
+    }
+
+    /**
+     * Take a read lock on every shard. Reads through the dataset lock each shard
+     * as needed so this is only required for a consistent view of a shard across
+     * several reads.
+     */
+    @Override
+    public void lock() {
+        int locked = 0;
+        try {
+            for (TDBStore shard : shards) {
+                shard.lock();
+                locked++;
+            }
+        } finally {
+            if (locked < shards.size()) {
+                for (int i = locked - 1; i >= 0; i--) {
+                    shards.get(i).unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Take the write lock on every shard, blocking all writes to the store
+     */
+    @Override
+    public void lockWrite() {
+        int locked = 0;
+        try {
+            for (TDBStore shard : shards) {
+                shard.lockWrite();
+                locked++;
+            }
+        } finally {
+            if (locked < shards.size()) {
+                for (int i = locked - 1; i >= 0; i--) {
+                    shards.get(i).abort();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void unlock() {
+        for (int i = shards.size() - 1; i >= 0; i--) {
+            shards.get(i).unlock();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        queryPool.shutdownNow();
+        for (TDBStore shard : shards) {
+            shard.shutdown();
+        }
+    }
+
+    /**
+     * True if the calling thread holds a lock on every shard, so that shard
+     * graphs can be read lazily within the caller's transactions.
+     */
+    protected boolean isInTransaction() {
+        for (TDBStore shard : shards) {
+            if (!shard.isInTransaction()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected static Graph graphFor(TDBStore shard, String graphname) {
+        return graphname == null ? shard.getUnionModel().getGraph() : shard.asDataset().getNamedModel(graphname).getGraph();
+    }
+
+    /**
+     * Find the matching triples in a graph within a read lock on the shard, the results
+     * are copied so they can be used once the lock is released.
+     */
+    protected static List<Triple> find(TDBStore shard, String graphname, TripleMatch m) {
+        shard.lock();
+        try {
+            return graphFor(shard, graphname).find(m).toList();
+        } finally {
+            shard.unlock();
+        }
+    }
+
+    /**
+     * Read only view of the union of all the shards
+     */
+    protected class ShardUnionGraph extends GraphBase {
+        @Override
+        protected ExtendedIterator<Triple> graphBaseFind(final TripleMatch m) {
+            if (isInTransaction()) {
+                return lazyFind(m);
+            }
+            if (shards.size() == 1) {
+                return WrappedIterator.create( find(shards.get(0), null, m).iterator() );
+            }
+            return parallelFind(m);
+        }
+
+        /**
+         * Stream the matches from each shard in turn, within the caller's transactions.
+         * Shards with no match are skipped, and a match from a later shard is dropped if an
+         * earlier shard holds it, so no set of seen triples has to be kept.
+         */
+        protected ExtendedIterator<Triple> lazyFind(TripleMatch m) {
+            ExtendedIterator<Triple> result = null;
+            List<Graph> matched = new ArrayList<Graph>(shards.size());
+            for (TDBStore shard : shards) {
+                Graph graph = graphFor(shard, null);
+                ExtendedIterator<Triple> it = graph.find(m);
+                if (!it.hasNext()) {
+                    it.close();
+                    continue;
+                }
+                if (result == null) {
+                    result = it;
+                } else {
+                    result = result.andThen( it.filterDrop( new HeldBy( new ArrayList<Graph>(matched) ) ) );
+                }
+                matched.add(graph);
+            }
+            return result == null ? NullIterator.<Triple>instance() : result;
+        }
+
+        /**
+         * Copy the matches from all the shards in parallel, each in its own read lock
+         */
+        protected ExtendedIterator<Triple> parallelFind(final TripleMatch m) {
+            List<Future<List<Triple>>> results = new ArrayList<Future<List<Triple>>>(shards.size());
+            for (final TDBStore shard : shards) {
+                results.add( queryPool.submit(new Callable<List<Triple>>() {
+                    @Override
+                    public List<Triple> call() {
+                        return find(shard, null, m);
+                    }
+                }) );
+            }
+            // The same triple may occur in graphs in different shards
+            Set<Triple> union = new LinkedHashSet<Triple>();
+            try {
+                for (Future<List<Triple>> f : results) {
+                    union.addAll( f.get() );
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EpiException("Interrupted during sharded query", e);
+            } catch (ExecutionException e) {
+                throw new EpiException("Sharded query failed", e.getCause());
+            } finally {
+                for (Future<List<Triple>> f : results) {
+                    f.cancel(true);
+                }
+            }
+            return WrappedIterator.create( union.iterator() );
+        }
+    }
+
+    /**
+     * Selects triples already held by any of a set of graphs
+     */
+    protected static class HeldBy extends Filter<Triple> {
+        protected List<Graph> graphs;
+
+        public HeldBy(List<Graph> graphs) {
+            this.graphs = graphs;
+        }
+
+        @Override
+        public boolean accept(Triple t) {
+            for (Graph graph : graphs) {
+                if (graph.contains(t)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void performAdd(Triple t) {
+            throw new AddDeniedException("Sharded union graph is read only", t);
+        }
+
+        @Override
+        public void performDelete(Triple t) {
+            throw new DeleteDeniedException("Sharded union graph is read only", t);
+        }
+    }
+
+    /**
+     * Read only view of a named graph in one shard
+     */
+    protected static class ShardGraph extends GraphBase {
+        protected TDBStore shard;
+        protected String graphname;
+
+        public ShardGraph(TDBStore shard, String graphname) {
+            this.shard = shard;
+            this.graphname = graphname;
+        }
+
+        @Override
+        protected ExtendedIterator<Triple> graphBaseFind(TripleMatch m) {
+            if (shard.isInTransaction()) {
+                return graphFor(shard, graphname).find(m);
+            }
+            return WrappedIterator.create( find(shard, graphname, m).iterator() );
+        }
+
+        @Override
+        public void performAdd(Triple t) {
+            throw new AddDeniedException("Sharded store can only be changed via the store API", t);
+        }
+
+        @Override
+        public void performDelete(Triple t) {
+            throw new DeleteDeniedException("Sharded store can only be changed via the store API", t);
+        }
+    }
+
+    /**
+     * Dataset over the shards, with the union as the default graph
+     */
+    protected class ShardedDatasetGraph extends DatasetGraphMap {
+        public ShardedDatasetGraph() {
+            super(unionGraph);
+        }
+
+        @Override
+        public Graph getGraph(Node graphNode) {
+            String graphname = graphNode.getURI();
+            return new ShardGraph(shardFor(graphname), graphname);
+        }
+
+        @Override
+        public boolean containsGraph(Node graphNode) {
+            String graphname = graphNode.getURI();
+            TDBStore shard = shardFor(graphname);
+            shard.lock();
+            try {
+                return shard.asDataset().containsNamedModel(graphname);
+            } finally {
+                shard.unlock();
+            }
+        }
+
+        @Override
+        public Iterator<Node> listGraphNodes() {
+            List<Node> nodes = new ArrayList<Node>();
+            for (TDBStore shard : shards) {
+                shard.lock();
+                try {
+                    for (Iterator<String> i = shard.asDataset().listNames(); i.hasNext();) {
+                        nodes.add( NodeFactory.createURI(i.next()) );
+                    }
+                } finally {
+                    shard.unlock();
+                }
+            }
+            return nodes.iterator();
+        }
+
+        @Override
+        public long size() {
+            long count = 0;
+            for (Iterator<Node> i = listGraphNodes(); i.hasNext(); i.next()) {
+                count++;
+            }
+            return count;
+        }
+
+        @Override
+        public void addGraph(Node graphName, Graph graph) {
+            throw new EpiException("Sharded store can only be changed via the store API");
+        }
+
+        @Override
+        public void removeGraph(Node graphName) {
+            throw new EpiException("Sharded store can only be changed via the store API");
+        }
+    }
+}
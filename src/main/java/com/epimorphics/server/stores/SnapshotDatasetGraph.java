@@ -0,0 +1,400 @@
+/******************************************************************
+ * File:        SnapshotDatasetGraph.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.stores;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.epimorphics.util.EpiException;
+import com.hp.hpl.jena.graph.Factory;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.GraphUtil;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.graph.compose.MultiUnion;
+import com.hp.hpl.jena.graph.impl.GraphBase;
+import com.hp.hpl.jena.shared.AddDeniedException;
+import com.hp.hpl.jena.shared.DeleteDeniedException;
+import com.hp.hpl.jena.sparql.core.DatasetGraphMap;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.Filter;
+
+/**
+ * In memory dataset in which readers see an immutable version of the named graphs
+ * while a writer builds the next version, which is published atomically on commit.
+ * <p>
+ * Versions share unchanged graphs. The first time a writer changes a named graph
+ * the published graph is wrapped in a {@link DeltaGraph} overlay which records the
+ * added and removed triples, so the cost of an update is proportional to the size of
+ * the change rather than of the graph. Reading a graph within a write does not copy
+ * anything. When an overlay has grown to a quarter of its base graph, or overlays have
+ * been stacked {@value #MAX_DEPTH} deep, the graph is copied into a plain in-memory
+ * graph as the version is published. That copy costs time and transient memory
+ * proportional to the graph size, but is amortized over the updates which led to it.
+ * Aborting a write simply discards the new version.
+ * </p>
+ * <p>
+ * A thread sees the version it pinned with {@link #beginRead()}, the version it is
+ * building if it is the writer, or otherwise the latest published version. The
+ * default graph is the union of the named graphs of that version.
+ * </p>
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class SnapshotDatasetGraph extends DatasetGraphMap {
+    protected static final int MAX_DEPTH = 8;
+
+    protected volatile Version published = new Version();
+    protected Version working;
+    protected volatile Thread writer;
+    protected final ReentrantLock writeLock = new ReentrantLock();
+    protected final ThreadLocal<Version> pinned = new ThreadLocal<Version>();
+
+    public SnapshotDatasetGraph() {
+        super( Factory.createGraphMem() );
+        setDefaultGraph( new CurrentUnionGraph() );
+    }
+
+    /** Pin the latest published version for reads by this thread */
+    public void beginRead() {
+        pinned.set(published);
+    }
+
+    public void endRead() {
+        pinned.remove();
+    }
+
+    /** Start building a new version, blocks until any other writer has finished */
+    public void beginWrite() {
+        writeLock.lock();
+        working = new Version(published);
+        writer = Thread.currentThread();
+    }
+
+    /** Publish the new version, or discard it if commit is false */
+    public void endWrite(boolean commit) {
+        try {
+            if (commit) {
+                published = working.freeze();
+            }
+        } finally {
+            working = null;
+            writer = null;
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Return the graph of the calling thread's version
+     */
+    protected Version current() {
+        Version v = pinned.get();
+        if (v != null) {
+            return v;
+        }
+        if (writer == Thread.currentThread()) {
+            return working;
+        }
+        return published;
+    }
+
+    protected Version writing() {
+        if (writer != Thread.currentThread()) {
+            throw new EpiException("Snapshot store can only be changed within a write");
+        }
+        return working;
+    }
+
+    /**
+     * Return a graph the writer can change, wrapping the published graph in an overlay if needed
+     */
+    public Graph writableGraph(String graphname) {
+        return writing().writable(graphname);
+    }
+
+    public void dropGraph(String graphname) {
+        writing().remove(graphname);
+    }
+
+    /**
+     * Return the graph of the calling thread's version. As for a plain in-memory dataset
+     * a graph is returned even if it is not in the version, the writer can add to it to
+     * create the graph, for readers it is empty.
+     */
+    @Override
+    public Graph getGraph(Node graphNode) {
+        if (writer == Thread.currentThread() && pinned.get() == null) {
+            // Only make the graph writable if the writer actually changes it
+            return new WriterGraph(graphNode.getURI());
+        }
+        Graph graph = current().graphs.get( graphNode.getURI() );
+        return graph == null ? Graph.emptyGraph : graph;
+    }
+
+    @Override
+    public boolean containsGraph(Node graphNode) {
+        return current().graphs.containsKey( graphNode.getURI() );
+    }
+
+    @Override
+    public Iterator<Node> listGraphNodes() {
+        List<Node> nodes = new ArrayList<Node>();
+        for (String name : current().graphs.keySet()) {
+            nodes.add( NodeFactory.createURI(name) );
+        }
+        return nodes.iterator();
+    }
+
+    @Override
+    public void addGraph(Node graphName, Graph graph) {
+        writing().put(graphName.getURI(), graph);
+    }
+
+    @Override
+    public void removeGraph(Node graphName) {
+        writing().remove( graphName.getURI() );
+    }
+
+    @Override
+    public long size() {
+        return current().graphs.size();
+    }
+
+    /**
+     * A set of named graphs. Once published a version is never changed.
+     */
+    protected static class Version {
+        protected final Map<String, Graph> graphs;
+        // Graphs already copied by the writer of this version, null once published
+        protected Set<String> copied;
+        protected volatile Graph union;
+
+        public Version() {
+            graphs = new HashMap<String, Graph>();
+        }
+
+        public Version(Version base) {
+            graphs = new HashMap<String, Graph>(base.graphs);
+            copied = new HashSet<String>();
+        }
+
+        public Graph writable(String graphname) {
+            Graph graph = graphs.get(graphname);
+            if (copied.contains(graphname)) {
+                return graph;
+            }
+            Graph overlay = (graph == null) ? Factory.createGraphMem() : new DeltaGraph(graph);
+            put(graphname, overlay);
+            return overlay;
+        }
+
+        public void put(String graphname, Graph graph) {
+            graphs.put(graphname, graph);
+            copied.add(graphname);
+            union = null;
+        }
+
+        public void remove(String graphname) {
+            graphs.remove(graphname);
+            copied.remove(graphname);
+            union = null;
+        }
+
+        public Graph union() {
+            Graph u = union;
+            if (u == null || copied != null) {
+                // The writer's graphs are changing so always see the latest set
+                u = new MultiUnion( graphs.values().toArray(new Graph[graphs.size()]) );
+                union = u;
+            }
+            return u;
+        }
+
+        public Version freeze() {
+            for (String graphname : copied) {
+                Graph graph = graphs.get(graphname);
+                if (graph instanceof DeltaGraph && ((DeltaGraph)graph).needsCompaction()) {
+                    graphs.put(graphname, ((DeltaGraph)graph).materialize());
+                }
+            }
+            copied = null;
+            union = null;
+            return this;
+        }
+    }
+
+    /**
+     * Changes made by a writer to an immutable published graph. Lookups see the
+     * base graph, less the removed triples, followed by the added triples.
+     */
+    protected static class DeltaGraph extends GraphBase {
+        protected final Graph base;
+        protected final Graph added = Factory.createGraphMem();
+        protected final Graph removed = Factory.createGraphMem();
+        protected final int depth;
+
+        public DeltaGraph(Graph base) {
+            this.base = base;
+            this.depth = (base instanceof DeltaGraph) ? ((DeltaGraph)base).depth + 1 : 1;
+            getPrefixMapping().setNsPrefixes( base.getPrefixMapping() );
+        }
+
+        @Override
+        protected ExtendedIterator<Triple> graphBaseFind(TripleMatch m) {
+            ExtendedIterator<Triple> it = base.find(m);
+            if (!removed.isEmpty()) {
+                it = it.filterDrop(new Filter<Triple>() {
+                    @Override
+                    public boolean accept(Triple t) {
+                        return removed.contains(t);
+                    }
+                });
+            }
+            return added.isEmpty() ? it : it.andThen( added.find(m) );
+        }
+
+        @Override
+        protected boolean graphBaseContains(Triple t) {
+            if (!t.isConcrete()) {
+                return super.graphBaseContains(t);
+            }
+            return added.contains(t) || (base.contains(t) && !removed.contains(t));
+        }
+
+        @Override
+        protected int graphBaseSize() {
+            return base.size() - removed.size() + added.size();
+        }
+
+        @Override
+        public void performAdd(Triple t) {
+            if (removed.contains(t)) {
+                removed.delete(t);
+            } else if (!base.contains(t)) {
+                added.add(t);
+            }
+        }
+
+        @Override
+        public void performDelete(Triple t) {
+            if (added.contains(t)) {
+                added.delete(t);
+            } else if (base.contains(t)) {
+                removed.add(t);
+            }
+        }
+
+        public boolean needsCompaction() {
+            return depth >= MAX_DEPTH || (added.size() + removed.size()) * 4 > base.size();
+        }
+
+        /**
+         * Copy the current state of the graph into a plain in-memory graph
+         */
+        public Graph materialize() {
+            Graph copy = Factory.createGraphMem();
+            GraphUtil.addInto(copy, this);
+            copy.getPrefixMapping().setNsPrefixes( getPrefixMapping() );
+            return copy;
+        }
+    }
+
+    /**
+     * A named graph as seen by the writer. Reads go to the graph in the version being
+     * built, the graph is only made writable when the writer first changes it.
+     */
+    protected class WriterGraph extends GraphBase {
+        protected String graphname;
+
+        public WriterGraph(String graphname) {
+            this.graphname = graphname;
+        }
+
+        protected Graph target() {
+            Graph graph = current().graphs.get(graphname);
+            return graph == null ? Graph.emptyGraph : graph;
+        }
+
+        @Override
+        protected ExtendedIterator<Triple> graphBaseFind(TripleMatch m) {
+            return target().find(m);
+        }
+
+        @Override
+        protected boolean graphBaseContains(Triple t) {
+            return target().contains(t);
+        }
+
+        @Override
+        protected int graphBaseSize() {
+            return target().size();
+        }
+
+        @Override
+        public void performAdd(Triple t) {
+            writableGraph(graphname).add(t);
+        }
+
+        @Override
+        public void performDelete(Triple t) {
+            writableGraph(graphname).delete(t);
+        }
+    }
+
+    /**
+     * Read only view of the union of the calling thread's version
+     */
+    protected class CurrentUnionGraph extends GraphBase {
+        @Override
+        protected ExtendedIterator<Triple> graphBaseFind(TripleMatch m) {
+            return current().union().find(m);
+        }
+
+        @Override
+        protected boolean graphBaseContains(Triple t) {
+            return current().union().contains(t);
+        }
+
+        @Override
+        protected int graphBaseSize() {
+            return current().union().size();
+        }
+
+        @Override
+        public void performAdd(Triple t) {
+            throw new AddDeniedException("Union graph is read only", t);
+        }
+
+        @Override
+        public void performDelete(Triple t) {
+            throw new DeleteDeniedException("Union graph is read only", t);
+        }
+    }
+}
@@ -22,13 +22,22 @@
 package com.epimorphics.server.stores;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 import javax.servlet.ServletContext;
 
@@ -36,41 +45,123 @@ import org.apache.jena.fuseki.server.DatasetRef;
 import org.apache.jena.fuseki.server.DatasetRegistry;
 import org.apache.jena.query.text.EntityDefinition;
 import org.apache.jena.query.text.TextDatasetFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.riot.system.StreamRDFLib;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.RAMDirectory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.epimorphics.server.core.BatchDeleteIndexer;
+import com.epimorphics.server.core.DeltaIndexer;
 import com.epimorphics.server.core.Indexer;
 import com.epimorphics.server.core.Mutator;
 import com.epimorphics.server.core.Service;
 import com.epimorphics.server.core.ServiceBase;
 import com.epimorphics.server.core.ServiceConfig;
+import com.epimorphics.server.core.Shutdown;
 import com.epimorphics.server.core.Store;
+import com.epimorphics.server.core.StoreEvent;
+import com.epimorphics.server.core.StoreListener;
+import com.epimorphics.server.core.StreamingIndexer;
+import com.epimorphics.server.core.StreamingMutator;
+import com.epimorphics.server.metrics.Counter;
+import com.epimorphics.server.metrics.Gauge;
+import com.epimorphics.server.metrics.Metrics;
+import com.epimorphics.server.metrics.MetricsRegistry;
+import com.epimorphics.server.metrics.Timer;
 import com.epimorphics.util.EpiException;
-import com.epimorphics.util.FileUtil;
-import com.epimorphics.util.NameUtils;
+import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.query.Dataset;
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.query.QueryFactory;
 import com.hp.hpl.jena.query.ReadWrite;
+import com.hp.hpl.jena.query.ResultSetFactory;
+import com.hp.hpl.jena.query.ResultSetRewindable;
 import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ResIterator;
+import com.hp.hpl.jena.rdf.model.Resource;
 import com.hp.hpl.jena.shared.Lock;
-import com.hp.hpl.jena.util.FileUtils;
+import com.hp.hpl.jena.sparql.core.Quad;
 import com.hp.hpl.jena.vocabulary.RDFS;
 
 /**
  * Base implementation of a generic store. Supports  linking to indexer and mutator services.
  * Supports optional logging of all requests to a nominated file system.
+ * <p>
+ * Set "log={dir}" to record all changes in an append-only {@link ChangeJournal} in that
+ * directory. Journal segments are rotated at "logSegmentSize" MB (default 64). Entries are
+ * prepared during the write and only queued for the journal once the store transaction
+ * has committed, aborted writes are never journaled. Entries are written in the background,
+ * set "logSync=true" to make each update wait, after releasing the lock, until its entries
+ * have been synced to disk. Set "replay=true" to rebuild an empty store from the journal
+ * at startup, see {@link JournalReplay}.
+ * </p>
+ * <p>
+ * Set "streaming=true" to load uploaded input streams in a single pass, the parser
+ * output is fed to the store, the log, and any streaming mutators and indexers
+ * at the same time. Only used if all configured mutators are streaming mutators,
+ * non-streaming indexers are run from the loaded graph within the same write lock.
+ * </p>
+ * <p>
+ * Set "parseThreads=n" to parse N-Triples and N-Quads uploads in line aligned chunks
+ * on a pool of n threads, the parsed triples are still added by the single writer.
+ * </p>
+ * <p>
+ * Set "queryCache=n" to cache the results of {@link #select(String)} queries, up to
+ * an estimated n MB. Cached results are discarded whenever the store changes.
+ * </p>
+ * <p>
+ * Set "catalog=true" to maintain a {@link GraphCatalog} of the named graphs and their sizes.
+ * Stores with a location save the catalog there on shutdown, otherwise it is rebuilt
+ * from the data at startup.
+ * </p>
+ * <p>
+ * Set "export=true" to allow the store to be downloaded through the system/export
+ * endpoint, see {@link StoreExport}.
+ * </p>
+ * <p>
+ * Set "diffUpdate=true" to make updateGraph(name, model) compare the new graph with the
+ * stored graph and apply just the added and removed triples. Unchanged graphs are skipped
+ * entirely and indexers only see the affected subjects. Blank nodes in the incoming
+ * data never match those already stored so any triples involving them are always replaced.
+ * </p>
+ * <p>
+ * Lock state is held per thread so read transactions run in parallel with each other
+ * and with the single writer. Locks are reentrant for the thread that holds them, so a
+ * batch of updates bracketed by startBatch/endBatch is applied in a single write transaction.
+ * </p>
  *
  * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
  */
-public abstract class StoreBase extends ServiceBase implements Store, Service {
+public abstract class StoreBase extends ServiceBase implements Store, Service, Shutdown {
     static Logger log = LoggerFactory.getLogger(StoreBase.class);
 
     public static final String INDEXER_PARAM = "indexer";
     public static final String MUTATOR_PARAM = "mutator";
     public static final String JENA_TEXT_PARAM = "jena-text";
     public static final String LOG_PARAM = "log";
+    public static final String LOG_SEGMENT_PARAM = "logSegmentSize";
+    public static final String LOG_SYNC_PARAM = "logSync";
+    public static final String REPLAY_PARAM = "replay";
+    public static final String STREAMING_PARAM = "streaming";
+    public static final String DIFF_UPDATE_PARAM = "diffUpdate";
+    public static final String ASYNC_QUEUE_PARAM = "asyncQueue";
+    public static final String ASYNC_TIMEOUT_PARAM = "asyncTimeout";
+    public static final String PARSE_THREADS_PARAM = "parseThreads";
+    public static final String QUERY_CACHE_PARAM = "queryCache";
+    public static final String CATALOG_PARAM = "catalog";
+
+    public static final String METRICS_PARAM = "metrics";
+
+    public static final int DEFAULT_ASYNC_QUEUE = 100;
 
     public static final String ADD_ACTION = "ADD";
     public static final String UPDATE_ACTION = "UPDATE";
@@ -82,18 +173,108 @@ public abstract class StoreBase extends ServiceBase implements Store, Service {
     protected volatile List<Indexer> indexers = new ArrayList<Indexer>();
     protected volatile List<Mutator> mutators = new ArrayList<Mutator>();
     protected String logDirectory;
-    protected boolean inWrite = false;
+    protected ChangeJournal journal;
+    protected boolean logSync = false;
+    protected final ThreadLocal<Transaction> transaction = new ThreadLocal<Transaction>();
+    protected boolean streaming = false;
+    protected boolean diffUpdate = false;
+    protected AsyncUpdater asyncUpdater;
+    protected ExecutorService parsePool;
+    protected ParallelLineParser parallelParser;
+    protected QueryCache queryCache;
+    protected GraphCatalog catalog;
+    protected final List<StoreListener> listeners = new CopyOnWriteArrayList<StoreListener>();
+    protected final AtomicLong version = new AtomicLong();
+    protected final Map<String, Long> graphVersions = new ConcurrentHashMap<String, Long>();
+
+    protected Timer readWaitTimer;
+    protected Timer readHoldTimer;
+    protected Timer writeWaitTimer;
+    protected Timer writeHoldTimer;
+    protected Timer commitTimer;
+    protected Counter commits;
+    protected Counter aborts;
+    protected Timer logTimer;
+    protected Timer mutateTimer;
+    protected Timer indexTimer;
+    protected Timer writeTimer;
+    protected Timer loadTimer;
+    protected Counter triplesLoaded;
+    protected Counter queryCacheHits;
+    protected Counter queryCacheMisses;
 
     @Override
     public void init(Map<String, String> config, ServletContext context) {
         super.init(config, context);
+        streaming = "true".equalsIgnoreCase( config.get(STREAMING_PARAM) );
+        diffUpdate = "true".equalsIgnoreCase( config.get(DIFF_UPDATE_PARAM) );
+        initMetrics( metricsPrefix(config) );
+        if (config.containsKey(PARSE_THREADS_PARAM)) {
+            initParser( getRequiredIntParam(PARSE_THREADS_PARAM) );
+        }
+        if (config.containsKey(QUERY_CACHE_PARAM)) {
+            queryCache = new QueryCache( getRequiredIntParam(QUERY_CACHE_PARAM) * 1024L * 1024L );
+        }
+        if ("true".equalsIgnoreCase( config.get(CATALOG_PARAM) )) {
+            catalog = new GraphCatalog();
+        }
         logDirectory = config.get(LOG_PARAM);
         if (logDirectory != null) {
             logDirectory = ServiceConfig.get().expandFileLocation(logDirectory);
-            FileUtil.ensureDir(logDirectory);
+            long segmentSize = ChangeJournal.DEFAULT_SEGMENT_SIZE;
+            if (config.containsKey(LOG_SEGMENT_PARAM)) {
+                segmentSize = getRequiredIntParam(LOG_SEGMENT_PARAM) * 1024L * 1024L;
+            }
+            journal = new ChangeJournal(logDirectory, segmentSize);
+            logSync = "true".equalsIgnoreCase( config.get(LOG_SYNC_PARAM) );
         }
     }
 
+    /**
+     * The prefix for the store's metrics, set by "metrics=prefix", otherwise the
+     * name the store is configured under so that each store has its own metrics
+     */
+    protected String metricsPrefix(Map<String, String> config) {
+        if (config.containsKey(METRICS_PARAM)) {
+            return config.get(METRICS_PARAM);
+        }
+        return getServiceName() == null ? "store" : getServiceName();
+    }
+
+    /**
+     * Look up the store metrics, all named with the given prefix. Lock wait and hold
+     * times are split into read and write, the write phases (log, mutate, index and
+     * write to the store) are timed separately. Load counts only include uploads whose
+     * size is known without rereading the stored graph.
+     */
+    protected void initMetrics(String prefix) {
+        MetricsRegistry registry = Metrics.getRegistry();
+        readWaitTimer  = registry.timer(prefix + ".lock.read.wait");
+        readHoldTimer  = registry.timer(prefix + ".lock.read.hold");
+        writeWaitTimer = registry.timer(prefix + ".lock.write.wait");
+        writeHoldTimer = registry.timer(prefix + ".lock.write.hold");
+        commitTimer    = registry.timer(prefix + ".txn.commit");
+        commits        = registry.counter(prefix + ".txn.commits");
+        aborts         = registry.counter(prefix + ".txn.aborts");
+        logTimer       = registry.timer(prefix + ".phase.log");
+        mutateTimer    = registry.timer(prefix + ".phase.mutate");
+        indexTimer     = registry.timer(prefix + ".phase.index");
+        writeTimer     = registry.timer(prefix + ".phase.write");
+        loadTimer      = registry.timer(prefix + ".load");
+        triplesLoaded  = registry.counter(prefix + ".load.triples");
+        queryCacheHits   = registry.counter(prefix + ".queryCache.hits");
+        queryCacheMisses = registry.counter(prefix + ".queryCache.misses");
+        final Timer load = loadTimer;
+        final Counter triples = triplesLoaded;
+        registry.gauge(prefix + ".load.triplesPerSecond", new Gauge() {
+            @Override
+            public Number getValue() {
+                double secs = load.getTotalMillis() / 1000.0;
+                return secs > 0 ? triples.get() / secs : 0.0;
+            }
+        });
+    }
+
     /**
      * Install a jena-text dataset wrapper round this store.
      * This is an alternative to the indexer system.
@@ -117,6 +298,76 @@ public abstract class StoreBase extends ServiceBase implements Store, Service {
         }
     }
     
+    /**
+     * Load the graph catalog and, if configured, replay the change journal into an empty store.
+     */
+    @Override
+    public void postPostInit() {
+        if (catalog != null) {
+            initCatalog();
+        }
+        if (journal != null && "true".equalsIgnoreCase( config.get(REPLAY_PARAM) )) {
+            if (isEmpty()) {
+                log.info("Replaying change journal into empty store");
+                new JournalReplay(this, logDirectory).replay();
+            } else {
+                log.info("Store is not empty, skipping journal replay");
+            }
+        }
+    }
+
+    /**
+     * Return the catalog of named graphs, or null if the catalog is not enabled
+     */
+    public GraphCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * File in which the catalog is saved between runs, null if the store has nowhere to keep it
+     */
+    protected File catalogFile() {
+        return null;
+    }
+
+    /**
+     * Load the catalog saved at the last shutdown or rebuild it from the stored graphs.
+     * The saved file is removed once loaded, so after a crash the catalog is rebuilt.
+     */
+    protected void initCatalog() {
+        File file = catalogFile();
+        if (file != null && file.exists()) {
+            catalog.load(file);
+            if (!file.delete()) {
+                log.warn("Could not remove loaded graph catalog " + file);
+            }
+            return;
+        }
+        lock();
+        try {
+            Dataset ds = asDataset();
+            for (Iterator<String> i = ds.listNames(); i.hasNext();) {
+                String graphname = i.next();
+                catalog.put(graphname, ds.getNamedModel(graphname).getGraph(), getGraphVersion(graphname));
+            }
+        } finally {
+            unlock();
+        }
+        log.info("Built graph catalog of " + catalog.size() + " graphs");
+    }
+
+    /**
+     * True if the store has no named graphs
+     */
+    public boolean isEmpty() {
+        lock();
+        try {
+            return ! asDataset().listNames().hasNext();
+        } finally {
+            unlock();
+        }
+    }
+
     /**
      * Configure a Fuseki query servlet for this store. The
      * web.xml file needs to map the servlet to a matching context path.
@@ -173,47 +424,459 @@ public abstract class StoreBase extends ServiceBase implements Store, Service {
     @Override
     abstract public Dataset asDataset();
 
+    /**
+     * Return the queue used for asynchronous updates, starting it if needed.
+     * The queue length is set by <code>asyncQueue</code> and the time, in seconds,
+     * that callers will wait for space in a full queue by <code>asyncTimeout</code>.
+     */
+    public synchronized AsyncUpdater getAsyncUpdater() {
+        if (asyncUpdater == null) {
+            int capacity = config.containsKey(ASYNC_QUEUE_PARAM) ? getRequiredIntParam(ASYNC_QUEUE_PARAM) : DEFAULT_ASYNC_QUEUE;
+            long timeout = config.containsKey(ASYNC_TIMEOUT_PARAM) ? getRequiredIntParam(ASYNC_TIMEOUT_PARAM) * 1000L : 0;
+            asyncUpdater = new AsyncUpdater(this, capacity, timeout);
+        }
+        return asyncUpdater;
+    }
+
+    /**
+     * Queue an addGraph to be applied by the asynchronous writer.
+     * Returns a future which completes once the change has been committed.
+     */
+    public Future<Void> addGraphAsync(String graphname, Model graph) {
+        return getAsyncUpdater().addGraph(graphname, graph);
+    }
+
+    public Future<Void> addGraphAsync(String graphname, InputStream input, String mimeType) {
+        return getAsyncUpdater().addGraph(graphname, input, mimeType);
+    }
+
+    public Future<Void> updateGraphAsync(String graphname, Model graph) {
+        return getAsyncUpdater().updateGraph(graphname, graph);
+    }
+
+    public Future<Void> updateGraphAsync(String graphname, InputStream input, String mimeType) {
+        return getAsyncUpdater().updateGraph(graphname, input, mimeType);
+    }
+
+    public Future<Void> deleteGraphAsync(String graphname) {
+        return getAsyncUpdater().deleteGraph(graphname);
+    }
+
+    @Override
+    public List<String> deleteGraphsWithPrefix(String prefix) {
+        return deleteGraphs( Pattern.compile(Pattern.quote(prefix) + ".*", Pattern.DOTALL) );
+    }
+
+    @Override
+    public List<String> deleteGraphsMatching(String regex) {
+        return deleteGraphs( Pattern.compile(regex) );
+    }
+
+    /**
+     * Delete all the graphs whose names match, in one write transaction. Indexers which
+     * support it remove all the graphs in one operation, others are run as a single
+     * batch so they only commit once.
+     */
+    protected List<String> deleteGraphs(Pattern pattern) {
+        List<String> deleted = new ArrayList<String>();
+        boolean ok = false;
+        lockWrite();
+        try {
+            for (Iterator<String> i = asDataset().listNames(); i.hasNext();) {
+                String graphname = i.next();
+                if (pattern.matcher(graphname).matches()) {
+                    deleted.add(graphname);
+                }
+            }
+            if (!deleted.isEmpty()) {
+                for (String graphname : deleted) {
+                    logAction(DELETE_ACTION, graphname, null);
+                }
+                long start = indexTimer.start();
+                try {
+                    for (Indexer i : indexers) {
+                        i.startBatch();
+                        try {
+                            if (i instanceof BatchDeleteIndexer) {
+                                ((BatchDeleteIndexer)i).deleteGraphs(deleted);
+                            } else {
+                                for (String graphname : deleted) {
+                                    i.deleteGraph(graphname);
+                                }
+                            }
+                        } finally {
+                            i.endBatch();
+                        }
+                    }
+                } finally {
+                    indexTimer.stop(start);
+                }
+                for (String graphname : deleted) {
+                    doDeleteGraph(graphname);
+                    recordChange(StoreEvent.Type.DELETED, graphname, null, null);
+                }
+                log.info("Deleted " + deleted.size() + " graphs matching " + pattern);
+            }
+            ok = true;
+        } finally {
+            endWrite(ok);
+        }
+        return deleted;
+    }
+
     @Override
     public void addGraph(String graphname, Model graph) {
-        logAction(ADD_ACTION, graphname, graph);
-        mutate(graph);
-        index(graphname, graph, false);
-        doAddGraph(graphname, graph);
+        long start = loadTimer.start();
+        boolean ok = false;
+        lockWrite();
+        try {
+            logAction(ADD_ACTION, graphname, graph);
+            mutate(graph);
+            index(graphname, graph, false);
+            doAddGraph(graphname, graph);
+            recordChange(StoreEvent.Type.ADDED, graphname, graph, null);
+            ok = true;
+        } finally {
+            endWrite(ok);
+            recordLoad(start, ok ? graph.size() : 0);
+        }
     }
 
     @Override
     public void updateGraph(String graphname, Model graph) {
-        logAction(UPDATE_ACTION, graphname, graph);
-        doDeleteGraph(graphname);
-        mutate(graph);
-        index(graphname, graph, true);
-        doAddGraph(graphname, graph);
+        if (diffUpdate) {
+            updateGraphDelta(graphname, graph);
+            return;
+        }
+        long start = loadTimer.start();
+        boolean ok = false;
+        lockWrite();
+        try {
+            logAction(UPDATE_ACTION, graphname, graph);
+            doDeleteGraph(graphname);
+            mutate(graph);
+            index(graphname, graph, true);
+            doAddGraph(graphname, graph);
+            recordChange(StoreEvent.Type.UPDATED, graphname, graph, null);
+            ok = true;
+        } finally {
+            endWrite(ok);
+            recordLoad(start, ok ? graph.size() : 0);
+        }
     }
 
     @Override
     public void deleteGraph(String graphname) {
-        logAction(DELETE_ACTION, graphname, null);
-        for (Indexer i : indexers) {
-            i.deleteGraph(graphname);
+        boolean ok = false;
+        lockWrite();
+        try {
+            logAction(DELETE_ACTION, graphname, null);
+            for (Indexer i : indexers) {
+                i.deleteGraph(graphname);
+            }
+            doDeleteGraph(graphname);
+            recordChange(StoreEvent.Type.DELETED, graphname, null, null);
+            ok = true;
+        } finally {
+            endWrite(ok);
         }
-        doDeleteGraph(graphname);
     }
 
     @Override
     public void addGraph(String graphname, InputStream input, String mimeType) {
-        doAddGraph(graphname, input, mimeType);
-        logNamed(ADD_ACTION, graphname);
-        mutateNamed(graphname);
-        indexNamed(graphname, false);
+        if (canStream()) {
+            streamGraph(ADD_ACTION, graphname, input, mimeType, false);
+            return;
+        }
+        long start = loadTimer.start();
+        long loaded = 0;
+        boolean ok = false;
+        lockWrite();
+        try {
+            long before = storedSize(graphname);
+            doAddGraph(graphname, input, mimeType);
+            loaded = storedSize(graphname) - before;
+            logNamed(ADD_ACTION, graphname);
+            mutateNamed(graphname);
+            indexNamed(graphname, false);
+            recordChange(StoreEvent.Type.ADDED, graphname, null, null);
+            ok = true;
+        } finally {
+            endWrite(ok);
+            recordLoad(start, ok ? loaded : 0);
+        }
     }
 
     @Override
     public void updateGraph(String graphname, InputStream input, String mimeType) {
-        doDeleteGraph(graphname);
-        doAddGraph(graphname, input, mimeType);
-        logNamed(UPDATE_ACTION, graphname);
-        mutateNamed(graphname);
-        indexNamed(graphname, true);
+        if (canStream()) {
+            streamGraph(UPDATE_ACTION, graphname, input, mimeType, true);
+            return;
+        }
+        long start = loadTimer.start();
+        long loaded = 0;
+        boolean ok = false;
+        lockWrite();
+        try {
+            doDeleteGraph(graphname);
+            doAddGraph(graphname, input, mimeType);
+            loaded = storedSize(graphname);
+            logNamed(UPDATE_ACTION, graphname);
+            mutateNamed(graphname);
+            indexNamed(graphname, true);
+            recordChange(StoreEvent.Type.UPDATED, graphname, null, null);
+            ok = true;
+        } finally {
+            endWrite(ok);
+            recordLoad(start, ok ? loaded : 0);
+        }
+    }
+
+    /**
+     * Number of triples in a stored graph, used to count the triples loaded
+     * by a parse straight into the store. Called with the write lock held.
+     */
+    protected long storedSize(String graphname) {
+        return asDataset().getNamedModel(graphname).size();
+    }
+
+    /**
+     * Update a graph by applying just the differences between the new graph and the
+     * stored graph. Does nothing if there are no differences. The mutators are
+     * applied before the comparison so the log records the mutated graph.
+     */
+    public void updateGraphDelta(String graphname, Model graph) {
+        long start = loadTimer.start();
+        boolean ok = false;
+        lockWrite();
+        try {
+            mutate(graph);
+            Model current = targetModel(graphname);
+            Model added = graph.difference(current);
+            Model removed = current.difference(graph);
+            if (!added.isEmpty() || !removed.isEmpty()) {
+                logAction(UPDATE_ACTION, graphname, graph);
+                doApplyDelta(graphname, current, added, removed);
+                indexDelta(graphname, graph, added, removed);
+                recordChange(StoreEvent.Type.UPDATED, graphname, added, removed);
+            }
+            ok = true;
+        } finally {
+            endWrite(ok);
+            recordLoad(start, ok ? graph.size() : 0);
+        }
+    }
+
+    /**
+     * Start a batch of updates. All graph adds, updates and deletes made by this
+     * thread up to the matching endBatch are applied in a single write transaction
+     * and all indexers see a single batch. Batches may be nested.
+     */
+    @Override
+    public void startBatch() {
+        lockWrite();
+        Transaction t = transaction.get();
+        if (t.batchDepth++ == 0) {
+            t.batchIndexers = indexers;
+            for (Indexer i : t.batchIndexers) {
+                i.startBatch();
+            }
+        }
+    }
+
+    /**
+     * End a batch of updates, committing the transaction if this is the outermost batch
+     */
+    @Override
+    public void endBatch() {
+        finishBatch(true);
+    }
+
+    /**
+     * End a batch of updates, aborting the whole transaction. Indexers have no
+     * rollback so may still reflect some of the aborted updates.
+     */
+    @Override
+    public void abortBatch() {
+        finishBatch(false);
+    }
+
+    protected void finishBatch(boolean commit) {
+        Transaction t = transaction.get();
+        if (t == null || t.batchDepth <= 0) {
+            throw new EpiException("Attempted to end a non-existent store batch");
+        }
+        List<Indexer> toEnd = null;
+        if (--t.batchDepth == 0) {
+            toEnd = t.batchIndexers;
+            t.batchIndexers = null;
+        }
+        try {
+            endWrite(commit);
+        } finally {
+            if (toEnd != null) {
+                for (Indexer i : toEnd) {
+                    i.endBatch();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void addListener(StoreListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(StoreListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public long getVersion() {
+        return version.get();
+    }
+
+    @Override
+    public long getGraphVersion(String graphname) {
+        Long v = graphVersions.get(graphname);
+        return v == null ? 0 : v;
+    }
+
+    /**
+     * Run a SPARQL select query over the union model, taking a read lock if the
+     * caller does not already hold one. The results are copied so they can be used
+     * after the lock is released. If <code>queryCache</code> is set then repeats of
+     * the same query, with no intervening change to the store, are served from the cache.
+     */
+    @Override
+    public ResultSetRewindable select(String query) {
+        return select(query, false);
+    }
+
+    /**
+     * Run a SPARQL select query over the dataset default model, as for {@link #select(String)}.
+     * Cached results are kept apart from those of union queries.
+     */
+    @Override
+    public ResultSetRewindable selectDefault(String query) {
+        return select(query, true);
+    }
+
+    protected ResultSetRewindable select(String query, boolean defaultModel) {
+        lock();
+        try {
+            Transaction t = transaction.get();
+            Model model = defaultModel ? asDataset().getDefaultModel() : getUnionModel();
+            Query q = QueryFactory.create(query);
+            if (queryCache == null || t.isWrite()) {
+                return execSelect(q, model);
+            }
+            String key = (defaultModel ? "default:" : "union:") + q.serialize();
+            ResultSetRewindable results = queryCache.get(key, t.startVersion);
+            if (results != null) {
+                queryCacheHits.inc();
+                return results;
+            }
+            queryCacheMisses.inc();
+            QueryExecution qexec = QueryExecutionFactory.create(q, model);
+            try {
+                return queryCache.put(key, t.startVersion, qexec.execSelect());
+            } finally {
+                qexec.close();
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    protected ResultSetRewindable execSelect(Query query, Model model) {
+        QueryExecution qexec = QueryExecutionFactory.create(query, model);
+        try {
+            return ResultSetFactory.copyResults( qexec.execSelect() );
+        } finally {
+            qexec.close();
+        }
+    }
+
+    /**
+     * Record a change to a graph, to be published once the current write commits.
+     * The added and removed triples should be given where known, otherwise null.
+     */
+    protected void recordChange(StoreEvent.Type type, String graphname, Model added, Model removed) {
+        recordChange(type, graphname, added, removed, null);
+    }
+
+    /**
+     * Record a change to a graph, with the catalog change already worked out if it is
+     * not null. Used when the triples are not kept but were counted as they were loaded.
+     */
+    protected void recordChange(StoreEvent.Type type, String graphname, Model added, Model removed, GraphCatalog.Change catalogChange) {
+        Transaction t = transaction.get();
+        if (t == null || !t.isWrite()) {
+            throw new EpiException("Store changes can only be recorded within a write");
+        }
+        if (t.changes == null) {
+            t.changes = new ArrayList<StoreEvent>();
+        }
+        t.changes.add( new StoreEvent(this, type, graphname, 0, added, removed) );
+        if (catalog != null) {
+            if (t.catalogChanges == null) {
+                t.catalogChanges = new ArrayList<GraphCatalog.Change>();
+            }
+            t.catalogChanges.add( catalogChange != null ? catalogChange : catalogChange(type, graphname, added, removed) );
+        }
+    }
+
+    /**
+     * Work out the change to the catalog entry for a graph. Where the triples are not
+     * known the stored graph is measured.
+     */
+    protected GraphCatalog.Change catalogChange(StoreEvent.Type type, String graphname, Model added, Model removed) {
+        if (type == StoreEvent.Type.DELETED) {
+            return GraphCatalog.Change.delete(graphname);
+        } else if (added != null && removed != null) {
+            return GraphCatalog.Change.delta(graphname, added.getGraph(), removed.getGraph());
+        } else if (added != null && type == StoreEvent.Type.ADDED) {
+            return GraphCatalog.Change.delta(graphname, added.getGraph(), null);
+        } else if (added != null) {
+            return GraphCatalog.Change.replace(graphname, added.getGraph());
+        } else {
+            return GraphCatalog.Change.replace(graphname, asDataset().getNamedModel(graphname).getGraph());
+        }
+    }
+
+    /**
+     * Advance the versions of the graphs changed by a finished write and notify the
+     * listeners if it was committed. Versions are advanced even for an abort since
+     * not all stores can roll back.
+     */
+    protected void publishChanges(Transaction t, boolean committed) {
+        if (t.changes == null) return;
+        List<StoreEvent> events = new ArrayList<StoreEvent>( t.changes.size() );
+        for (StoreEvent change : t.changes) {
+            long v = version.incrementAndGet();
+            graphVersions.put(change.getGraphname(), v);
+            events.add( new StoreEvent(this, change.getType(), change.getGraphname(), v, change.getAdded(), change.getRemoved()) );
+        }
+        t.changes = null;
+        if (t.catalogChanges != null) {
+            if (committed) {
+                catalog.apply(t.catalogChanges, version.get(), System.currentTimeMillis());
+            }
+            t.catalogChanges = null;
+        }
+        if (committed) {
+            for (StoreEvent event : events) {
+                for (StoreListener listener : listeners) {
+                    try {
+                        listener.storeChanged(event);
+                    } catch (Exception e) {
+                        log.error("Store listener failed on " + event, e);
+                    }
+                }
+            }
+        }
     }
 
     @Override
@@ -232,50 +895,229 @@ public abstract class StoreBase extends ServiceBase implements Store, Service {
         mutators = newl;
     }
 
+    /**
+     * Lock state for a thread. A write lock covers reading so nested read locks
+     * just increase the depth, a read lock can't be upgraded to a write lock.
+     */
+    protected static class Transaction {
+        protected final ReadWrite mode;
+        protected int depth = 1;
+        protected boolean abortOnly = false;
+        protected int batchDepth = 0;
+        protected List<Indexer> batchIndexers;
+        protected List<StoreEvent> changes;
+        protected List<GraphCatalog.Change> catalogChanges;
+        protected List<ChangeJournal.EntryStream> journalEntries;
+        protected final long started = System.nanoTime();
+        protected long startVersion = -1;
+
+        public Transaction(ReadWrite mode) {
+            this.mode = mode;
+        }
+
+        public boolean isWrite() {
+            return mode == ReadWrite.WRITE;
+        }
+    }
+
+    /**
+     * True if readers see a fixed version of the store, so that a long read
+     * does not hold up the writer
+     */
+    public boolean hasIsolatedReads() {
+        return asDataset().supportsTransactions();
+    }
+
+    /** True if the calling thread holds a read or write lock on this store */
+    public boolean isInTransaction() {
+        return transaction.get() != null;
+    }
+
+    /** True if the calling thread holds the write lock on this store */
+    public boolean isInWrite() {
+        Transaction t = transaction.get();
+        return t != null && t.isWrite();
+    }
+
     /** Lock the dataset for reading */
-    public synchronized void lock() {
-        Dataset dataset = asDataset();
-        if (dataset.supportsTransactions()) {
-            dataset.begin(ReadWrite.READ);
-        } else {
-            dataset.asDatasetGraph().getLock().enterCriticalSection(Lock.READ);
+    public void lock() {
+        Transaction t = transaction.get();
+        if (t != null) {
+            t.depth++;
+            return;
         }
+        long start = readWaitTimer.start();
+        // Read the version first, so it is never newer than the data the reader sees
+        long v = version.get();
+        beginTransaction(ReadWrite.READ);
+        t = new Transaction(ReadWrite.READ);
+        t.startVersion = v;
+        transaction.set(t);
+        readWaitTimer.stop(start);
     }
 
     /** Lock the dataset for write */
-    public synchronized void lockWrite() {
-        Dataset dataset = asDataset();
-        if (dataset.supportsTransactions()) {
-            dataset.begin(ReadWrite.WRITE);
-            inWrite = true;
-        } else {
-            dataset.asDatasetGraph().getLock().enterCriticalSection(Lock.WRITE);
+    public void lockWrite() {
+        Transaction t = transaction.get();
+        if (t != null) {
+            if (!t.isWrite()) {
+                throw new EpiException("Can't upgrade a read lock to a write lock");
+            }
+            t.depth++;
+            return;
         }
+        long start = writeWaitTimer.start();
+        beginTransaction(ReadWrite.WRITE);
+        transaction.set( new Transaction(ReadWrite.WRITE) );
+        writeWaitTimer.stop(start);
     }
 
     /** Unlock the dataset */
-    public synchronized void unlock() {
+    public void unlock() {
+        Transaction t = exitTransaction();
+        if (t != null) {
+            finish(t, !t.abortOnly);
+        }
+    }
+
+    /**
+     * Unlock the dataset, aborting the transaction. Only useful if the dataset is transactional.
+     * If the lock is nested then the whole of the outermost transaction will be aborted.
+     */
+    public void abort() {
+        Transaction current = transaction.get();
+        if (current != null) {
+            current.abortOnly = true;
+        }
+        Transaction t = exitTransaction();
+        if (t != null) {
+            finish(t, false);
+        }
+    }
+
+    /**
+     * Close the underlying transaction for a released lock, then commit or cancel its
+     * journal entries and publish its changes
+     */
+    private void finish(Transaction t, boolean commit) {
+        long start = System.nanoTime();
+        try {
+            endTransaction(t.mode, commit);
+        } catch (RuntimeException e) {
+            finishJournal(t, false);
+            throw e;
+        }
+        recordRelease(t, commit, start);
+        try {
+            finishJournal(t, commit);
+        } finally {
+            publishChanges(t, commit);
+        }
+    }
+
+    /**
+     * Queue the journal entries of a committed write, or cancel those of an aborted one.
+     * With <code>logSync</code> this waits, without holding the lock, until they are on disk.
+     */
+    private void finishJournal(Transaction t, boolean committed) {
+        List<ChangeJournal.EntryStream> entries = t.journalEntries;
+        if (entries == null) return;
+        t.journalEntries = null;
+        long last = -1;
+        RuntimeException error = null;
+        for (ChangeJournal.EntryStream entry : entries) {
+            try {
+                if (committed) {
+                    entry.commit();
+                    last = entry.getSequence();
+                } else {
+                    entry.cancel();
+                }
+            } catch (RuntimeException e) {
+                if (error == null) error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        if (logSync && last >= 0) {
+            long start = logTimer.start();
+            try {
+                journal.sync(last);
+            } finally {
+                logTimer.stop(start);
+            }
+        }
+    }
+
+    /**
+     * Record lock hold time and commit time for a finished transaction
+     */
+    private void recordRelease(Transaction t, boolean commit, long endStart) {
+        long now = System.nanoTime();
+        if (t.isWrite()) {
+            writeHoldTimer.update(now - t.started);
+            if (commit) {
+                commits.inc();
+                commitTimer.update(now - endStart);
+            } else {
+                aborts.inc();
+            }
+        } else {
+            readHoldTimer.update(now - t.started);
+        }
+    }
+
+    /**
+     * Leave one level of the current thread's lock, returning the lock state
+     * if that was the outermost level and the underlying transaction should be closed.
+     */
+    private Transaction exitTransaction() {
+        Transaction t = transaction.get();
+        if (t == null) {
+            throw new EpiException("Attempted to unlock a store which is not locked");
+        }
+        if (--t.depth > 0) {
+            return null;
+        }
+        transaction.remove();
+        return t;
+    }
+
+    /** Release a lock, committing if the operation succeeded and aborting otherwise */
+    protected void endWrite(boolean commit) {
+        if (commit) {
+            unlock();
+        } else {
+            abort();
+        }
+    }
+
+    /** Start an underlying transaction, or enter the critical section, for the calling thread */
+    protected void beginTransaction(ReadWrite mode) {
         Dataset dataset = asDataset();
         if (dataset.supportsTransactions()) {
-            if (inWrite) {
-                dataset.commit();
-                inWrite = false;
-            }
-            dataset.end();
+            dataset.begin(mode);
         } else {
-            dataset.asDatasetGraph().getLock().leaveCriticalSection();
+            dataset.asDatasetGraph().getLock().enterCriticalSection(mode == ReadWrite.READ ? Lock.READ : Lock.WRITE);
         }
     }
 
-    /** Unlock the dataset, aborting the transaction. Only useful if the dataset is transactional */
-    public synchronized void abort() {
+    /** Finish the underlying transaction, or leave the critical section, for the calling thread */
+    protected void endTransaction(ReadWrite mode, boolean commit) {
         Dataset dataset = asDataset();
         if (dataset.supportsTransactions()) {
-            if (inWrite) {
-                dataset.abort();
-                inWrite = false;
+            try {
+                if (mode == ReadWrite.WRITE) {
+                    if (commit) {
+                        dataset.commit();
+                    } else {
+                        dataset.abort();
+                    }
+                }
+            } finally {
+                dataset.end();
             }
-            dataset.end();
         } else {
             dataset.asDatasetGraph().getLock().leaveCriticalSection();
         }
@@ -283,9 +1125,219 @@ public abstract class StoreBase extends ServiceBase implements Store, Service {
 
     // Internal methods
 
-    protected void mutate(Model graph) {
+    /**
+     * Start a pool of threads for parsing large N-Triples and N-Quads uploads.
+     * No pool is needed if there is only one thread.
+     */
+    protected void initParser(int threads) {
+        if (threads > 1) {
+            parsePool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "parse-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            parallelParser = new ParallelLineParser(parsePool, threads);
+        }
+    }
+
+    /**
+     * Parse the input stream to the sink, on the calling thread. Line based formats
+     * are parsed in parallel chunks if <code>parseThreads</code> is set.
+     */
+    protected void parse(InputStream input, String base, Lang lang, StreamRDF sink) {
+        if (parallelParser != null && ParallelLineParser.supports(lang)) {
+            parallelParser.parse(input, lang, sink);
+        } else {
+            RDFDataMgr.parse(sink, input, base, lang);
+        }
+    }
+
+    /**
+     * True if streaming uploads are enabled and all mutators can work on streams
+     */
+    protected boolean canStream() {
+        if (!streaming) return false;
         for (Mutator mutator : mutators) {
-            mutator.mutate(graph);
+            if ( ! (mutator instanceof StreamingMutator) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Load an input stream into the named graph in a single parse pass. The parser output
+     * goes to the log (unmutated, as for the Model based calls) and, via the mutators,
+     * to the store and to any streaming indexers. Other indexers are then run
+     * from the stored graph without releasing the write lock.
+     */
+    protected void streamGraph(String action, String graphname, InputStream input, String mimeType, boolean update) {
+        Lang lang = RDFLanguages.contentTypeToLang(mimeType);
+        if (lang == null) {
+            throw new EpiException("Cannot read MIME type: " + mimeType);
+        }
+        List<Indexer> indexers = this.indexers;
+        List<Mutator> mutators = this.mutators;
+        TripleCounter counter = new TripleCounter();
+        TripleCounter storedCounter = catalog == null ? null : new TripleCounter();
+        long start = loadTimer.start();
+        boolean ok = false;
+        lockWrite();
+        try {
+            if (update) {
+                doDeleteGraph(graphname);
+            }
+            Model target = targetModel(graphname);
+            StreamRDFFanOut stored = new StreamRDFFanOut();
+            stored.add( StreamRDFLib.graph(target.getGraph()) );
+            if (storedCounter != null) {
+                stored.add( storedCounter );
+            }
+            for (Indexer i : indexers) {
+                if (i instanceof StreamingIndexer) {
+                    stored.add( ((StreamingIndexer)i).indexStream(graphname, target, update) );
+                }
+            }
+            StreamRDF mutated = stored;
+            for (int i = mutators.size() - 1; i >= 0; i--) {
+                mutated = ((StreamingMutator)mutators.get(i)).mutateStream(mutated);
+            }
+            ChangeJournal.EntryStream logger = logSink(action, graphname);
+            StreamRDFFanOut sink = new StreamRDFFanOut();
+            sink.add( counter );
+            sink.add( logger );
+            sink.add( mutated );
+
+            parse(input, graphname, lang, sink);
+            try { input.close(); } catch (IOException eio) {}
+
+            for (Indexer i : indexers) {
+                if ( ! (i instanceof StreamingIndexer) ) {
+                    if (update) {
+                        i.updateGraph(graphname, target);
+                    } else {
+                        i.addGraph(graphname, target);
+                    }
+                }
+            }
+            GraphCatalog.Change catalogChange = storedCounter == null ? null
+                    : GraphCatalog.Change.counted(graphname, update, storedCounter.count, storedCounter.bytes);
+            recordChange(update ? StoreEvent.Type.UPDATED : StoreEvent.Type.ADDED, graphname, null, null, catalogChange);
+            ok = true;
+        } catch (Exception e) {
+            // The journal entry is cancelled when the write aborts
+            throw new EpiException(e);
+        } finally {
+            endWrite(ok);
+            recordLoad(start, ok ? counter.count : 0);
+        }
+    }
+
+    protected void recordLoad(long start, long triples) {
+        loadTimer.stop(start);
+        triplesLoaded.add(triples);
+    }
+
+    /**
+     * Counts the triples in a stream, and estimates their size for the catalog
+     */
+    protected static class TripleCounter extends StreamRDFBase {
+        protected long count = 0;
+        protected long bytes = 0;
+
+        @Override
+        public void triple(Triple triple) {
+            count++;
+            bytes += GraphCatalog.estimate(triple);
+        }
+
+        @Override
+        public void quad(Quad quad) {
+            count++;
+            bytes += GraphCatalog.estimate( quad.asTriple() );
+        }
+    }
+
+    /**
+     * Apply a graph recovered from the journal, without journaling it again. A graph may
+     * be recovered in several parts, first and last mark the first and last part applied.
+     * If reset is true the graph is first cleared, data may be null if the graph was deleted.
+     * <p>
+     * Indexes may be kept apart from the store and survive it being emptied, so the
+     * indexers are always cleared of the graph on its first part. The graph is indexed
+     * once, from the stored graph, when its last part has been applied.
+     * </p>
+     */
+    protected void replayGraph(String graphname, Model data, boolean reset, boolean first, boolean last) {
+        boolean ok = false;
+        lockWrite();
+        try {
+            if (first) {
+                for (Indexer i : indexers) {
+                    i.deleteGraph(graphname);
+                }
+                if (reset) {
+                    doDeleteGraph(graphname);
+                }
+            }
+            if (data != null) {
+                mutate(data);
+                doAddGraph(graphname, data);
+            }
+            if (last && !indexers.isEmpty()) {
+                if (first) {
+                    if (data != null) {
+                        index(graphname, data, false);
+                    }
+                } else {
+                    index(graphname, targetModel(graphname), false);
+                }
+            }
+            if (reset && first) {
+                recordChange(data == null ? StoreEvent.Type.DELETED : StoreEvent.Type.UPDATED, graphname, data, null);
+            } else {
+                recordChange(StoreEvent.Type.ADDED, graphname, data, null);
+            }
+            ok = true;
+        } finally {
+            endWrite(ok);
+        }
+    }
+
+    /**
+     * Apply a set of changes to a stored graph. Called with the write lock held.
+     */
+    protected void doApplyDelta(String graphname, Model target, Model added, Model removed) {
+        long start = writeTimer.start();
+        try {
+            target.remove(removed);
+            target.add(added);
+        } finally {
+            writeTimer.stop(start);
+        }
+    }
+
+    /**
+     * Return the stored model for a named graph, ready to receive new triples.
+     * Called with the write lock held. All changes to stored graphs go through
+     * this so that stores can track them, e.g. to maintain an indexed union.
+     */
+    protected Model targetModel(String graphname) {
+        return asDataset().getNamedModel(graphname);
+    }
+
+    protected void mutate(Model graph) {
+        if (mutators.isEmpty()) return;
+        long start = mutateTimer.start();
+        try {
+            for (Mutator mutator : mutators) {
+                mutator.mutate(graph);
+            }
+        } finally {
+            mutateTimer.stop(start);
         }
     }
 
@@ -293,7 +1345,7 @@ public abstract class StoreBase extends ServiceBase implements Store, Service {
         if (!mutators.isEmpty()) {
             lockWrite();
             try {
-                mutate( asDataset().getNamedModel(graphname) );
+                mutate( targetModel(graphname) );
             } finally {
                 unlock();
             }
@@ -301,53 +1353,122 @@ public abstract class StoreBase extends ServiceBase implements Store, Service {
     }
 
     protected void index(String graphname, Model graph, boolean update) {
-        for (Indexer i : indexers) {
-            if (update) {
-                i.updateGraph(graphname, graph);
-            } else {
-                i.addGraph(graphname, graph);
+        if (indexers.isEmpty()) return;
+        long start = indexTimer.start();
+        try {
+            for (Indexer i : indexers) {
+                if (update) {
+                    i.updateGraph(graphname, graph);
+                } else {
+                    i.addGraph(graphname, graph);
+                }
             }
+        } finally {
+            indexTimer.stop(start);
+        }
+    }
+
+    /**
+     * Index the subjects affected by a change to a graph. Indexers which can't work
+     * on individual entities reindex the whole graph.
+     */
+    protected void indexDelta(String graphname, Model graph, Model added, Model removed) {
+        Set<Resource> subjects = new LinkedHashSet<Resource>();
+        for (ResIterator ri = added.listSubjects(); ri.hasNext();) {
+            subjects.add( ri.next() );
+        }
+        for (ResIterator ri = removed.listSubjects(); ri.hasNext();) {
+            subjects.add( ri.next() );
+        }
+        long start = indexTimer.start();
+        try {
+            for (Indexer i : indexers) {
+                if (i instanceof DeltaIndexer) {
+                    ((DeltaIndexer)i).updateEntities(graphname, graph, subjects);
+                } else {
+                    i.updateGraph(graphname, graph);
+                }
+            }
+        } finally {
+            indexTimer.stop(start);
         }
     }
 
     protected void indexNamed(String graphname, boolean update) {
-        lock();
+        lockWrite();
         try {
-            index( graphname, asDataset().getNamedModel(graphname), update );
+            index( graphname, targetModel(graphname), update );
         } finally {
             unlock();
         }
     }
 
+    /**
+     * Prepare a journal entry for a change, it is only queued for writing if the write commits
+     */
     protected void logAction(String action, String graph, Model data) {
-        if (logDirectory != null) {
-            String dir = logDirectory + File.separator + NameUtils.encodeSafeName(graph);
-            FileUtil.ensureDir(dir);
-            String filename = String.format("on-%s-%s.ttl", System.currentTimeMillis(), action);
-            File logFile = new File(dir, filename);
+        if (journal != null) {
+            long start = logTimer.start();
             try {
-                if (data != null) {
-                    OutputStream out = new FileOutputStream(logFile);
-                    data.write(out, FileUtils.langTurtle);
-                    out.close();
-                } else {
-                    logFile.createNewFile();
-                }
-            } catch (IOException e) {
-                log.error("Failed to create log file: " + logFile);
+                addJournalEntry( journal.append(action, graph, data) );
+            } finally {
+                logTimer.stop(start);
             }
         }
     }
 
+    private void addJournalEntry(ChangeJournal.EntryStream entry) {
+        Transaction t = transaction.get();
+        if (t == null || !t.isWrite()) {
+            entry.cancel();
+            throw new EpiException("Journal entries can only be recorded within a write");
+        }
+        if (t.journalEntries == null) {
+            t.journalEntries = new ArrayList<ChangeJournal.EntryStream>();
+        }
+        t.journalEntries.add(entry);
+    }
+
     protected void logNamed(String action, String graphname) {
-        if (logDirectory != null) {
+        if (journal != null) {
             lockWrite();
             try {
-                logAction(action, graphname, asDataset().getNamedModel(graphname) );
+                logAction(action, graphname, targetModel(graphname) );
             } finally {
                 unlock();
             }
         }
     }
 
+    /**
+     * Return a stream which logs the triples of a streamed upload, or null if logging is
+     * not configured. The entry is only queued for the journal once the write commits.
+     */
+    protected ChangeJournal.EntryStream logSink(String action, String graphname) {
+        if (journal == null) {
+            return null;
+        }
+        ChangeJournal.EntryStream entry = journal.startEntry(action, graphname);
+        addJournalEntry(entry);
+        return entry;
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (this) {
+            if (asyncUpdater != null) {
+                asyncUpdater.shutdown();
+            }
+        }
+        if (parsePool != null) {
+            parsePool.shutdownNow();
+        }
+        if (catalog != null && catalogFile() != null) {
+            catalog.save( catalogFile() );
+        }
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
 }
@@ -0,0 +1,294 @@
+/******************************************************************
+ * File:        StoreExport.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.stores;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.epimorphics.server.core.ServiceBase;
+import com.epimorphics.server.core.Store;
+import com.epimorphics.util.EpiException;
+import com.epimorphics.util.FileUtil;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+
+/**
+ * Streams the contents of a store as N-Triples or N-Quads. Triples are written
+ * one at a time, from within a read lock, through a fixed size buffer so
+ * the size of the export is not limited by memory.
+ * <p>
+ * For stores whose readers block the writer, such as a MemStore without snapshot reads,
+ * a read lock must not be held while a client downloads. Each graph is instead spooled
+ * to a temporary file within its own read lock and then copied to the output, so a
+ * dataset export from such a store may mix graphs from different versions.
+ * </p>
+ * <p>
+ * Only the named graphs are exported, the default graph of the stores is
+ * either empty or the union of the named graphs.
+ * </p>
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class StoreExport {
+    static Logger log = LoggerFactory.getLogger(StoreExport.class);
+
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Store configuration parameter which must be "true" for the store to be exported over the web API */
+    public static final String EXPORT_PARAM = "export";
+
+    /**
+     * True if the store has been configured to allow web API exports
+     */
+    public static boolean isEnabled(Store store) {
+        return store instanceof ServiceBase && "true".equalsIgnoreCase( ((ServiceBase)store).getParam(EXPORT_PARAM) );
+    }
+
+    /**
+     * True if a read lock on the store can be held for a download without holding up the writer
+     */
+    public static boolean hasIsolatedReads(Store store) {
+        if (store instanceof ShardedStore) {
+            return true;
+        } else if (store instanceof StoreBase) {
+            return ((StoreBase)store).hasIsolatedReads();
+        } else {
+            return store.asDataset().supportsTransactions();
+        }
+    }
+
+    /**
+     * Write a named graph as N-Triples
+     */
+    public static void exportGraph(Store store, String graphname, OutputStream out, boolean gzip) throws IOException {
+        OutputStream stream = open(out, gzip);
+        if (hasIsolatedReads(store)) {
+            StreamRDF writer = StreamRDFLib.writer(stream);
+            writer.start();
+            store.lock();
+            try {
+                write(store, graphname, writer, false);
+            } finally {
+                store.unlock();
+            }
+            writer.finish();
+        } else {
+            spool(store, graphname, stream, false);
+        }
+        close(stream, gzip);
+    }
+
+    /**
+     * Write all the named graphs as N-Quads, from a single read lock if the store's
+     * readers do not block its writer, otherwise spooling each graph in turn.
+     */
+    public static void exportDataset(Store store, OutputStream out, boolean gzip) throws IOException {
+        OutputStream stream = open(out, gzip);
+        if (hasIsolatedReads(store)) {
+            StreamRDF writer = StreamRDFLib.writer(stream);
+            writer.start();
+            store.lock();
+            try {
+                for (String graphname : listGraphs(store)) {
+                    write(store, graphname, writer, true);
+                }
+            } finally {
+                store.unlock();
+            }
+            writer.finish();
+        } else {
+            List<String> graphs;
+            store.lock();
+            try {
+                graphs = listGraphs(store);
+            } finally {
+                store.unlock();
+            }
+            for (String graphname : graphs) {
+                spool(store, graphname, stream, true);
+            }
+        }
+        close(stream, gzip);
+    }
+
+    /**
+     * Write a graph to a temporary file within a read lock, then copy it to the
+     * output once the lock has been released.
+     */
+    protected static void spool(Store store, String graphname, OutputStream out, boolean quads) throws IOException {
+        File spool = File.createTempFile("export", quads ? ".nq" : ".nt");
+        try {
+            OutputStream file = new BufferedOutputStream(new FileOutputStream(spool), BUFFER_SIZE);
+            try {
+                StreamRDF writer = StreamRDFLib.writer(file);
+                writer.start();
+                store.lock();
+                try {
+                    write(store, graphname, writer, quads);
+                } finally {
+                    store.unlock();
+                }
+                writer.finish();
+            } finally {
+                file.close();
+            }
+            Files.copy(spool.toPath(), out);
+        } finally {
+            if (!spool.delete()) {
+                log.warn("Failed to remove export spool file " + spool);
+            }
+        }
+    }
+
+    /**
+     * Write each named graph to its own gzipped N-Quads file in the directory, using
+     * several threads. Each graph is read within its own read lock so the files
+     * may reflect different versions of the store. The files are numbered in graph
+     * name order, as graph-nnnnnn.nq.gz, and are returned in the same order.
+     */
+    public static List<File> exportGraphs(final Store store, File dir, int threads) {
+        FileUtil.ensureDir(dir.getPath());
+        List<String> graphs;
+        store.lock();
+        try {
+            graphs = listGraphs(store);
+        } finally {
+            store.unlock();
+        }
+        Collections.sort(graphs);
+
+        ExecutorService pool = Executors.newFixedThreadPool( Math.max(1, threads) );
+        List<Future<File>> results = new ArrayList<Future<File>>(graphs.size());
+        try {
+            for (int i = 0; i < graphs.size(); i++) {
+                final String graphname = graphs.get(i);
+                final File file = new File(dir, String.format("graph-%06d.nq.gz", i));
+                results.add( pool.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws IOException {
+                        exportGraphQuads(store, graphname, file);
+                        return file;
+                    }
+                }) );
+            }
+            List<File> files = new ArrayList<File>(results.size());
+            for (Future<File> f : results) {
+                files.add( f.get() );
+            }
+            log.info("Exported " + files.size() + " graphs to " + dir);
+            return files;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EpiException("Interrupted during export", e);
+        } catch (ExecutionException e) {
+            throw new EpiException("Export failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    protected static void exportGraphQuads(Store store, String graphname, File file) throws IOException {
+        OutputStream stream = open(new FileOutputStream(file), true);
+        try {
+            StreamRDF writer = StreamRDFLib.writer(stream);
+            writer.start();
+            store.lock();
+            try {
+                write(store, graphname, writer, true);
+            } finally {
+                store.unlock();
+            }
+            writer.finish();
+        } finally {
+            stream.close();
+        }
+    }
+
+    protected static List<String> listGraphs(Store store) {
+        List<String> graphs = new ArrayList<String>();
+        for (Iterator<String> i = store.asDataset().listNames(); i.hasNext();) {
+            graphs.add( i.next() );
+        }
+        return graphs;
+    }
+
+    protected static void write(Store store, String graphname, StreamRDF writer, boolean quads) {
+        if (store instanceof ShardedStore) {
+            // Read the shard directly, the sharded dataset view copies find results
+            store = ((ShardedStore)store).shardFor(graphname);
+        }
+        Node g = NodeFactory.createURI(graphname);
+        Graph graph = store.asDataset().getNamedModel(graphname).getGraph();
+        ExtendedIterator<Triple> it = graph.find(Node.ANY, Node.ANY, Node.ANY);
+        try {
+            while (it.hasNext()) {
+                Triple t = it.next();
+                if (quads) {
+                    writer.quad( new Quad(g, t) );
+                } else {
+                    writer.triple(t);
+                }
+            }
+        } finally {
+            it.close();
+        }
+    }
+
+    protected static OutputStream open(OutputStream out, boolean gzip) throws IOException {
+        if (gzip) {
+            return new GZIPOutputStream(out, BUFFER_SIZE);
+        } else {
+            return new BufferedOutputStream(out, BUFFER_SIZE);
+        }
+    }
+
+    // Finish the stream without closing the underlying output
+    protected static void close(OutputStream stream, boolean gzip) throws IOException {
+        if (gzip) {
+            ((GZIPOutputStream)stream).finish();
+        }
+        stream.flush();
+    }
+}
@@ -0,0 +1,88 @@
+/******************************************************************
+ * File:        StreamRDFFanOut.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.stores;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.jena.riot.system.StreamRDF;
+
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.sparql.core.Quad;
+
+/**
+ * Stream which passes each event on to a list of destination streams, in order.
+ * Quads are passed on as triples, the stream is being directed into a single graph.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class StreamRDFFanOut implements StreamRDF {
+    protected List<StreamRDF> dests = new ArrayList<StreamRDF>();
+
+    public StreamRDFFanOut() {
+    }
+
+    public StreamRDFFanOut(List<StreamRDF> dests) {
+        this.dests.addAll(dests);
+    }
+
+    /**
+     * Add a destination stream, ignores nulls to make optional stages easy to configure
+     */
+    public StreamRDFFanOut add(StreamRDF dest) {
+        if (dest != null) {
+            dests.add(dest);
+        }
+        return this;
+    }
+
+    @Override
+    public void start() {
+        for (StreamRDF dest : dests) dest.start();
+    }
+
+    @Override
+    public void triple(Triple triple) {
+        for (StreamRDF dest : dests) dest.triple(triple);
+    }
+
+    @Override
+    public void quad(Quad quad) {
+        triple( quad.asTriple() );
+    }
+
+    @Override
+    public void base(String base) {
+        for (StreamRDF dest : dests) dest.base(base);
+    }
+
+    @Override
+    public void prefix(String prefix, String iri) {
+        for (StreamRDF dest : dests) dest.prefix(prefix, iri);
+    }
+
+    @Override
+    public void finish() {
+        for (StreamRDF dest : dests) dest.finish();
+    }
+
+}
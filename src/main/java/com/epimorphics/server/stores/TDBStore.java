@@ -21,24 +21,35 @@
 
 package com.epimorphics.server.stores;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import javax.servlet.ServletContext;
 
 import org.apache.jena.riot.Lang;
 import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.system.StreamRDFLib;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.epimorphics.server.core.ServiceConfig;
 import com.epimorphics.util.EpiException;
 import com.epimorphics.util.FileUtil;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
 import com.hp.hpl.jena.query.Dataset;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.tdb.TDB;
+import com.hp.hpl.jena.tdb.StoreConnection;
 import com.hp.hpl.jena.tdb.TDBFactory;
+import com.hp.hpl.jena.tdb.TDBLoader;
+import com.hp.hpl.jena.tdb.store.DatasetGraphTDB;
 
 /**
  * Store implementation using TDB.
@@ -52,6 +63,18 @@ import com.hp.hpl.jena.tdb.TDBFactory;
  *
  * <p>Set "ep={ds}" to register a fuseki query endpoint /ds/query.</p>
  *
+ * <p>Set "preload={dir}" to bulk load the RDF files in that directory when the
+ * store is first created. This uses the TDB bulk loader, bypassing transactions
+ * and the change log, so is much faster than addGraph for initial loads.
+ * Quad files are loaded as is, each triple file is loaded into a graph named by
+ * "preloadBase" plus the file name without extension, or by the file's URI if
+ * there is no preloadBase. Indexers are run over the loaded graphs once the
+ * configuration is complete, after which the store is used transactionally as normal.
+ * The TDB bulk loader builds the secondary triple and quad indexes itself, one after
+ * another, once the data phase is done. It has no supported option to build them in
+ * parallel, so the preload does not attempt to. Use the external tdbloader2 tool, then
+ * point "location" at the result, if parallel index builds are needed.</p>
+ *
  * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
  */
 public class TDBStore extends StoreBase {
@@ -60,16 +83,28 @@ public class TDBStore extends StoreBase {
     public static final String LOCATION_PARAM = "location";
     public static final String UNION_PARAM    = "union";
     public static final String QUERY_ENDPOINT_PARAM    = "ep";
+    public static final String PRELOAD_PARAM  = "preload";
+    public static final String PRELOAD_BASE_PARAM = "preloadBase";
+
+    protected String location;
+    protected List<String> preloaded = new ArrayList<String>();
 
     @Override
     public void init(Map<String, String> config, ServletContext context) {
         super.init(config, context);
-        String location = config.get(LOCATION_PARAM);
+        location = config.get(LOCATION_PARAM);
         if (location == null) {
             throw new EpiException("No location defined for TDB");
         }
         location = ServiceConfig.get().expandFileLocation(location);
         FileUtil.ensureDir(location);
+        if (config.containsKey(PRELOAD_PARAM)) {
+            if (new File(location, "nodes.dat").exists()) {
+                log.info("TDB store at " + location + " already exists, skipping preload");
+            } else {
+                bulkLoad(location, new File( getRequiredFileParam(PRELOAD_PARAM) ));
+            }
+        }
         dataset = TDBFactory.createDataset( location );
 
         if ("true".equalsIgnoreCase( config.get(UNION_PARAM) )) {
@@ -80,13 +115,88 @@ public class TDBStore extends StoreBase {
         installQueryEndpoint(context);
     }
 
+    /**
+     * Load all RDF files in a directory into a new TDB store using the bulk loader.
+     * Must be called before any transactional use of the location.
+     */
+    protected void bulkLoad(String location, File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new EpiException("Can't read preload directory " + dir);
+        }
+        Arrays.sort(files);
+        long start = System.currentTimeMillis();
+        DatasetGraphTDB dsg = StoreConnection.make(location).getBaseDataset();
+        String base = config.get(PRELOAD_BASE_PARAM);
+        List<String> quadFiles = new ArrayList<String>();
+        for (File file : files) {
+            Lang lang = RDFLanguages.filenameToLang( file.getName() );
+            if (!file.isFile() || lang == null) {
+                log.warn("Skipping non-RDF file in preload directory: " + file);
+                continue;
+            }
+            String url = file.toURI().toString();
+            if (RDFLanguages.isQuads(lang)) {
+                quadFiles.add(url);
+            } else {
+                String graphname = url;
+                if (base != null) {
+                    String name = file.getName();
+                    int dot = name.indexOf('.');
+                    graphname = base + (dot > 0 ? name.substring(0, dot) : name);
+                }
+                log.info("Bulk loading " + file + " into " + graphname);
+                TDBLoader.load(dsg.getGraphTDB( NodeFactory.createURI(graphname) ), url, false);
+            }
+        }
+        if (!quadFiles.isEmpty()) {
+            log.info("Bulk loading quads from " + quadFiles);
+            TDBLoader.load(dsg, quadFiles, false);
+        }
+        TDB.sync(dsg);
+
+        for (Iterator<Node> i = dsg.listGraphNodes(); i.hasNext();) {
+            preloaded.add( i.next().getURI() );
+        }
+        log.info(String.format("Preloaded %d graphs in %.1fs",
+                preloaded.size(), (System.currentTimeMillis() - start) / 1000.0));
+    }
+
+    /**
+     * Index any preloaded graphs, now that the indexers have been configured
+     */
+    @Override
+    public void postPostInit() {
+        super.postPostInit();
+        if (!preloaded.isEmpty() && !indexers.isEmpty()) {
+            log.info("Indexing " + preloaded.size() + " preloaded graphs");
+            boolean ok = false;
+            startBatch();
+            try {
+                for (String graphname : preloaded) {
+                    index(graphname, dataset.getNamedModel(graphname), false);
+                }
+                ok = true;
+            } finally {
+                if (ok) {
+                    endBatch();
+                } else {
+                    abortBatch();
+                }
+            }
+        }
+        preloaded.clear();
+    }
+
     @Override
     protected
     void doAddGraph(String graphname, Model graph) {
         lockWrite();
+        long start = writeTimer.start();
         try {
             dataset.getNamedModel(graphname).add(graph);
         } finally {
+            writeTimer.stop(start);
             unlock();
         }
     }
@@ -96,10 +206,12 @@ public class TDBStore extends StoreBase {
     protected
     void doDeleteGraph(String graphname) {
         lockWrite();
+        long start = writeTimer.start();
         try {
             Model store = dataset.getNamedModel(graphname);
             store.removeAll();
         } finally {
+            writeTimer.stop(start);
             unlock();
         }
     }
@@ -116,18 +228,26 @@ public class TDBStore extends StoreBase {
         if (lang == null) {
             throw new EpiException("Cannot read MIME type: " + mimeType);
         }
+        boolean ok = false;
         lockWrite();
+        long start = writeTimer.start();
         try {
-            dataset.getNamedModel(graphname).read(input, graphname, lang.getName());
+            parse(input, graphname, lang, StreamRDFLib.graph(dataset.getNamedModel(graphname).getGraph()));
             try { input.close(); } catch (IOException eio) {}
+            ok = true;
         } catch (Exception e) {
-            abort();
             throw new EpiException(e);
         } finally {
-            unlock();
+            writeTimer.stop(start);
+            endWrite(ok);
         }
     }
 
+    @Override
+    protected File catalogFile() {
+        return new File(location, "catalog.tsv");
+    }
+
     @Override
     public Model getUnionModel() {
         return dataset.getNamedModel("urn:x-arq:UnionGraph");
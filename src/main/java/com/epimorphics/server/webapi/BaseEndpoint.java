@@ -24,6 +24,7 @@ package com.epimorphics.server.webapi;
 import static com.epimorphics.webapi.marshalling.RDFXMLMarshaller.MIME_RDFXML;
 
 import java.io.InputStream;
+import java.util.concurrent.Future;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
@@ -32,10 +33,14 @@ import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 
+import org.apache.jena.riot.RDFLanguages;
+
 import com.epimorphics.server.core.Service;
 import com.epimorphics.server.core.ServiceConfig;
 import com.epimorphics.server.core.Store;
 import com.epimorphics.server.indexers.LuceneIndex;
+import com.epimorphics.server.stores.AsyncUpdater;
+import com.epimorphics.server.stores.StoreBase;
 import com.epimorphics.util.EpiException;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
@@ -113,6 +118,23 @@ public class BaseEndpoint {
         getDefaultStore().updateGraph(graphname, getSafeBodyModel(hh, body));
     }
 
+    /**
+     * As putToDefaultStore but the update is queued on the store's asynchronous
+     * writer and this returns once the body has been received. The returned
+     * future completes when the update has been applied.
+     */
+    public Future<Void> putToDefaultStoreAsync(HttpHeaders hh, InputStream body, String graphname) {
+        Store store = getDefaultStore();
+        if ( ! (store instanceof StoreBase) ) {
+            putToDefaultStore(hh, body, graphname);
+            return AsyncUpdater.UpdateStatus.completed();
+        }
+        if (hh.getMediaType() == null || RDFLanguages.contentTypeToLang( hh.getMediaType().toString() ) == null) {
+            throw new WebApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Non-RDF mime type found in request");
+        }
+        return ((StoreBase)store).updateGraphAsync(graphname, body, hh.getMediaType().toString());
+    }
+
     /**
      * Find the given lucene index
      */
@@ -0,0 +1,89 @@
+/******************************************************************
+ * File:        CatalogAPI.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.webapi;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import com.epimorphics.server.core.ServiceConfig;
+import com.epimorphics.server.core.Store;
+import com.epimorphics.server.stores.GraphCatalog;
+import com.epimorphics.server.stores.GraphCatalog.GraphStats;
+import com.epimorphics.server.stores.StoreBase;
+import com.epimorphics.server.webapi.marshalling.JSFullWriter;
+import com.epimorphics.server.webapi.marshalling.JSONWritable;
+
+/**
+ * Lists the named graphs of a store, from its catalog, as a JSON array of
+ * objects giving the graph name, triple count, approximate size in bytes,
+ * last modified time and version. Set "store" to pick a store other than the default.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Path("system/catalog")
+public class CatalogAPI extends BaseEndpoint {
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public JSONWritable getCatalog(@QueryParam("store") String storename) {
+        Store store = storename == null ? getDefaultStore() : ServiceConfig.get().getServiceAs(storename, Store.class);
+        GraphCatalog catalog = store instanceof StoreBase ? ((StoreBase)store).getCatalog() : null;
+        if (catalog == null) {
+            throw new WebApiException(Response.Status.NOT_FOUND, "No graph catalog for store");
+        }
+        return new CatalogListing( catalog.list() );
+    }
+
+    public static class CatalogListing implements JSONWritable {
+        protected Collection<GraphStats> graphs;
+
+        public CatalogListing(Collection<GraphStats> graphs) {
+            this.graphs = graphs;
+        }
+
+        @Override
+        public void writeTo(JSFullWriter out) {
+            out.startArray();
+            for (Iterator<GraphStats> i = graphs.iterator(); i.hasNext();) {
+                GraphStats s = i.next();
+                out.startObject();
+                out.pair("graph", s.getGraphname());
+                out.pair("triples", s.getTriples());
+                out.pair("bytes", s.getBytes());
+                out.pair("modified", s.getModified());
+                out.pair("version", s.getVersion());
+                out.finishObject();
+                if (i.hasNext()) {
+                    out.arraySep();
+                }
+            }
+            out.finishArray();
+        }
+    }
+}
@@ -30,10 +30,7 @@ import com.epimorphics.server.webapi.impl.DatatableResponse;
 import com.epimorphics.server.webapi.impl.TableResourcePair;
 import com.epimorphics.util.EpiException;
 import com.epimorphics.util.PrefixUtils;
-import com.hp.hpl.jena.query.QueryExecution;
-import com.hp.hpl.jena.query.QueryExecutionFactory;
 import com.hp.hpl.jena.query.QuerySolution;
-import com.hp.hpl.jena.query.ResultSetFactory;
 import com.hp.hpl.jena.query.ResultSetRewindable;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.RDFNode;
@@ -57,14 +54,19 @@ public class DatatableAPI extends BaseEndpoint {
         String columns = getSafeParam(PARAM_columns);
         String storename = getSafeParam(PARAM_store);
         
-        String key = query + "|" + columns;
+        Store store = ServiceConfig.get().getServiceAs(storename, Store.class);
+        if (store == null) {
+            throw new EpiException("Can't find requested store: " + storename);
+        }
+        // Keying on the store version means a changed store never hits stale tables
+        String key = storename + "|" + store.getVersion() + "|" + query + "|" + columns;
 
         ArrayDatatable table = null;
         synchronized (tableCache) {
             table = (ArrayDatatable) tableCache.get(key);
         }
         if (table == null) {
-            table = initializeTable(storename, query, columns);
+            table = initializeTable(store, query, columns);
             synchronized (tableCache) {
                 tableCache.put(key, table);
             }
@@ -83,7 +85,7 @@ public class DatatableAPI extends BaseEndpoint {
         return val;
     }
     
-    private ArrayDatatable initializeTable(String storename, String query, String columns) {
+    private ArrayDatatable initializeTable(Store store, String query, String columns) {
         log.debug("Creating datatable cache for: " + query + " | " + columns);
         String[] varnamesRaw = columns.split(",");
         Object[] varnames = new Object[varnamesRaw.length];
@@ -97,22 +99,9 @@ public class DatatableAPI extends BaseEndpoint {
             }
         }
         
-        Store store = ServiceConfig.get().getServiceAs(storename, Store.class);
-        if (store == null) {
-            throw new EpiException("Can't find requested store: " + storename);
-        }
-        
         Model m = store.getUnionModel();
         String q = PrefixUtils.expandQuery(query, m);
-        QueryExecution qexec = QueryExecutionFactory.create(q, m);
-        store.lock();
-        ResultSetRewindable results = null;
-        try {
-            results = ResultSetFactory.copyResults(qexec.execSelect());
-        } finally {
-            qexec.close();
-            store.unlock();
-        }
+        ResultSetRewindable results = store.select(q);
         Object[][] data = new Object[results.size()][];
         int count = 0;
         while (results.hasNext()) {
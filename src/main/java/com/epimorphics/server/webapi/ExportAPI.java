@@ -0,0 +1,82 @@
+/******************************************************************
+ * File:        ExportAPI.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.webapi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import com.epimorphics.server.core.ServiceConfig;
+import com.epimorphics.server.core.Store;
+import com.epimorphics.server.stores.StoreExport;
+
+/**
+ * Streams a named graph as N-Triples, or all the named graphs of a store as N-Quads.
+ * Parameters are "graph" (omit for the whole store), "store" (defaults to the default
+ * store) and "gzip=true" to compress the response. Only stores configured with
+ * "export=true" can be exported, others give a 403 response.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Path("system/export")
+public class ExportAPI extends BaseEndpoint {
+    public static final String MIME_NTRIPLES = "application/n-triples";
+    public static final String MIME_NQUADS = "application/n-quads";
+
+    @GET
+    public Response export(@QueryParam("graph") final String graph, @QueryParam("store") String storename, @QueryParam("gzip") String gzipParam) {
+        final Store store;
+        if (storename == null) {
+            store = getDefaultStore();
+        } else {
+            store = ServiceConfig.get().getServiceAs(storename, Store.class);
+            if (store == null) {
+                throw new WebApiException(Response.Status.NOT_FOUND, "No such store: " + storename);
+            }
+        }
+        if (!StoreExport.isEnabled(store)) {
+            throw new WebApiException(Response.Status.FORBIDDEN, "Export is not enabled for this store");
+        }
+        final boolean gzip = "true".equalsIgnoreCase(gzipParam);
+        StreamingOutput body = new StreamingOutput() {
+            @Override
+            public void write(OutputStream out) throws IOException, WebApplicationException {
+                if (graph == null) {
+                    StoreExport.exportDataset(store, out, gzip);
+                } else {
+                    StoreExport.exportGraph(store, graph, out, gzip);
+                }
+            }
+        };
+        Response.ResponseBuilder response = Response.ok(body, graph == null ? MIME_NQUADS : MIME_NTRIPLES);
+        if (gzip) {
+            response.header("Content-Encoding", "gzip");
+        }
+        return response.build();
+    }
+}
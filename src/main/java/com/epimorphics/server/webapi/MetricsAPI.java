@@ -0,0 +1,71 @@
+/******************************************************************
+ * File:        MetricsAPI.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+package com.epimorphics.server.webapi;
+
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import com.epimorphics.server.metrics.Metrics;
+import com.epimorphics.server.webapi.marshalling.JSFullWriter;
+import com.epimorphics.server.webapi.marshalling.JSONWritable;
+
+/**
+ * Reports the current values of all the registered metrics as a flat JSON object.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Path("system/metrics")
+public class MetricsAPI {
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public JSONWritable getMetrics() {
+        return new MetricValues( Metrics.getRegistry().getValues() );
+    }
+
+    public static class MetricValues implements JSONWritable {
+        protected Map<String, Number> values;
+
+        public MetricValues(Map<String, Number> values) {
+            this.values = values;
+        }
+
+        @Override
+        public void writeTo(JSFullWriter out) {
+            out.startObject();
+            for (Entry<String, Number> e : values.entrySet()) {
+                Number value = e.getValue();
+                if (value instanceof Double && (((Double)value).isNaN() || ((Double)value).isInfinite())) {
+                    out.key( e.getKey() );
+                    out.print("null");
+                } else {
+                    out.pair(e.getKey(), value);
+                }
+            }
+            out.finishObject();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/******************************************************************
+ * File:        ReindexAPI.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.webapi;
+
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import com.epimorphics.server.core.ServiceConfig;
+import com.epimorphics.server.core.Store;
+import com.epimorphics.server.indexers.LuceneIndex;
+import com.epimorphics.server.indexers.LuceneIndex.Reindex;
+import com.epimorphics.server.webapi.marshalling.JSFullWriter;
+import com.epimorphics.server.webapi.marshalling.JSONWritable;
+import com.epimorphics.util.EpiException;
+
+/**
+ * Controls a background rebuild of a lucene index from a store. POST starts
+ * a rebuild, GET reports its progress as JSON and DELETE cancels it. Parameters
+ * are "index", the name of the index service, and "store" to rebuild from a
+ * store other than the default.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Path("system/reindex")
+public class ReindexAPI extends BaseEndpoint {
+
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    public JSONWritable startReindex(@QueryParam("index") String indexname, @QueryParam("store") String storename) {
+        LuceneIndex index = findIndex(indexname);
+        Store store;
+        if (storename == null) {
+            store = getDefaultStore();
+        } else {
+            store = ServiceConfig.get().getServiceAs(storename, Store.class);
+            if (store == null) {
+                throw new WebApiException(Response.Status.NOT_FOUND, "No such store: " + storename);
+            }
+        }
+        try {
+            return new ReindexStatus( index.startReindex(store) );
+        } catch (EpiException e) {
+            throw new WebApiException(Response.Status.CONFLICT, e.getMessage());
+        }
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public JSONWritable getStatus(@QueryParam("index") String indexname) {
+        Reindex reindex = findIndex(indexname).getReindex();
+        if (reindex == null) {
+            throw new WebApiException(Response.Status.NOT_FOUND, "No index rebuild has been run");
+        }
+        return new ReindexStatus(reindex);
+    }
+
+    @DELETE
+    @Produces(MediaType.APPLICATION_JSON)
+    public JSONWritable cancel(@QueryParam("index") String indexname) {
+        LuceneIndex index = findIndex(indexname);
+        index.cancelReindex();
+        return new ReindexStatus( index.getReindex() );
+    }
+
+    protected LuceneIndex findIndex(String indexname) {
+        LuceneIndex index = indexname == null ? null : ServiceConfig.get().getServiceAs(indexname, LuceneIndex.class);
+        if (index == null) {
+            throw new WebApiException(Response.Status.NOT_FOUND, "No such lucene index: " + indexname);
+        }
+        return index;
+    }
+
+    /**
+     * JSON view of the status of a rebuild, an empty object if there is none
+     */
+    public static class ReindexStatus implements JSONWritable {
+        protected Reindex reindex;
+
+        public ReindexStatus(Reindex reindex) {
+            this.reindex = reindex;
+        }
+
+        @Override
+        public void writeTo(JSFullWriter out) {
+            out.startObject();
+            if (reindex != null) {
+                out.pair("state", reindex.getState().name().toLowerCase());
+                out.pair("progress", reindex.getProgress());
+                out.pair("graphsDone", reindex.getGraphsDone());
+                out.pair("graphsTotal", reindex.getGraphsTotal());
+                out.pair("entities", reindex.getDocs());
+                out.pair("started", reindex.getStarted());
+                if (reindex.getFinished() != 0) {
+                    out.pair("finished", reindex.getFinished());
+                }
+                if (reindex.getError() != null) {
+                    out.pair("error", reindex.getError());
+                }
+            }
+            out.finishObject();
+        }
+    }
+}
@@ -31,10 +31,7 @@ import com.epimorphics.server.webapi.DSAPIManager;
 import com.epimorphics.server.webapi.WebApiException;
 import com.epimorphics.server.webapi.marshalling.JSFullWriter;
 import com.epimorphics.server.webapi.marshalling.JSONWritable;
-import com.hp.hpl.jena.query.QueryExecution;
-import com.hp.hpl.jena.query.QueryExecutionFactory;
 import com.hp.hpl.jena.query.QuerySolution;
-import com.hp.hpl.jena.query.ResultSetFactory;
 import com.hp.hpl.jena.query.ResultSetRewindable;
 import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.rdf.model.Resource;
@@ -163,12 +160,10 @@ public class DSAPI implements JSONWritable {
         store.lock();
         String qstr = query.getQuery();
         log.debug("Project query is: " + qstr);
-        QueryExecution qexec = QueryExecutionFactory.create(qstr, store.getUnionModel());
         try {
-            ResultSetRewindable rs = ResultSetFactory.copyResults( qexec.execSelect() );
+            ResultSetRewindable rs = store.select(qstr);
             return new Projection(this, parseResults(rs, state) );
         } finally {
-            qexec.close();
             store.unlock();
         }
     }
@@ -19,8 +19,6 @@ import com.epimorphics.server.webapi.DSAPIManager;
 import com.epimorphics.server.webapi.marshalling.JSFullWriter;
 import com.epimorphics.server.webapi.marshalling.JSONWritable;
 import com.epimorphics.util.PrefixUtils;
-import com.hp.hpl.jena.query.QueryExecution;
-import com.hp.hpl.jena.query.QueryExecutionFactory;
 import com.hp.hpl.jena.query.QuerySolution;
 import com.hp.hpl.jena.query.ResultSet;
 import com.hp.hpl.jena.rdf.model.RDFNode;
@@ -49,22 +47,17 @@ public class ResourceList implements JSONWritable {
         matches = new ArrayList<>();
         String q = PrefixUtils.expandQuery(query, PrefixService.get().getPrefixes());
         ResourceCache rc = ResourceCache.get();
-        QueryExecution qexec = QueryExecutionFactory.create(q, store.getUnionModel());
-        try {
-            ResultSet results = qexec.execSelect();
-            while (results.hasNext()) {
-                QuerySolution soln = results.next();
-                RDFNode n = soln.get(var);
-                if (n != null) {
-                    Value v = rc.valueFromNode( n );
-                    if (apiBase != null && v instanceof ResourceValue) {
-                        ((ResourceValue)v).setApiBase(apiBase);
-                    }
-                    matches.add( v );
+        ResultSet results = store.select(q);
+        while (results.hasNext()) {
+            QuerySolution soln = results.next();
+            RDFNode n = soln.get(var);
+            if (n != null) {
+                Value v = rc.valueFromNode( n );
+                if (apiBase != null && v instanceof ResourceValue) {
+                    ((ResourceValue)v).setApiBase(apiBase);
                 }
+                matches.add( v );
             }
-        } finally {
-            qexec.close();
         }
     }
     
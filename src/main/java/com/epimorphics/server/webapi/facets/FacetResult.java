@@ -31,6 +31,7 @@ import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.epimorphics.server.core.Store;
 import com.hp.hpl.jena.query.QueryExecution;
 import com.hp.hpl.jena.query.QueryExecutionFactory;
 import com.hp.hpl.jena.query.QuerySolution;
@@ -75,6 +76,25 @@ public class FacetResult {
         facetCounts(model);
     }
 
+    /**
+     * Create and run the search over the default model of a store. The facet query goes through
+     * {@link Store#selectDefault(String)} so repeated searches may be served from the store's query cache.
+     *
+     * @param query  graphpattern part of the query query which will bind ?item to the desired matching resource
+     * @param state  serialized facet search state
+     * @param facetspec  base resource whose facet:facet values define the facets to be used
+     * @param store  the store to be queried, should be locked until the constructor has finished the query
+     */
+    public FacetResult(String query, String state, List<FacetSpec> specList, Store store) {
+        this.baseQuery = query;
+        this.state = new FacetState( specList );
+        this.state.setState(state);
+        initFacets( store.asDataset().getDefaultModel() );
+        String q = this.state.expandQuery(baseQuery);
+        log.debug("Facet query: " + q);
+        facetCounts( store.selectDefault(q) );
+    }
+
     protected void initFacets(Model model) {
         for (FacetSpec fs : getFacetSpecs()) {
             Facet facet = new Facet( fs );
@@ -90,24 +110,27 @@ public class FacetResult {
         String query = state.expandQuery(baseQuery);
         log.debug("Facet query: " + query);
 
-        List<Map<String, RDFNode>> results = new ArrayList<>();
         QueryExecution qexec = QueryExecutionFactory.create(query, model);
         try {
-            ResultSet rs = qexec.execSelect();
-            while (rs.hasNext()) {
-                Map<String, RDFNode> result = new HashMap<>();
-                QuerySolution soln = rs.nextSolution();
-                Iterator<String> names = soln.varNames();
-                while (names.hasNext()) {
-                    String varname = names.next();
-                    RDFNode value = soln.get(varname);
-                    result.put(varname, value);
-                }
-                results.add(result);
-            }
+            facetCounts( qexec.execSelect() );
         } finally {
             qexec.close();
         }
+    }
+
+    protected void facetCounts(ResultSet rs) {
+        List<Map<String, RDFNode>> results = new ArrayList<>();
+        while (rs.hasNext()) {
+            Map<String, RDFNode> result = new HashMap<>();
+            QuerySolution soln = rs.nextSolution();
+            Iterator<String> names = soln.varNames();
+            while (names.hasNext()) {
+                String varname = names.next();
+                RDFNode value = soln.get(varname);
+                result.put(varname, value);
+            }
+            results.add(result);
+        }
 
         filteredResults = new ArrayList<FacetResultEntry>( results.size() );
         Map<RDFNode, FacetResultEntry> index = new HashMap<RDFNode, FacetResultEntry>();
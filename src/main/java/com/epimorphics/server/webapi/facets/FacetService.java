@@ -107,7 +107,7 @@ public class FacetService extends ServiceBase implements Service {
         try {
             store.lock();
 //            return new FacetResult(baseQuery, state, specList, store.getUnionModel());
-            return new FacetResult(baseQuery, state, specList, store.asDataset().getDefaultModel());
+            return new FacetResult(baseQuery, state, specList, store);
         } finally {
             store.unlock();
         }
@@ -0,0 +1,449 @@
+/******************************************************************
+ * File:        TestLuceneIndex.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+
+package com.epimorphics.server.indexers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.TermQuery;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.epimorphics.server.indexers.LuceneIndex.Reindex;
+import com.epimorphics.server.indexers.LuceneIndex.ReindexState;
+import com.epimorphics.server.stores.JournalReplay;
+import com.epimorphics.server.stores.MemStore;
+import com.epimorphics.server.stores.StoreBase;
+import com.epimorphics.server.webapi.ReindexAPI;
+import com.epimorphics.server.webapi.marshalling.JSFullWriter;
+import com.epimorphics.server.webapi.marshalling.JSONWritable;
+import com.epimorphics.util.EpiException;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+public class TestLuceneIndex {
+    static final String NS = "http://example.com/";
+    static final String COLOUR = NS + "colour";
+    static final String CONFIG =
+            "@prefix li: <http://www.epimorphics.com/public/vocabulary/lucene-index#> .\n" +
+            "@prefix rdfs: <http://www.w3.org/2000/01/rdf-schema#> .\n" +
+            "<http://example.com/config> a li:Config ;\n" +
+            "    li:labelProp rdfs:label ;\n" +
+            "    li:valueProp <http://example.com/colour> ;\n" +
+            "    li:categoryProp <http://example.com/colour> .\n";
+    static final String CONFIG_WITH_COMMENTS = CONFIG.replace(" .\n", " ;\n    li:labelProp rdfs:comment .\n");
+
+    protected LuceneIndex index;
+
+    @After
+    public void cleanup() {
+        if (index != null) {
+            index.shutdown();
+        }
+    }
+
+    @Test
+    public void testIndependentInstances() throws IOException {
+        index = index();
+        LuceneIndex other = index();
+        try {
+            index.addGraph(NS + "g1", entities(1, 3, "red"));
+            other.addGraph(NS + "g2", entities(2, 5, "red"));
+            assertEquals(3, index.search("entity", 0, 100).length);
+            assertEquals(5, other.search("entity", 0, 100).length);
+            assertEquals(NS + "g2", other.search("entity", 0, 100)[0].getGraphname());
+        } finally {
+            other.shutdown();
+        }
+    }
+
+    @Test
+    public void testLocationInUse() throws IOException {
+        File dir = Files.createTempDirectory("lucene").toFile();
+        index = index(LuceneIndex.LOCATION_PARAM, dir.getPath());
+        index.addGraph(NS + "g1", entities(1, 3, "red"));
+        try {
+            index(LuceneIndex.LOCATION_PARAM, dir.getPath());
+            fail("Should not open an index location twice");
+        } catch (EpiException e) {
+            // expected
+        }
+
+        // Shutting down releases the location, and the index was committed
+        index.shutdown();
+        index = index(LuceneIndex.LOCATION_PARAM, dir.getPath());
+        assertEquals(3, index.search("entity", 0, 100).length);
+    }
+
+    @Test
+    public void testNearRealTime() throws IOException {
+        // A long maximum staleness, so only a waiting caller gets a prompt reopen
+        index = index(LuceneIndex.NRT_MAX_STALE_PARAM, "30", LuceneIndex.NRT_MIN_STALE_PARAM, "0.01");
+        long generation = index.getGeneration();
+        index.addGraph(NS + "g1", entities(1, 10, "red"));
+        assertTrue( index.getGeneration() > generation );
+
+        long start = System.currentTimeMillis();
+        index.waitForGeneration( index.getGeneration() );
+        assertTrue( System.currentTimeMillis() - start < 10000 );
+        assertEquals(10, index.search("entity", 0, 100).length);
+
+        index.deleteGraph(NS + "g1");
+        index.waitForSearch();
+        assertEquals(0, index.search("entity", 0, 100).length);
+    }
+
+    @Test
+    public void testWaitForSearch() throws IOException {
+        index = index(LuceneIndex.NRT_MAX_STALE_PARAM, "30", LuceneIndex.WAIT_FOR_SEARCH_PARAM, "true");
+        index.addGraph(NS + "g1", entities(1, 10, "red"));
+        assertEquals(10, index.search("entity", 0, 100).length);
+
+        // Within a batch the wait happens once, at the end
+        index.startBatch();
+        index.addGraph(NS + "g2", entities(2, 10, "red"));
+        index.addGraph(NS + "g3", entities(3, 10, "red"));
+        index.endBatch();
+        assertEquals(30, index.search("entity", 0, 100).length);
+    }
+
+    @Test
+    public void testParallelIndexing() throws IOException {
+        index = index(LuceneIndex.INDEX_THREADS_PARAM, "4");
+        int n = LuceneIndex.PARALLEL_CHUNK_SIZE * 5 + 7;
+        index.addGraph(NS + "g1", entities(1, n, "red"));
+        assertEquals(n, index.search("entity", 0, 2 * n).length);
+        assertEquals(1, index.search("\"entity 1 " + (n - 1) + "\"", 0, 10).length);
+
+        index.updateGraph(NS + "g1", entities(1, n, "blue"));
+        assertEquals(n, index.search("entity", 0, 2 * n).length);
+    }
+
+    @Test
+    public void testParallelIndexingFailure() throws Exception {
+        // Entities are chunked in the order the graph lists them, the failing entity starts the
+        // third chunk and the blocked one the fifth, which runs once the first chunks are done
+        int chunk = LuceneIndex.PARALLEL_CHUNK_SIZE;
+        Model data = entities(1, chunk * 5, "red");
+        List<Resource> order = data.listSubjectsWithProperty(RDF.type).toList();
+        final String bad = order.get(chunk * 2).getURI();
+        final String blocked = order.get(chunk * 4).getURI();
+        final CountDownLatch blockedStarted = new CountDownLatch(1);
+        final CountDownLatch blockedCancelled = new CountDownLatch(1);
+        index = init(new LuceneIndex() {
+            @Override
+            protected void writeEntity(boolean update, String graphname, Entity entity) throws IOException {
+                try {
+                    if (entity.uri.equals(bad)) {
+                        blockedStarted.await(10, TimeUnit.SECONDS);
+                        throw new IOException("Failed to write " + entity.uri);
+                    } else if (entity.uri.equals(blocked)) {
+                        blockedStarted.countDown();
+                        new CountDownLatch(1).await(10, TimeUnit.SECONDS);
+                    }
+                } catch (InterruptedException e) {
+                    blockedCancelled.countDown();
+                    throw new IOException("Cancelled");
+                }
+                super.writeEntity(update, graphname, entity);
+            }
+        }, LuceneIndex.INDEX_THREADS_PARAM, "4");
+
+        // A worker failure is reported to the caller, with its cause, and the chunk still running is cancelled
+        try {
+            index.addGraph(NS + "g1", data);
+            fail("Worker failure should propagate");
+        } catch (EpiException e) {
+            assertTrue( e.getCause() instanceof IOException );
+            assertTrue( e.getCause().getMessage().contains(bad) );
+        }
+        assertTrue( blockedCancelled.await(10, TimeUnit.SECONDS) );
+
+        // The worker pool is still usable
+        index.addGraph(NS + "g2", entities(2, 10, "red"));
+        assertEquals(10, index.search(new TermQuery(new Term(LuceneIndex.FIELD_GRAPH, NS + "g2")), 0, 100).length);
+    }
+
+    @Test
+    public void testFacetSearch() throws IOException {
+        index = index();
+        index.addGraph(NS + "g1", entities(1, 6, "red"));
+        index.addGraph(NS + "g2", entities(2, 3, "blue"));
+        index.addGraph(NS + "g3", entities(3, 1, "green"));
+
+        FacetSearchResult result = index.facetSearch("entity", null, 0, 5, 10);
+        assertEquals(10, result.getTotalHits());
+        assertEquals(5, result.getHits().length);
+        Map<String, Long> counts = result.getFacetCounts(COLOUR);
+        assertEquals(3, counts.size());
+        assertEquals(6L, (long)counts.get("red"));
+        assertEquals(3L, (long)counts.get("blue"));
+        assertEquals(1L, (long)counts.get("green"));
+        assertEquals("red", counts.keySet().iterator().next());
+
+        // Only the most frequent values are returned
+        assertEquals(2, index.facetSearch("entity", null, 0, 5, 2).getFacetCounts(COLOUR).size());
+
+        // Drill down restricts the matches and the counts
+        Map<String, String> drillDown = new HashMap<String, String>();
+        drillDown.put(COLOUR, "blue");
+        result = index.facetSearch("entity", drillDown, 0, 10, 10);
+        assertEquals(3, result.getTotalHits());
+        assertEquals(3, result.getHits().length);
+        assertEquals(1, result.getFacetCounts(COLOUR).size());
+        assertEquals(3L, (long)result.getFacetCounts(COLOUR).get("blue"));
+
+        // Counts follow updates and deletes
+        index.updateGraph(NS + "g1", entities(1, 6, "blue"));
+        index.deleteGraph(NS + "g3");
+        counts = index.facetSearch("entity", null, 0, 10, 10).getFacetCounts(COLOUR);
+        assertEquals(1, counts.size());
+        assertEquals(9L, (long)counts.get("blue"));
+    }
+
+    @Test
+    public void testReindex() throws Exception {
+        File configFile = writeConfig(CONFIG);
+        index = index(LuceneIndex.CONFIG_PARAM, configFile.getPath());
+        MemStore store = memStore(index);
+        for (int i = 0; i < 5; i++) {
+            store.addGraph(NS + "g" + i, entities(i, 10, "red"));
+        }
+        assertEquals(50, index.search("entity", 0, 100).length);
+        assertEquals(0, index.search("remark", 0, 100).length);
+
+        // The new configuration only applies once the rebuild has swapped in
+        write(configFile, CONFIG_WITH_COMMENTS);
+        Reindex reindex = index.startReindex(store);
+        assertTrue( reindex.await(10000) );
+        assertEquals(ReindexState.COMPLETE, reindex.getState());
+        assertEquals(5, reindex.getGraphsTotal());
+        assertEquals(5, reindex.getGraphsDone());
+        assertEquals(50, reindex.getDocs());
+        assertEquals(1.0, reindex.getProgress(), 0.001);
+        assertTrue( reindex.getFinished() >= reindex.getStarted() );
+        assertEquals(50, index.search("entity", 0, 100).length);
+        assertEquals(50, index.search("remark", 0, 100).length);
+
+        store.addGraph(NS + "g5", entities(5, 10, "red"));
+        assertEquals(60, index.search("remark", 0, 100).length);
+
+        String json = toJson( new ReindexAPI.ReindexStatus(reindex) );
+        assertTrue( json.contains("\"state\" : \"complete\"") );
+        assertTrue( json.contains("\"entities\" : 50") );
+    }
+
+    @Test
+    public void testCancelledReindex() throws Exception {
+        File configFile = writeConfig(CONFIG);
+        index = index(LuceneIndex.CONFIG_PARAM, configFile.getPath());
+        MemStore store = memStore(index);
+        store.addGraph(NS + "g0", entities(0, 10, "red"));
+
+        // Holding the store lock stops the rebuild before it reads any graphs
+        write(configFile, CONFIG_WITH_COMMENTS);
+        Reindex reindex;
+        store.lockWrite();
+        try {
+            reindex = index.startReindex(store);
+            assertEquals(ReindexState.RUNNING, reindex.getState());
+            assertEquals(0.0, reindex.getProgress(), 0.001);
+            try {
+                index.startReindex(store);
+                fail("Should not start a second rebuild");
+            } catch (Exception e) {
+                // expected
+            }
+            index.cancelReindex();
+        } finally {
+            store.unlock();
+        }
+        assertTrue( reindex.await(10000) );
+        assertEquals(ReindexState.CANCELLED, reindex.getState());
+
+        // The index and its configuration are unchanged
+        assertEquals(10, index.search("entity", 0, 100).length);
+        store.addGraph(NS + "g1", entities(1, 10, "red"));
+        assertEquals(20, index.search("entity", 0, 100).length);
+        assertEquals(0, index.search("remark", 0, 100).length);
+    }
+
+    @Test
+    public void testStreamedUpload() throws IOException {
+        index = index();
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(StoreBase.STREAMING_PARAM, "true");
+        MemStore store = new MemStore();
+        store.init(config, null);
+        store.addIndexer(index);
+
+        // Each subject comes back once per property, so no entity is contiguous in the stream
+        Model data = entities(1, 10, "red");
+        StringWriter nt = new StringWriter();
+        for (Property p : new Property[]{ RDF.type, RDFS.label, RDFS.comment, data.createProperty(COLOUR) }) {
+            ModelFactory.createDefaultModel()
+                .add( data.listStatements(null, p, (RDFNode)null) )
+                .write(nt, "N-TRIPLES");
+        }
+        byte[] upload = nt.toString().getBytes("UTF-8");
+
+        store.addGraph(NS + "g1", new ByteArrayInputStream(upload), "application/n-triples");
+        assertTrue( store.asDataset().getNamedModel(NS + "g1").isIsomorphicWith(data) );
+        checkOneDocument(1, 10);
+        assertEquals(10, index.search("entity", 0, 100).length);
+
+        store.updateGraph(NS + "g1", new ByteArrayInputStream(upload), "application/n-triples");
+        checkOneDocument(1, 10);
+        assertEquals(10, index.search("entity", 0, 100).length);
+    }
+
+    @Test
+    public void testJournalReplay() throws IOException {
+        index = index();
+        String logDir = Files.createTempDirectory("journal").toString();
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(StoreBase.LOG_PARAM, logDir);
+        config.put(StoreBase.LOG_SYNC_PARAM, "true");
+        MemStore store = new MemStore();
+        store.init(config, null);
+        store.addIndexer(index);
+
+        // Each entity is built up over two journal entries
+        Model labels = entities(1, 10, "red");
+        Model colours = ModelFactory.createDefaultModel();
+        colours.add( labels.listStatements(null, labels.createProperty(COLOUR), (RDFNode)null) );
+        labels.remove(colours);
+        store.addGraph(NS + "g1", labels);
+        store.addGraph(NS + "g1", colours);
+        store.addGraph(NS + "g2", entities(2, 5, "blue"));
+        store.shutdown();
+
+        // The index outlives the store, replay must not add a second document per entity
+        config.put(StoreBase.REPLAY_PARAM, "true");
+        MemStore replayed = new MemStore();
+        replayed.init(config, null);
+        replayed.addIndexer(index);
+        replayed.postPostInit();
+        checkOneDocument(1, 10);
+        checkOneDocument(2, 5);
+
+        // Graphs replayed in parts are indexed once they are complete
+        replayed = new MemStore();
+        replayed.init(new HashMap<String, String>(), null);
+        replayed.addIndexer(index);
+        new JournalReplay(replayed, logDir).setThreads(2).setMaxPending(1).replay();
+        checkOneDocument(1, 10);
+        checkOneDocument(2, 5);
+        assertEquals(15, index.search("entity", 0, 100).length);
+    }
+
+    /**
+     * Check each entity of a graph built by entities() has a single document holding all its values
+     */
+    protected void checkOneDocument(int graph, int n) {
+        for (int i = 0; i < n; i++) {
+            LuceneResult[] results = index.search(new TermQuery(new Term(LuceneIndex.FIELD_URI, NS + "entity-" + graph + "-" + i)), 0, 10);
+            assertEquals(1, results.length);
+            assertEquals(1, results[0].fieldValues(RDFS.label.getURI()).length);
+            assertEquals(1, results[0].fieldValues(COLOUR).length);
+        }
+    }
+
+    protected LuceneIndex index(String... params) throws IOException {
+        return init(new LuceneIndex(), params);
+    }
+
+    protected LuceneIndex init(LuceneIndex index, String... params) throws IOException {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(LuceneIndex.CONFIG_PARAM, writeConfig(CONFIG).getPath());
+        for (int i = 0; i + 1 < params.length; i += 2) {
+            config.put(params[i], params[i+1]);
+        }
+        index.init(config, null);
+        return index;
+    }
+
+    protected MemStore memStore(LuceneIndex index) {
+        MemStore store = new MemStore();
+        store.init(new HashMap<String, String>(), null);
+        store.addIndexer(index);
+        return store;
+    }
+
+    protected File writeConfig(String config) throws IOException {
+        File file = File.createTempFile("lucene-config", ".ttl");
+        file.deleteOnExit();
+        write(file, config);
+        return file;
+    }
+
+    protected void write(File file, String content) throws IOException {
+        FileWriter out = new FileWriter(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * A graph of typed entities, with labels, comments and a colour
+     */
+    protected Model entities(int graph, int n, String colour) {
+        Model model = ModelFactory.createDefaultModel();
+        for (int i = 0; i < n; i++) {
+            Resource r = model.createResource(NS + "entity-" + graph + "-" + i);
+            r.addProperty(RDF.type, RDFS.Resource);
+            r.addProperty(RDFS.label, "entity " + graph + " " + i);
+            r.addProperty(RDFS.comment, "remark");
+            r.addProperty(model.createProperty(COLOUR), colour);
+        }
+        return model;
+    }
+
+    protected String toJson(JSONWritable value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JSFullWriter out = new JSFullWriter(bytes);
+        out.startOutput();
+        value.writeTo(out);
+        out.finishOutput();
+        return bytes.toString("UTF-8");
+    }
+}
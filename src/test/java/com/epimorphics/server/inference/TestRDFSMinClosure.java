@@ -23,9 +23,12 @@ package com.epimorphics.server.inference;
 
 import static org.junit.Assert.assertTrue;
 
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.system.StreamRDFLib;
 import org.junit.Test;
 
 import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
 import com.hp.hpl.jena.util.FileManager;
 
 public class TestRDFSMinClosure {
@@ -38,4 +41,17 @@ public class TestRDFSMinClosure {
         closureMutator.mutate(data);
         assertTrue( data.isIsomorphicWith( FileManager.get().loadModel("src/test/resources/testAboxClosure.ttl")) );
     }
+
+    @Test
+    public void testStreaming() {
+        Model ontology = FileManager.get().loadModel("src/test/resources/ontology.ttl");
+        RDFSMinClosure closureMutator = new RDFSMinClosure(ontology);
+        Model data =  FileManager.get().loadModel("src/test/resources/testAbox.ttl");
+        closureMutator.mutate(data);
+
+        Model streamed = ModelFactory.createDefaultModel();
+        RDFDataMgr.parse(closureMutator.mutateStream( StreamRDFLib.graph(streamed.getGraph()) ), "src/test/resources/testAbox.ttl");
+        assertTrue( streamed.isIsomorphicWith(data) );
+        assertTrue( streamed.isIsomorphicWith( FileManager.get().loadModel("src/test/resources/testAboxClosure.ttl")) );
+    }
 }
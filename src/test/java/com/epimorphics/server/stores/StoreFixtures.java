@@ -0,0 +1,72 @@
+/******************************************************************
+ * File:        StoreFixtures.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+
+package com.epimorphics.server.stores;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.util.FileManager;
+
+/**
+ * Shared setup for the store tests.
+ */
+public class StoreFixtures {
+    public static final String TEST_DATA = "src/test/data/blue.ttl";
+
+    /**
+     * Return a config map built from alternating parameter names and values
+     */
+    public static Map<String, String> config(String... params) {
+        Map<String, String> config = new HashMap<String, String>();
+        for (int i = 0; i + 1 < params.length; i += 2) {
+            config.put(params[i], params[i+1]);
+        }
+        return config;
+    }
+
+    /**
+     * Create and initialize a MemStore, configured by alternating parameter names and values
+     */
+    public static MemStore memStore(String... params) {
+        return memStore( config(params) );
+    }
+
+    public static MemStore memStore(Map<String, String> config) {
+        MemStore store = new MemStore();
+        store.init(config, null);
+        return store;
+    }
+
+    /**
+     * Load a fresh copy of the test data
+     */
+    public static Model testData() {
+        return FileManager.get().loadModel(TEST_DATA);
+    }
+
+    public static Model copy(Model data) {
+        return ModelFactory.createDefaultModel().add(data);
+    }
+}
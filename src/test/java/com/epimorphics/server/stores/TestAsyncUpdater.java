@@ -0,0 +1,52 @@
+/******************************************************************
+ * File:        TestAsyncUpdater.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+
+package com.epimorphics.server.stores;
+
+import java.io.FileInputStream;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static com.epimorphics.server.stores.StoreFixtures.*;
+
+import com.hp.hpl.jena.rdf.model.Model;
+
+public class TestAsyncUpdater {
+
+    @Test
+    public void testAsyncUpdate() throws Exception {
+        MemStore store = memStore();
+        Model data = testData();
+
+        Future<Void> add = store.addGraphAsync("http://example.com/g1", copy(data));
+        Future<Void> update = store.updateGraphAsync("http://example.com/g2", new FileInputStream(TEST_DATA), "text/turtle");
+        update.get();
+        assertTrue( add.isDone() );
+        assertTrue( store.asDataset().getNamedModel("http://example.com/g1").isIsomorphicWith(data) );
+        assertTrue( store.asDataset().getNamedModel("http://example.com/g2").isIsomorphicWith(data) );
+
+        store.deleteGraphAsync("http://example.com/g1").get();
+        assertTrue( store.asDataset().getNamedModel("http://example.com/g1").isEmpty() );
+        store.shutdown();
+    }
+}
@@ -0,0 +1,147 @@
+/******************************************************************
+ * File:        TestChangeJournal.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+
+package com.epimorphics.server.stores;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static com.epimorphics.server.stores.StoreFixtures.*;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+public class TestChangeJournal {
+
+    @Test
+    public void testJournalReplay() throws IOException {
+        String logDir = Files.createTempDirectory("journal").toString();
+        Map<String, String> config = config(StoreBase.LOG_PARAM, logDir, StoreBase.LOG_SYNC_PARAM, "true");
+        MemStore store = memStore(config);
+        Model data = testData();
+        store.addGraph("http://example.com/g1", copy(data));
+        store.addGraph("http://example.com/g2", copy(data));
+        store.deleteGraph("http://example.com/g1");
+        store.updateGraph("http://example.com/g3", copy(data));
+
+        // An aborted write must not reach the journal
+        store.startBatch();
+        store.addGraph("http://example.com/g4", copy(data));
+        store.abortBatch();
+        store.shutdown();
+
+        config.put(StoreBase.REPLAY_PARAM, "true");
+        MemStore replayed = memStore(config);
+        replayed.postPostInit();
+        assertTrue( replayed.asDataset().getNamedModel("http://example.com/g1").isEmpty() );
+        assertTrue( replayed.asDataset().getNamedModel("http://example.com/g2").isIsomorphicWith(data) );
+        assertTrue( replayed.asDataset().getNamedModel("http://example.com/g3").isIsomorphicWith(data) );
+        assertFalse( replayed.asDataset().containsNamedModel("http://example.com/g4") );
+        replayed.shutdown();
+    }
+
+    @Test
+    public void testTruncatedJournal() throws IOException {
+        String logDir = Files.createTempDirectory("journal").toString();
+        Map<String, String> config = config(StoreBase.LOG_PARAM, logDir, StoreBase.LOG_SYNC_PARAM, "true");
+        MemStore store = memStore(config);
+        Model data = testData();
+        store.addGraph("http://example.com/g1", copy(data));
+        store.shutdown();
+
+        // Simulate a crash part way through writing an entry, leaving no gzip trailer
+        File segment = new File(logDir, String.format("%s%020d%s", ChangeJournal.SEGMENT_PREFIX, 2, ChangeJournal.SEGMENT_SUFFIX));
+        FileOutputStream file = new FileOutputStream(segment);
+        GZIPOutputStream out = new GZIPOutputStream(file, 1024, true);
+        out.write( (ChangeJournal.ENTRY_MARKER + "2 0 ADD http://example.com/g2\n").getBytes("UTF-8") );
+        out.write( "<http://example.com/s> <http://example.com/p> \"trunc".getBytes("UTF-8") );
+        out.flush();
+        file.close();
+
+        MemStore replayed = memStore();
+        new JournalReplay(replayed, logDir).replay();
+        assertTrue( replayed.asDataset().getNamedModel("http://example.com/g1").isIsomorphicWith(data) );
+        assertFalse( replayed.asDataset().containsNamedModel("http://example.com/g2") );
+
+        // The journal carries on after the damaged segment
+        MemStore reopened = memStore(config);
+        assertEquals(2, reopened.journal.getLastSequence());
+        reopened.addGraph("http://example.com/g3", copy(data));
+        reopened.shutdown();
+        replayed = memStore();
+        new JournalReplay(replayed, logDir).replay();
+        assertTrue( replayed.asDataset().getNamedModel("http://example.com/g3").isIsomorphicWith(data) );
+        assertFalse( replayed.asDataset().containsNamedModel("http://example.com/g2") );
+    }
+
+    @Test
+    public void testQueuedMemoryLimit() throws IOException {
+        String logDir = Files.createTempDirectory("journal").toString();
+        ChangeJournal journal = new ChangeJournal(logDir);
+        Model data = testData();
+        journal.append(StoreBase.ADD_ACTION, "http://example.com/g1", data).commit();
+
+        // With no memory to spare every queued entry goes to disk first
+        journal.maxQueuedMemory = 0;
+        for (int i = 2; i <= 3; i++) {
+            ChangeJournal.EntryStream entry = journal.append(StoreBase.ADD_ACTION, "http://example.com/g" + i, data);
+            entry.commit();
+            assertNull( entry.entry.spool.buffer );
+        }
+        journal.sync(3);
+        assertEquals(0, journal.queuedMemory.get());
+        journal.close();
+
+        MemStore replayed = memStore();
+        new JournalReplay(replayed, logDir).replay();
+        for (int i = 1; i <= 3; i++) {
+            assertTrue( replayed.asDataset().getNamedModel("http://example.com/g" + i).isIsomorphicWith(data) );
+        }
+    }
+
+    @Test
+    public void testReplayInParts() throws IOException {
+        String logDir = Files.createTempDirectory("journal").toString();
+        MemStore store = memStore(StoreBase.LOG_PARAM, logDir, StoreBase.LOG_SYNC_PARAM, "true");
+        Model data = testData();
+        Model extra = ModelFactory.createDefaultModel().add(RDFS.Class, RDFS.label, "class");
+        store.updateGraph("http://example.com/g1", copy(extra));
+        store.updateGraph("http://example.com/g1", copy(data));
+        store.addGraph("http://example.com/g1", copy(extra));
+        store.addGraph("http://example.com/g2", copy(data));
+        store.addGraph("http://example.com/g1", copy(data));
+        store.shutdown();
+
+        MemStore replayed = memStore();
+        new JournalReplay(replayed, logDir).setThreads(2).setMaxPending(1).replay();
+        Model expected = copy(data).add(extra);
+        assertTrue( replayed.asDataset().getNamedModel("http://example.com/g1").isIsomorphicWith(expected) );
+        assertTrue( replayed.asDataset().getNamedModel("http://example.com/g2").isIsomorphicWith(data) );
+    }
+}
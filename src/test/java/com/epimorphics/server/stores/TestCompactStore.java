@@ -0,0 +1,105 @@
+/******************************************************************
+ * File:        TestCompactStore.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.stores;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.util.FileManager;
+import com.hp.hpl.jena.vocabulary.RDF;
+
+public class TestCompactStore {
+
+    @Test
+    public void testCompactStore() {
+        checkStore(false);
+        checkStore(true);
+    }
+
+    private void checkStore(boolean offHeap) {
+        CompactStore store = new CompactStore();
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(CompactStore.OFF_HEAP_PARAM, Boolean.toString(offHeap));
+        store.init(config, null);
+        Model data = FileManager.get().loadModel("src/test/data/blue.ttl");
+
+        store.addGraph("http://example.com/g1", ModelFactory.createDefaultModel().add(data));
+        store.addGraph("http://example.com/g2", ModelFactory.createDefaultModel().add(data));
+        assertTrue( store.asDataset().getNamedModel("http://example.com/g1").isIsomorphicWith(data) );
+        assertTrue( store.getUnionModel().isIsomorphicWith(data) );
+
+        Resource subject = data.listSubjects().next();
+        Model g1 = store.asDataset().getNamedModel("http://example.com/g1");
+        assertEquals( data.listStatements(subject, null, (Resource)null).toList().size(),
+                g1.listStatements(subject, null, (Resource)null).toList().size() );
+        assertFalse( g1.contains(subject, RDF.type, RDF.Property) );
+
+        store.deleteGraph("http://example.com/g1");
+        assertTrue( store.getUnionModel().isIsomorphicWith(data) );
+        store.deleteGraph("http://example.com/g2");
+        assertTrue( store.getUnionModel().isEmpty() );
+    }
+
+    @Test
+    public void testIncrementalWrites() {
+        CompactStore store = new CompactStore();
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(CompactStore.OFF_HEAP_PARAM, "true");
+        store.init(config, null);
+        Property p = ModelFactory.createDefaultModel().createProperty("http://example.com/p");
+
+        // Enough small writes to go through several merges of the buffered changes
+        Model all = ModelFactory.createDefaultModel();
+        for (int w = 0; w < 100; w++) {
+            Model m = ModelFactory.createDefaultModel();
+            for (int i = 0; i < 50; i++) {
+                m.add(m.createResource("http://example.com/r" + (w * 50 + i)), p, "v" + (i % 7));
+            }
+            all.add(m);
+            store.addGraph("http://example.com/g1", m);
+            store.addGraph("http://example.com/g" + (w % 3 + 2), m);
+        }
+        Model g1 = store.asDataset().getNamedModel("http://example.com/g1");
+        assertEquals(5000, g1.size());
+        assertTrue( g1.isIsomorphicWith(all) );
+        assertEquals(800, g1.listSubjectsWithProperty(p, "v0").toList().size());
+        assertTrue( store.getUnionModel().isIsomorphicWith(all) );
+
+        Model half = ModelFactory.createDefaultModel();
+        for (int i = 0; i < 5000; i += 2) {
+            half.add(half.createResource("http://example.com/r" + i), p, "v" + (i % 50 % 7));
+        }
+        store.updateGraph("http://example.com/g1", half);
+        assertTrue( store.asDataset().getNamedModel("http://example.com/g1").isIsomorphicWith(half) );
+        store.deleteGraph("http://example.com/g2");
+        store.deleteGraph("http://example.com/g3");
+        store.deleteGraph("http://example.com/g4");
+        assertTrue( store.getUnionModel().isIsomorphicWith(half) );
+    }
+}
@@ -0,0 +1,93 @@
+/******************************************************************
+ * File:        TestGraphCatalog.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+
+package com.epimorphics.server.stores;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static com.epimorphics.server.stores.StoreFixtures.*;
+
+import com.epimorphics.server.stores.GraphCatalog.GraphStats;
+import com.epimorphics.server.webapi.CatalogAPI;
+import com.epimorphics.server.webapi.marshalling.JSFullWriter;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+public class TestGraphCatalog {
+
+    @Test
+    public void testCatalog() {
+        MemStore store = memStore(StoreBase.CATALOG_PARAM, "true");
+        store.postPostInit();
+        GraphCatalog catalog = store.getCatalog();
+        assertEquals(0, catalog.size());
+
+        store.addGraph("http://example.com/g1", testData());
+        store.addGraph("http://example.com/g2", ModelFactory.createDefaultModel().add(RDFS.Class, RDFS.label, "class"));
+        assertEquals(2, catalog.size());
+        assertEquals(3, catalog.get("http://example.com/g1").getTriples());
+        assertTrue( catalog.get("http://example.com/g1").getBytes() > 0 );
+        assertEquals(store.getGraphVersion("http://example.com/g1"), catalog.get("http://example.com/g1").getVersion());
+
+        store.updateGraph("http://example.com/g1", ModelFactory.createDefaultModel().add(RDFS.Class, RDFS.label, "class"));
+        assertEquals(1, catalog.get("http://example.com/g1").getTriples());
+        store.deleteGraph("http://example.com/g2");
+        assertEquals(1, catalog.size());
+        assertNull( catalog.get("http://example.com/g2") );
+    }
+
+    @Test
+    public void testStreamedCatalog() throws IOException {
+        MemStore store = memStore(StoreBase.CATALOG_PARAM, "true", StoreBase.STREAMING_PARAM, "true");
+        store.postPostInit();
+        GraphCatalog catalog = store.getCatalog();
+
+        // Streamed uploads are counted as they load
+        store.addGraph("http://example.com/g1", testData());
+        store.addGraph("http://example.com/g2", new FileInputStream(TEST_DATA), "text/turtle");
+        GraphStats stats = catalog.get("http://example.com/g2");
+        assertEquals(3, stats.getTriples());
+        assertEquals(catalog.get("http://example.com/g1").getBytes(), stats.getBytes());
+
+        store.updateGraph("http://example.com/g2", new FileInputStream(TEST_DATA), "text/turtle");
+        assertEquals(3, catalog.get("http://example.com/g2").getTriples());
+    }
+
+    @Test
+    public void testCatalogJson() throws Exception {
+        MemStore store = memStore(StoreBase.CATALOG_PARAM, "true");
+        store.postPostInit();
+        store.addGraph("http://example.com/\"g\"", testData());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JSFullWriter out = new JSFullWriter(bytes);
+        out.startOutput();
+        new CatalogAPI.CatalogListing( store.getCatalog().list() ).writeTo(out);
+        out.finishOutput();
+        String json = bytes.toString("UTF-8");
+        assertTrue( json.contains("\"graph\" : \"http://example.com/\\\"g\\\"\"") );
+        assertTrue( json.contains("\"triples\" : 3") );
+    }
+}
@@ -0,0 +1,78 @@
+/******************************************************************
+ * File:        TestIndexedUnion.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+
+package com.epimorphics.server.stores;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static com.epimorphics.server.stores.StoreFixtures.*;
+
+import com.epimorphics.server.core.Mutator;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ResIterator;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+public class TestIndexedUnion {
+
+    @Test
+    public void testIndexedUnion() {
+        MemStore store = memStore(MemStore.UNION_PARAM, MemStore.UNION_INDEXED);
+        Model data = testData();
+
+        store.addGraph("http://example.com/g1", copy(data));
+        store.addGraph("http://example.com/g2", copy(data));
+        assertTrue( store.getUnionModel().isIsomorphicWith(data) );
+
+        store.deleteGraph("http://example.com/g1");
+        assertTrue( store.getUnionModel().isIsomorphicWith(data) );
+
+        store.deleteGraph("http://example.com/g2");
+        assertTrue( store.getUnionModel().isEmpty() );
+    }
+
+    @Test
+    public void testMutatedUpload() throws IOException {
+        MemStore store = memStore(MemStore.UNION_PARAM, MemStore.UNION_INDEXED);
+        store.addMutator(new Mutator() {
+            @Override
+            public void mutate(Model data) {
+                for (ResIterator i = data.listSubjects(); i.hasNext();) {
+                    Resource subject = i.next();
+                    data.add(subject, RDF.type, RDFS.Resource);
+                }
+            }
+        });
+
+        store.addGraph("http://example.com/g1", new FileInputStream(TEST_DATA), "text/turtle");
+        Model stored = store.asDataset().getNamedModel("http://example.com/g1");
+        assertEquals(4, stored.size());
+        assertTrue( store.getUnionModel().isIsomorphicWith(stored) );
+
+        store.deleteGraph("http://example.com/g1");
+        assertTrue( store.getUnionModel().isEmpty() );
+    }
+}
@@ -0,0 +1,157 @@
+/******************************************************************
+ * File:        TestMemSnapshot.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+
+package com.epimorphics.server.stores;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static com.epimorphics.server.stores.StoreFixtures.*;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+public class TestMemSnapshot {
+
+    @Test
+    public void testSnapshot() throws IOException {
+        File file = File.createTempFile("store", ".snapshot");
+        file.delete();
+        Map<String, String> config = config(MemStore.SNAPSHOT_PARAM, file.getPath());
+        MemStore store = memStore(config);
+        Model data = testData();
+        store.addGraph("http://example.com/g1", copy(data));
+        store.shutdown();
+
+        MemStore loaded = memStore(config);
+        assertTrue( loaded.asDataset().getNamedModel("http://example.com/g1").isIsomorphicWith(data) );
+        assertTrue( loaded.getUnionModel().isIsomorphicWith(data) );
+        file.delete();
+    }
+
+    @Test
+    public void testSnapshotReads() {
+        final MemStore store = memStore(MemStore.SNAPSHOT_READS_PARAM, "true");
+        Model data = testData();
+        store.addGraph("http://example.com/g1", copy(data));
+
+        store.lock();
+        try {
+            Model before = store.asDataset().getNamedModel("http://example.com/g1");
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    store.deleteGraph("http://example.com/g1");
+                }
+            });
+            writer.start();
+            writer.join();
+            assertTrue( before.isIsomorphicWith(data) );
+            assertTrue( store.getUnionModel().isIsomorphicWith(data) );
+        } catch (InterruptedException e) {
+            fail("Interrupted");
+        } finally {
+            store.unlock();
+        }
+        assertTrue( store.getUnionModel().isEmpty() );
+        assertFalse( store.asDataset().containsNamedModel("http://example.com/g1") );
+    }
+
+    @Test
+    public void testSnapshotMissingGraph() throws IOException {
+        MemStore store = memStore(MemStore.SNAPSHOT_READS_PARAM, "true");
+        String g2 = "http://example.com/g2";
+
+        // Readers see an empty graph, as for a plain MemStore
+        Model missing = store.asDataset().getNamedModel(g2);
+        assertNotNull( missing );
+        assertTrue( missing.isEmpty() );
+        assertFalse( store.asDataset().containsNamedModel(g2) );
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StoreExport.exportGraph(store, g2, out, false);
+        assertEquals(0, out.size());
+
+        // The writer can create a graph through the dataset
+        store.lockWrite();
+        try {
+            store.asDataset().getNamedModel(g2).add(RDFS.Class, RDFS.label, "class");
+        } finally {
+            store.unlock();
+        }
+        assertEquals(1, store.asDataset().getNamedModel(g2).size());
+        assertTrue( store.asDataset().containsNamedModel(g2) );
+        assertEquals(1, store.getUnionModel().size());
+    }
+
+    @Test
+    public void testSnapshotOverlays() {
+        final MemStore store = memStore(MemStore.SNAPSHOT_READS_PARAM, "true", StoreBase.DIFF_UPDATE_PARAM, "true");
+        String g1 = "http://example.com/g1";
+        Model data = testData();
+        store.addGraph(g1, copy(data));
+        Graph published = store.snapshotDataset.published.graphs.get(g1);
+
+        // Reading within a write does not make a private copy
+        store.lockWrite();
+        try {
+            assertEquals(3, store.asDataset().getNamedModel(g1).size());
+        } finally {
+            store.unlock();
+        }
+        assertSame(published, store.snapshotDataset.published.graphs.get(g1));
+
+        // Repeated small changes build up overlays, which are eventually compacted
+        Model expected = copy(data);
+        for (int i = 0; i < 20; i++) {
+            Model before = copy(expected);
+            expected.add(expected.createResource("http://example.com/r" + i), RDFS.label, "r" + i);
+            if (i % 3 == 0) {
+                expected.removeAll(expected.createResource("http://example.com/r" + (i - 1)), null, null);
+            }
+            final Model update = copy(expected);
+            store.lock();
+            try {
+                Model reading = store.asDataset().getNamedModel(g1);
+                Thread writer = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        store.updateGraph("http://example.com/g1", update);
+                    }
+                });
+                writer.start();
+                writer.join();
+                assertTrue( reading.isIsomorphicWith(before) );
+            } catch (InterruptedException e) {
+                fail("Interrupted");
+            } finally {
+                store.unlock();
+            }
+            assertTrue( store.asDataset().getNamedModel(g1).isIsomorphicWith(expected) );
+        }
+        assertTrue( store.getUnionModel().isIsomorphicWith(expected) );
+    }
+}
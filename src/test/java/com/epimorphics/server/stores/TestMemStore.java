@@ -9,13 +9,23 @@
 
 package com.epimorphics.server.stores;
 
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 
 import org.junit.Test;
 import static org.junit.Assert.*;
+import static com.epimorphics.server.stores.StoreFixtures.*;
 
+import com.epimorphics.server.core.BatchDeleteIndexer;
+import com.epimorphics.server.inference.RDFSMinClosure;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.util.FileManager;
+import com.hp.hpl.jena.vocabulary.RDFS;
 
 public class TestMemStore {
 
@@ -31,4 +41,108 @@ public class TestMemStore {
         assertEquals(3, m.size());
         assertEquals(3, store.getUnionModel().size());
     }
+
+    @Test
+    public void testStreamingAdd() throws IOException {
+        MemStore store = memStore(StoreBase.STREAMING_PARAM, "true");
+
+        store.addGraph("http://example.com/g1", new FileInputStream(TEST_DATA), "text/turtle");
+        assertEquals(3, store.asDataset().getNamedModel("http://example.com/g1").size());
+        assertEquals(3, store.getUnionModel().size());
+
+        store.updateGraph("http://example.com/g1", new FileInputStream(TEST_DATA), "text/turtle");
+        assertEquals(3, store.getUnionModel().size());
+    }
+
+    @Test
+    public void testStreamingMutateAndLog() throws IOException {
+        String logDir = Files.createTempDirectory("journal").toString();
+        MemStore store = memStore(StoreBase.STREAMING_PARAM, "true", StoreBase.LOG_PARAM, logDir, StoreBase.LOG_SYNC_PARAM, "true");
+        store.addMutator( new RDFSMinClosure(FileManager.get().loadModel("src/test/resources/ontology.ttl")) );
+        Model abox = FileManager.get().loadModel("src/test/resources/testAbox.ttl");
+
+        // The parse feeds the mutated triples to the store
+        store.addGraph("http://example.com/g1", new FileInputStream("src/test/resources/testAbox.ttl"), "text/turtle");
+        Model closure = FileManager.get().loadModel("src/test/resources/testAboxClosure.ttl");
+        assertTrue( store.asDataset().getNamedModel("http://example.com/g1").isIsomorphicWith(closure) );
+
+        // and the unmutated triples to the journal
+        assertEquals(1, store.journal.getLastSequence());
+        store.shutdown();
+        MemStore replayed = memStore();
+        new JournalReplay(replayed, logDir).replay();
+        assertTrue( replayed.asDataset().getNamedModel("http://example.com/g1").isIsomorphicWith(abox) );
+    }
+
+    @Test
+    public void testBatch() {
+        MemStore store = memStore();
+        Model data = testData();
+
+        store.startBatch();
+        store.addGraph("http://example.com/g1", data);
+        store.addGraph("http://example.com/g2", copy(data));
+        store.deleteGraph("http://example.com/g1");
+        store.endBatch();
+
+        assertFalse( store.asDataset().containsNamedModel("http://example.com/g1") );
+        assertEquals(3, store.asDataset().getNamedModel("http://example.com/g2").size());
+        assertEquals(3, store.getUnionModel().size());
+    }
+
+    @Test
+    public void testDiffUpdate() {
+        MemStore store = memStore(StoreBase.DIFF_UPDATE_PARAM, "true");
+        String g1 = "http://example.com/g1";
+        Model data = testData();
+
+        store.updateGraph(g1, copy(data));
+        assertEquals(3, store.asDataset().getNamedModel(g1).size());
+
+        store.updateGraph(g1, copy(data));
+        assertEquals(3, store.asDataset().getNamedModel(g1).size());
+
+        Model changed = copy(data);
+        changed.removeAll(null, RDFS.label, null);
+        changed.add(changed.createResource("http://example.com/red"), RDFS.label, "red");
+        store.updateGraph(g1, changed);
+        Model stored = store.asDataset().getNamedModel(g1);
+        assertEquals(3, stored.size());
+        assertTrue( stored.isIsomorphicWith(changed) );
+        assertEquals(3, store.getUnionModel().size());
+    }
+
+    @Test
+    public void testDeleteGraphs() {
+        MemStore store = memStore();
+        final List<Collection<String>> indexed = new ArrayList<Collection<String>>();
+        store.addIndexer(new BatchDeleteIndexer() {
+            @Override public void startBatch() {}
+            @Override public void endBatch() {}
+            @Override public void addGraph(String graphname, Model graph) {}
+            @Override public void updateGraph(String graphname, Model graph) {}
+            @Override public void deleteGraph(String graphname) {
+                fail("Expected a batched delete");
+            }
+            @Override public void deleteGraphs(Collection<String> graphnames) {
+                indexed.add(graphnames);
+            }
+        });
+        Model data = testData();
+        store.addGraph("http://example.com/a/1", data);
+        store.addGraph("http://example.com/a/2", data);
+        store.addGraph("http://example.com/b/1", data);
+        store.addGraph("http://example.com/b/2", data);
+
+        List<String> deleted = store.deleteGraphsWithPrefix("http://example.com/a/");
+        assertEquals(2, deleted.size());
+        assertEquals(1, indexed.size());
+        assertEquals(2, indexed.get(0).size());
+        assertTrue( store.asDataset().getNamedModel("http://example.com/a/1").isEmpty() );
+        assertFalse( store.asDataset().getNamedModel("http://example.com/b/1").isEmpty() );
+
+        assertEquals(1, store.deleteGraphsMatching(".*/b/2").size());
+        assertTrue( store.deleteGraphsMatching("http://example.com/c/.*").isEmpty() );
+        assertFalse( store.asDataset().getNamedModel("http://example.com/b/1").isEmpty() );
+    }
 }
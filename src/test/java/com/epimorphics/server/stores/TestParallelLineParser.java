@@ -0,0 +1,66 @@
+/******************************************************************
+ * File:        TestParallelLineParser.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+
+package com.epimorphics.server.stores;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static com.epimorphics.server.stores.StoreFixtures.*;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+
+public class TestParallelLineParser {
+
+    @Test
+    public void testParallelParse() {
+        StringBuffer nt = new StringBuffer();
+        for (int i = 0; i < 2000; i++) {
+            nt.append("<http://example.com/r" + i + "> <http://example.com/p> _:shared .\n");
+        }
+        Model expected = ModelFactory.createDefaultModel();
+        expected.read(new ByteArrayInputStream(nt.toString().getBytes()), null, "N-TRIPLES");
+
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            Model parsed = ModelFactory.createDefaultModel();
+            new ParallelLineParser(pool, 3).setChunkSize(1024)
+                .parse(new ByteArrayInputStream(nt.toString().getBytes()), Lang.NTRIPLES, StreamRDFLib.graph(parsed.getGraph()));
+            assertEquals(2000, parsed.size());
+            assertEquals(1, parsed.listObjects().toList().size());
+            assertTrue( parsed.isIsomorphicWith(expected) );
+        } finally {
+            pool.shutdown();
+        }
+
+        MemStore store = memStore(StoreBase.PARSE_THREADS_PARAM, "2");
+        store.addGraph("http://example.com/g", new ByteArrayInputStream(nt.toString().getBytes()), "application/n-triples");
+        assertTrue( store.asDataset().getNamedModel("http://example.com/g").isIsomorphicWith(expected) );
+        store.shutdown();
+    }
+}
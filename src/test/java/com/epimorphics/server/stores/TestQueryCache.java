@@ -0,0 +1,53 @@
+/******************************************************************
+ * File:        TestQueryCache.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+
+package com.epimorphics.server.stores;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static com.epimorphics.server.stores.StoreFixtures.*;
+
+import com.hp.hpl.jena.query.ResultSetRewindable;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+public class TestQueryCache {
+
+    @Test
+    public void testQueryCache() {
+        MemStore store = memStore(StoreBase.QUERY_CACHE_PARAM, "1");
+        store.addGraph("http://example.com/g1", testData());
+
+        String query = "SELECT * WHERE { ?s ?p ?o }";
+        assertEquals(3, store.select(query).size());
+        assertEquals(1, store.queryCache.size());
+        ResultSetRewindable cached = store.select(query);
+        assertEquals(3, cached.size());
+        assertEquals(1, store.queryCache.size());
+        assertTrue( cached.next().getResource("s").getModel() != null );
+
+        store.addGraph("http://example.com/g2", ModelFactory.createDefaultModel()
+                .add(RDFS.Class, RDFS.label, "class"));
+        assertEquals(4, store.select(query).size());
+        assertEquals(1, store.queryCache.size());
+    }
+}
@@ -0,0 +1,83 @@
+/******************************************************************
+ * File:        TestShardedStore.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.server.stores;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.util.FileManager;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+public class TestShardedStore {
+
+    @Test
+    public void testShardedStore() throws IOException {
+        File dir = Files.createTempDirectory("sharded").toFile();
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(ShardedStore.LOCATION_PARAM, dir.getPath());
+        config.put(ShardedStore.SHARDS_PARAM, "3");
+        config.put(ShardedStore.SHARD_PREFIXES_PARAM, "http://example.com/a/=0;http://example.com/a/b/=2");
+        ShardedStore store = new ShardedStore();
+        store.init(config, null);
+
+        assertSame(store.getShards().get(0), store.shardFor("http://example.com/a/g"));
+        assertSame(store.getShards().get(2), store.shardFor("http://example.com/a/b/g"));
+
+        Model data = FileManager.get().loadModel("src/test/data/blue.ttl");
+        Model extra = ModelFactory.createDefaultModel().add(RDFS.Class, RDFS.label, "class");
+        store.addGraph("http://example.com/a/g", data);
+        store.addGraph("http://example.com/a/b/g", data);
+        store.addGraph("http://example.com/other", extra);
+
+        // The same triples in two shards only appear once in the union
+        assertEquals(4, store.getUnionModel().listStatements().toList().size());
+        assertEquals(3, store.asDataset().asDatasetGraph().size());
+        assertTrue( store.asDataset().getNamedModel("http://example.com/other").isIsomorphicWith(extra) );
+        assertEquals(4, store.select("SELECT * WHERE { ?s ?p ?o }").size());
+
+        // Within a lock the shards are read lazily in the caller's transactions
+        store.lock();
+        try {
+            assertEquals(4, store.getUnionModel().listStatements().toList().size());
+            assertEquals(1, store.getUnionModel().listStatements(RDFS.Class, null, (RDFNode)null).toList().size());
+            assertTrue( store.asDataset().getNamedModel("http://example.com/a/b/g").isIsomorphicWith(data) );
+        } finally {
+            store.unlock();
+        }
+
+        long version = store.getVersion();
+        store.deleteGraph("http://example.com/a/g");
+        assertTrue( store.getVersion() > version );
+        assertTrue( store.asDataset().getNamedModel("http://example.com/a/g").isEmpty() );
+        assertEquals(4, store.getUnionModel().listStatements().toList().size());
+        store.shutdown();
+    }
+}
@@ -0,0 +1,68 @@
+/******************************************************************
+ * File:        TestStoreEvents.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+
+package com.epimorphics.server.stores;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static com.epimorphics.server.stores.StoreFixtures.*;
+
+import com.epimorphics.server.core.StoreEvent;
+import com.epimorphics.server.core.StoreListener;
+import com.hp.hpl.jena.rdf.model.Model;
+
+public class TestStoreEvents {
+
+    @Test
+    public void testChangeEvents() {
+        MemStore store = memStore();
+        final List<StoreEvent> events = new ArrayList<StoreEvent>();
+        store.addListener(new StoreListener() {
+            @Override
+            public void storeChanged(StoreEvent event) {
+                events.add(event);
+            }
+        });
+        Model data = testData();
+
+        store.addGraph("http://example.com/g1", copy(data));
+        store.addGraph("http://example.com/g2", copy(data));
+        store.deleteGraph("http://example.com/g1");
+        assertEquals(3, events.size());
+        assertEquals(StoreEvent.Type.ADDED, events.get(0).getType());
+        assertTrue( events.get(0).getAdded().isIsomorphicWith(data) );
+        assertEquals(StoreEvent.Type.DELETED, events.get(2).getType());
+        assertEquals(3, store.getVersion());
+        assertEquals(3, store.getGraphVersion("http://example.com/g1"));
+        assertEquals(2, store.getGraphVersion("http://example.com/g2"));
+
+        store.startBatch();
+        store.addGraph("http://example.com/g3", copy(data));
+        assertEquals(3, events.size());
+        store.abortBatch();
+        assertEquals(3, events.size());
+        assertEquals(4, store.getVersion());
+    }
+}
@@ -0,0 +1,117 @@
+/******************************************************************
+ * File:        TestStoreExport.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+
+package com.epimorphics.server.stores;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static com.epimorphics.server.stores.StoreFixtures.*;
+
+import com.hp.hpl.jena.query.Dataset;
+import com.hp.hpl.jena.query.DatasetFactory;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+public class TestStoreExport {
+
+    @Test
+    public void testExport() throws IOException {
+        MemStore store = memStore();
+        Model data = testData();
+        store.addGraph("http://example.com/g1", data);
+        store.addGraph("http://example.com/g2", ModelFactory.createDefaultModel().add(RDFS.Class, RDFS.label, "class"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StoreExport.exportGraph(store, "http://example.com/g1", out, false);
+        Model exported = ModelFactory.createDefaultModel();
+        exported.read(new ByteArrayInputStream(out.toByteArray()), null, "N-TRIPLES");
+        assertTrue( exported.isIsomorphicWith(data) );
+
+        out = new ByteArrayOutputStream();
+        StoreExport.exportDataset(store, out, true);
+        Dataset ds = DatasetFactory.createMem();
+        RDFDataMgr.read(ds, new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())), Lang.NQUADS);
+        assertTrue( ds.getNamedModel("http://example.com/g1").isIsomorphicWith(data) );
+        assertEquals(1, ds.getNamedModel("http://example.com/g2").size());
+
+        File dir = Files.createTempDirectory("export").toFile();
+        List<File> files = StoreExport.exportGraphs(store, dir, 2);
+        assertEquals(2, files.size());
+        ds = DatasetFactory.createMem();
+        RDFDataMgr.read(ds, new GZIPInputStream(new FileInputStream(files.get(0))), Lang.NQUADS);
+        assertTrue( ds.getNamedModel("http://example.com/g1").isIsomorphicWith(data) );
+    }
+
+    @Test
+    public void testExportEnabled() {
+        assertFalse( StoreExport.isEnabled( memStore() ) );
+        assertTrue( StoreExport.isEnabled( memStore(StoreExport.EXPORT_PARAM, "true") ) );
+    }
+
+    @Test
+    public void testSpooledExport() throws IOException {
+        final MemStore store = memStore();
+        assertFalse( StoreExport.hasIsolatedReads(store) );
+        store.addGraph("http://example.com/g1", testData());
+
+        // A client reading the download must not hold up writers to the store
+        final boolean[] written = new boolean[1];
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                if (!written[0]) {
+                    Thread writer = new Thread() {
+                        @Override
+                        public void run() {
+                            store.addGraph("http://example.com/g2", ModelFactory.createDefaultModel().add(RDFS.Class, RDFS.label, "class"));
+                        }
+                    };
+                    writer.start();
+                    try {
+                        writer.join(5000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    written[0] = !writer.isAlive();
+                }
+                super.write(b, off, len);
+            }
+        };
+        StoreExport.exportGraph(store, "http://example.com/g1", out, false);
+        assertTrue( written[0] );
+        Model exported = ModelFactory.createDefaultModel();
+        exported.read(new ByteArrayInputStream(out.toByteArray()), null, "N-TRIPLES");
+        assertTrue( exported.isIsomorphicWith( testData() ) );
+    }
+}
@@ -0,0 +1,90 @@
+/******************************************************************
+ * File:        TestStoreMetrics.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+
+package com.epimorphics.server.stores;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static com.epimorphics.server.stores.StoreFixtures.*;
+
+import com.epimorphics.server.metrics.Metrics;
+import com.epimorphics.server.webapi.MetricsAPI;
+import com.epimorphics.server.webapi.marshalling.JSFullWriter;
+import com.hp.hpl.jena.rdf.model.Model;
+
+public class TestStoreMetrics {
+
+    @Test
+    public void testMetrics() {
+        MemStore store = memStore(StoreBase.METRICS_PARAM, "testMetrics");
+        Model data = testData();
+        store.addGraph("http://example.com/g1", copy(data));
+
+        Map<String, Number> values = Metrics.getRegistry().getValues();
+        assertEquals(1L, values.get("testMetrics.txn.commits"));
+        assertEquals(1L, values.get("testMetrics.lock.write.hold.count"));
+        assertEquals((long)data.size(), values.get("testMetrics.load.triples"));
+    }
+
+    @Test
+    public void testUploadMetrics() throws IOException {
+        MemStore store = memStore(StoreBase.METRICS_PARAM, "testUploadMetrics");
+        store.addGraph("http://example.com/g1", new FileInputStream(TEST_DATA), "text/turtle");
+        store.updateGraph("http://example.com/g1", new FileInputStream(TEST_DATA), "text/turtle");
+        store.addGraph("http://example.com/g1", new FileInputStream(TEST_DATA), "text/turtle");
+
+        // Adding triples which are already stored loads nothing new
+        Map<String, Number> values = Metrics.getRegistry().getValues();
+        assertEquals(3L, values.get("testUploadMetrics.load.count"));
+        assertEquals(2 * testData().size(), values.get("testUploadMetrics.load.triples"));
+    }
+
+    @Test
+    public void testDefaultPrefix() {
+        MemStore store = new MemStore();
+        store.setServiceName("namedTestStore");
+        store.init(config(), null);
+        store.addGraph("http://example.com/g1", testData());
+        assertEquals(1L, Metrics.getRegistry().getValues().get("namedTestStore.txn.commits"));
+    }
+
+    @Test
+    public void testMetricsJson() throws Exception {
+        Map<String, Number> values = new LinkedHashMap<String, Number>();
+        values.put("a\"b", 1L);
+        values.put("rate", Double.NaN);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JSFullWriter out = new JSFullWriter(bytes);
+        out.startOutput();
+        new MetricsAPI.MetricValues(values).writeTo(out);
+        out.finishOutput();
+        String json = bytes.toString("UTF-8");
+        assertTrue( json.contains("\"a\\\"b\" : 1") );
+        assertTrue( json.contains("\"rate\" : null") );
+    }
+}
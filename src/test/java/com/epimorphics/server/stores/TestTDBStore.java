@@ -0,0 +1,111 @@
+/******************************************************************
+ * File:        TestTDBStore.java
+ * Created by:  agent
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+
+package com.epimorphics.server.stores;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static com.epimorphics.server.stores.StoreFixtures.*;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.tdb.StoreConnection;
+import com.hp.hpl.jena.tdb.base.file.Location;
+
+public class TestTDBStore {
+    static final String BLUE = "http://example.com/blue";
+    static final String QUAD_GRAPH = "http://example.com/q";
+    static final String ADDED = "http://example.com/added";
+
+    @Test
+    public void testPreloadThenTransactions() throws IOException {
+        String location = Files.createTempDirectory("tdb").toString();
+        File preload = Files.createTempDirectory("preload").toFile();
+        Files.copy(new File(TEST_DATA).toPath(), new File(preload, "blue.ttl").toPath());
+        FileWriter out = new FileWriter( new File(preload, "quads.nq") );
+        out.write("<http://example.com/s> <http://example.com/p> \"v\" <" + QUAD_GRAPH + "> .\n");
+        out.close();
+        Map<String, String> config = config(
+                TDBStore.LOCATION_PARAM, location,
+                TDBStore.PRELOAD_PARAM, preload.getPath(),
+                TDBStore.PRELOAD_BASE_PARAM, "http://example.com/");
+
+        TDBStore store = tdbStore(config);
+        assertTrue( testData().isIsomorphicWith( graph(store, BLUE) ) );
+        assertEquals(1, graph(store, QUAD_GRAPH).size());
+
+        // After the preload the store is used transactionally as normal
+        store.addGraph(ADDED, testData());
+        store.deleteGraph(BLUE);
+        assertTrue( graph(store, BLUE).isEmpty() );
+        assertTrue( testData().isIsomorphicWith( graph(store, ADDED) ) );
+        store.shutdown();
+        StoreConnection.release( new Location(location) );
+
+        // Reopening an existing store skips the preload and keeps the updates
+        store = tdbStore(config);
+        assertTrue( graph(store, BLUE).isEmpty() );
+        assertTrue( testData().isIsomorphicWith( graph(store, ADDED) ) );
+        assertEquals(1, graph(store, QUAD_GRAPH).size());
+        store.shutdown();
+        StoreConnection.release( new Location(location) );
+    }
+
+    @Test
+    public void testSelectDefault() throws IOException {
+        String location = Files.createTempDirectory("tdb").toString();
+        TDBStore store = tdbStore( config(
+                TDBStore.LOCATION_PARAM, location,
+                StoreBase.QUERY_CACHE_PARAM, "1") );
+        store.addGraph(ADDED, testData());
+
+        // Named graphs are in the union but not in the TDB default graph
+        String query = "SELECT * WHERE { ?s ?p ?o }";
+        assertEquals(3, store.select(query).size());
+        assertEquals(0, store.selectDefault(query).size());
+        assertEquals(3, store.select(query).size());
+        assertEquals(2, store.queryCache.size());
+        store.shutdown();
+        StoreConnection.release( new Location(location) );
+    }
+
+    private TDBStore tdbStore(Map<String, String> config) {
+        TDBStore store = new TDBStore();
+        store.init(config, null);
+        store.postPostInit();
+        return store;
+    }
+
+    private Model graph(TDBStore store, String graphname) {
+        store.lock();
+        try {
+            return copy( store.asDataset().getNamedModel(graphname) );
+        } finally {
+            store.unlock();
+        }
+    }
+}